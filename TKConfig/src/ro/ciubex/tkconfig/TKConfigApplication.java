@@ -22,32 +22,68 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.xmlpull.v1.XmlPullParserException;
+
+import ro.ciubex.tkconfig.models.Campaign;
+import ro.ciubex.tkconfig.models.BoundTemplate;
 import ro.ciubex.tkconfig.models.Command;
 import ro.ciubex.tkconfig.models.Constants;
 import ro.ciubex.tkconfig.models.ContactChooseHandler;
 import ro.ciubex.tkconfig.models.ContactModel;
 import ro.ciubex.tkconfig.models.GpsContact;
 import ro.ciubex.tkconfig.models.History;
+import ro.ciubex.tkconfig.models.OutboxMessage;
+import ro.ciubex.tkconfig.models.ParameterSchema;
+import ro.ciubex.tkconfig.models.SortedCommandList;
+import ro.ciubex.tkconfig.models.Utilities;
+import ro.ciubex.tkconfig.sms.CampaignRunner;
+import ro.ciubex.tkconfig.sms.CircuitBreaker;
+import ro.ciubex.tkconfig.sms.DeliveryReport;
+import ro.ciubex.tkconfig.sms.DuplicateFilter;
+import ro.ciubex.tkconfig.sms.SentFolderWriter;
+import ro.ciubex.tkconfig.sms.SmsEncoder;
+import ro.ciubex.tkconfig.sms.SmsManagerTransport;
+import ro.ciubex.tkconfig.sms.SmsRateLimiter;
+import ro.ciubex.tkconfig.sms.SmsRetryScheduler;
+import ro.ciubex.tkconfig.sms.SmsStatusReceiver;
+import ro.ciubex.tkconfig.sms.SmsTransport;
+import ro.ciubex.tkconfig.storage.CampaignStore;
+import ro.ciubex.tkconfig.storage.CommandCatalog;
+import ro.ciubex.tkconfig.storage.DatabaseHelper;
+import ro.ciubex.tkconfig.storage.GpsContactStore;
+import ro.ciubex.tkconfig.storage.HistoryCompactor;
+import ro.ciubex.tkconfig.storage.HistoryRetentionPolicy;
+import ro.ciubex.tkconfig.storage.HistoryStore;
+import ro.ciubex.tkconfig.storage.OutboxStore;
+import ro.ciubex.tkconfig.storage.ParameterRegistry;
+import ro.ciubex.tkconfig.storage.PersistenceScheduler;
+import ro.ciubex.tkconfig.storage.SQLiteCampaignStore;
+import ro.ciubex.tkconfig.storage.SQLiteGpsContactStore;
+import ro.ciubex.tkconfig.storage.SQLiteHistoryStore;
+import ro.ciubex.tkconfig.storage.SQLiteOutboxStore;
+import ro.ciubex.tkconfig.storage.StateSnapshot;
+import ro.ciubex.tkconfig.tasks.SendSmsAsyncTask;
 
 import android.annotation.TargetApi;
+import android.app.Activity;
 import android.app.Application;
-import android.app.PendingIntent;
 import android.app.ProgressDialog;
-import android.content.ContentValues;
 import android.content.Context;
-import android.content.Intent;
 import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
 import android.content.pm.PackageManager;
-import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Environment;
 import android.preference.PreferenceManager;
-import android.telephony.SmsManager;
+import android.telephony.TelephonyManager;
+import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -57,25 +93,67 @@ import android.widget.Toast;
  *
  * @author Claudiu Ciobotariu
  */
-public class TKConfigApplication extends Application {
+public class TKConfigApplication extends Application implements
+        SmsTransport.ReportListener, SmsRetryScheduler.Executor {
     private final static String TAG = TKConfigApplication.class.getName();
     private static Context mContext;
     private ProgressDialog progressDialog;
-    private List<Command> commands;
-    private List<History> histories;
+    private SortedCommandList commands;
+    private Map<Long, Command> mDirtyCommands;
+    private Set<Long> mRemovedCommandIds;
+    private boolean mCommandIdsModified;
+    private long mNextCommandId;
+    private boolean mCommandsLoaded;
+    private StateSnapshot mStateSnapshot;
+    private boolean mSnapshotDirty;
     private List<GpsContact> contacts;
+    // read by the sending threads and by the SMS reports receivers
+    private volatile Map<String, GpsContact> mContactsByPhone;
+    private GpsContactStore mGpsContactStore;
+    private OutboxStore mOutboxStore;
+    private CampaignStore mCampaignStore;
+    private CampaignRunner mCampaignRunner;
+    private SendSmsAsyncTask mSendSmsTask;
+    private SendSmsAsyncTask mUrgentSmsTask;
+    private SmsRateLimiter mSmsRateLimiter;
     private Locale defaultLocale;
     private boolean mustReloadCommands;
-    private SmsManager smsManager;
+    private SmsTransport mSmsTransport;
+    private SmsRetryScheduler mSmsRetryScheduler;
+    private DuplicateFilter mDuplicateFilter;
     private ContactChooseHandler contactChooseHandler;
     private List<ContactModel> phoneContacts;
-    private Uri sendFolderUri;
+    private SentFolderWriter mSentFolderWriter;
     private String defaultBackupPath;
 
     private static int mSdkInt = 8;
     private SharedPreferences mSharedPreferences;
-
+    private PersistenceScheduler mPersistenceScheduler;
+    private ParameterRegistry mParameterRegistry;
+    private CommandCatalog mCommandCatalog;
+    private DatabaseHelper mDatabaseHelper;
+    private HistoryStore mHistoryStore;
+    private HistoryCompactor mHistoryCompactor;
+    private int mHistoriesAdded;
+    private static final int HISTORIES_PER_COMPACTION = 100;
+
+    private static final String KEY_COMMANDS = "commands";
+    private static final String KEY_COMMAND_IDS = "commandIds";
+    private static final String KEY_COMMAND_NEXT_ID = "commandNextId";
+    private static final String KEY_PREFIX_COMMAND = "cmd_";
+    private static final String KEY_STATE_GENERATION = "stateGeneration";
     private static final String KEY_PREFIX_HISTORY = "history_";
+    private static final String KEY_HISTORIES = "histories";
+    private static final long OUTBOX_RETENTION = 7 * 24 * 60 * 60 * 1000L;
+    public static final String KEY_HISTORY_MAX_ENTRIES = "historyMaxEntries";
+    public static final String KEY_HISTORY_MAX_AGE = "historyMaxAge";
+    public static final String KEY_HISTORY_MAX_PER_TRACKER = "historyMaxPerTracker";
+    public static final String KEY_SMS_RATE_BURST = "smsRateBurst";
+    public static final String KEY_SMS_RATE_LIMIT = "smsRateLimit";
+    public static final String KEY_SMS_RATE_LIMIT_SIM = "smsRateLimitSim";
+    public static final String KEY_SMS_DEDUP_WINDOW = "smsDedupWindow";
+    public static final String KEY_TRACKER_MODEL = "trackerModel";
+    public static final String DEFAULT_TRACKER_MODEL = "TK102";
     private boolean mMustRestart;
 
     private static final String KEY_HAVE_PERMISSIONS_ASKED = "havePermissionsAsked";
@@ -108,23 +186,127 @@ public class TKConfigApplication extends Application {
         TKConfigApplication.mContext = getApplicationContext();
         mSdkInt = android.os.Build.VERSION.SDK_INT;
         mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        mPersistenceScheduler = new PersistenceScheduler(mSharedPreferences);
+        mParameterRegistry = new ParameterRegistry(getSharedPreferences(
+                ParameterRegistry.PREFERENCES_NAME, Context.MODE_PRIVATE));
+        mCommandCatalog = new CommandCatalog(getAssets());
+        mSentFolderWriter = new SentFolderWriter(getContentResolver());
         Log.i(TAG, "TKConfigApplication started!");
-        commands = new ArrayList<Command>() {
-            private static final long serialVersionUID = 8883327862834322486L;
-
-            public boolean add(Command mt) {
-                int index = Collections.binarySearch(this, mt);
-                if (index < 0)
-                    index = ~index;
-                super.add(index, mt);
-                return true;
-            }
-        };
-        histories = new ArrayList<History>();
+        commands = new SortedCommandList();
+        mDirtyCommands = new LinkedHashMap<Long, Command>();
+        mRemovedCommandIds = new HashSet<Long>();
+        mDatabaseHelper = new DatabaseHelper(this);
+        mHistoryStore = new SQLiteHistoryStore(mDatabaseHelper);
+        mHistoryCompactor = new HistoryCompactor(mHistoryStore, mDatabaseHelper,
+                mPersistenceScheduler);
+        migrateHistories();
+        compactHistories(false);
         contacts = new ArrayList<GpsContact>();
+        mContactsByPhone = new ConcurrentHashMap<String, GpsContact>();
+        mGpsContactStore = new SQLiteGpsContactStore(mDatabaseHelper);
         defaultLocale = Locale.getDefault();
-        smsManager = SmsManager.getDefault();
+        mSmsTransport = new SmsManagerTransport(this);
+        mSmsRetryScheduler = new SmsRetryScheduler(this);
+        mStateSnapshot = new StateSnapshot(getFilesDir());
+        loadStateSnapshot();
         contactsLoad();
+        mOutboxStore = new SQLiteOutboxStore(mDatabaseHelper);
+        mSmsRateLimiter = new SmsRateLimiter(getSmsRateBurst(),
+                getSmsRateLimit(KEY_SMS_RATE_LIMIT, "1"),
+                getSmsRateLimit(KEY_SMS_RATE_LIMIT_SIM, "0"));
+        mDuplicateFilter = new DuplicateFilter(getSmsDedupWindow(), contacts.size());
+        mCampaignStore = new SQLiteCampaignStore(mDatabaseHelper);
+        mCampaignRunner = new CampaignRunner(this, mCampaignStore);
+        resumeOutbox();
+    }
+
+    /**
+     * Load the commands from the state snapshot.
+     *
+     * @return False if the snapshot is not valid and the commands should be
+     * loaded from the application preferences.
+     */
+    private boolean loadStateSnapshot() {
+        long start = System.nanoTime();
+        StateSnapshot.State state = mStateSnapshot.read(getStateGeneration());
+        if (state == null) {
+            mSnapshotDirty = true;
+            return false;
+        }
+        commands.addAll(state.commands);
+        mNextCommandId = state.nextCommandId;
+        mCommandsLoaded = true;
+        Log.d(TAG, "State snapshot loaded in " + (System.nanoTime() - start) / 1000
+                + " us: " + commands.size() + " commands.");
+        return true;
+    }
+
+    /**
+     * Obtain the state generation, which is incremented on each change of the
+     * commands stored on the application preferences.
+     *
+     * @return The state generation.
+     */
+    public long getStateGeneration() {
+        return mPersistenceScheduler.getLong(KEY_STATE_GENERATION, 0L);
+    }
+
+    /**
+     * Increment the state generation, this will invalidate the current state
+     * snapshot.
+     *
+     * @param editor The editor used to store the changes.
+     */
+    private void markStateModified(PersistenceScheduler.Batch editor) {
+        editor.putLong(KEY_STATE_GENERATION, getStateGeneration() + 1);
+        mSnapshotDirty = true;
+    }
+
+    /**
+     * Write the state snapshot if the commands were changed. The state is encoded on the caller thread and written on the
+     * persistence thread.
+     */
+    public void saveStateSnapshot() {
+        if (!mSnapshotDirty || !mCommandsLoaded) {
+            return;
+        }
+        mSnapshotDirty = false;
+        StateSnapshot.State state = new StateSnapshot.State();
+        state.generation = getStateGeneration();
+        state.nextCommandId = mNextCommandId;
+        state.commands = commands;
+        final byte[] content = StateSnapshot.encode(state);
+        mPersistenceScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                mStateSnapshot.write(content);
+            }
+        });
+    }
+
+    /**
+     * Delete the state snapshot, used when the application preferences are
+     * restored. The commands will be reloaded from the application
+     * preferences.
+     */
+    public void invalidateStateSnapshot() {
+        mSnapshotDirty = false;
+        mCommandsLoaded = false;
+        mPersistenceScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                mStateSnapshot.delete();
+            }
+        });
+    }
+
+    /**
+     * Obtain the state snapshot.
+     *
+     * @return The state snapshot.
+     */
+    public StateSnapshot getStateSnapshot() {
+        return mStateSnapshot;
     }
 
     public static Context getAppContext() {
@@ -149,198 +331,201 @@ public class TKConfigApplication extends Application {
         return commands;
     }
 
+    /**
+     * Add a command to the command list. A new stable identifier is assigned
+     * to the command and it is marked to be saved.
+     *
+     * @param command The command to be added.
+     * @return Always will be returned true.
+     */
+    public boolean addCommand(Command command) {
+        command.setId(mNextCommandId++);
+        commands.add(command);
+        mCommandIdsModified = true;
+        markCommandModified(command);
+        return true;
+    }
+
+    /**
+     * Remove the command from the specified position in the command list.
+     *
+     * @param position The position of the command to be removed.
+     * @return The removed command.
+     */
+    public Command removeCommand(int position) {
+        Command command = commands.remove(position);
+        mDirtyCommands.remove(command.getId());
+        mRemovedCommandIds.add(command.getId());
+        mCommandIdsModified = true;
+        return command;
+    }
+
+    /**
+     * Change the fields of a command from the command list. The command is
+     * removed and inserted again, to keep the list sorted by name.
+     *
+     * @param command     The command to be changed.
+     * @param name        The new command name.
+     * @param cmd         The new command template.
+     * @param description The new command description.
+     * @param urgent      True if the command should be sent on the urgent lane.
+     */
+    public void updateCommand(Command command, String name, String cmd,
+                              String description, boolean urgent) {
+        boolean listed = commands.remove(command);
+        command.setName(name);
+        command.setCommand(cmd);
+        command.setDescription(description);
+        command.setUrgent(urgent);
+        if (listed) {
+            commands.add(command);
+        }
+        markCommandModified(command);
+    }
+
+    /**
+     * Mark a command as modified, so it will be written on the next commands
+     * save.
+     *
+     * @param command The modified command.
+     */
+    public void markCommandModified(Command command) {
+        mDirtyCommands.put(command.getId(), command);
+    }
+
+    /**
+     * Replace the command list with the commands from the command pack of the
+     * current tracker model. If there is no pack for the model, the default
+     * model pack is used.
+     */
     public void populateDefaultCommands() {
         if (commands.size() > 0) {
             commands.clear();
         }
-        commands.add(new Command(
-                "Initialization",
-                "begin?password?",
-                "Send \"begin+password\" in SMS to the unit, it will reply \"begin ok\" and initialize all the settings."));
-        commands.add(new Command("Change the password",
-                "password?password? ?new-password?",
-                "Send SMS password+old password+space+new password to change the password."));
-        commands.add(new Command(
-                "Authorization",
-                "admin?password? ?admin-phone?",
-                "Send SMS admin+password+space+cell phone number to set up a authorized number."));
-        commands.add(new Command(
-                "Auto Track",
-                "t030s***n?password?",
-                "Send SMS t030s***n+password to the unit, it will reply SMS heaps of times. Remark: the interval must not be less than 20s."));
-        commands.add(new Command("Cancel Auto Track", "notn?password?",
-                "Send notn+password to delete the auto track."));
-        commands.add(new Command(
-                "Swtich to Monitor",
-                "monitor?password?",
-                "Send SMS monitor+password to the unit, and it will reply \"monitor ok !\" and switch to \"monitor\" mode."));
-        commands.add(new Command(
-                "Swtich to Track",
-                "tracker?password?",
-                "Send SMS tracker+password to the unit, and it will reply \"tracker ok !\" and switch to \"track\" mode."));
-        commands.add(new Command(
-                "Geo-fence",
-                "stockade?password? ?longitudeEW?,?latitudeNS?; ?longitudeEW?,?latitudeNS?",
-                "Set up a geo-fence for the unit to restrict its movements within a district. The unit will send the message to the authorized numbers when it breaches the district."));
-        commands.add(new Command("Cancel Geo-fence", "nostockade?password?",
-                "Send SMS nostockade+password to deactivate the Geo-fence function."));
-        commands.add(new Command(
-                "Movement alert",
-                "move?password?",
-                "When the unit stays immobile in a place for 3-10 minutes, the user can send SMS move+password to the unit, then the unit will reply \"move ok\"."));
-        commands.add(new Command("Cancel Movement alert", "nomove?password?",
-                "Send SMS nomove+password to deactivate the movement alert."));
-        commands.add(new Command(
-                "Overspeed alert",
-                "speed?password? ?speed?",
-                "Send SMS speed+password+space+080 to the unit (suppose the speed is 80km/h), and it will reply \"speed ok\"."));
-        commands.add(new Command("Cancel Overspeed alert", "nospeed?password?",
-                "Send SMS nospeed+password to deactivate the overspeed alert."));
-        commands.add(new Command("IMEI checking", "imei?password?",
-                "Send SMS imei+password to the unit to check the IMEI number."));
-        commands.add(new Command("SMS center",
-                "adminsms?password? ?phone-number?",
-                "Send SMS adminsms+password+space+cell phone number to set the SMS center."));
-        commands.add(new Command("Cancel SMS center", "noadminsms?password?",
-                "Send SMS noadminsms+password to cancel the SMS center."));
-        commands.add(new Command(
-                "GPRS: Set server address",
-                "adminip?password? ?server-ip? ?server-port?",
-                "Send SMS adminip+password+space+IP address+space+port. If setup successful, the tracker will reply SMS \"adminip ok\"."));
-        commands.add(new Command("Cancel GPRS", "noadminip?password?",
-                "Send SMS noadminip+password"));
-        commands.add(new Command(
-                "Set APN",
-                "apn?password? ?apn-name?",
-                "Send SMS apn+password+space+specify apn. If setup successful, the tracker will reply SMS \"APN ok\"."));
-        // TK102 b
-        commands.add(new Command(
-                "Low battery alert ON",
-                "lowbattery?password? on",
-                "TK102-2: Tracker will send SMS \"low battery+latitude/longitude\" to authorized numbers 2 times in total in 15 minutes interval when voltage of battery is going to be about 3.55V"));
-        commands.add(new Command(
-                "Low battery alert OFF",
-                "lowbattery?password? off",
-                "TK102-2: Tracker will stop send SMS \"low battery\" allerts."));
-        commands.add(new Command(
-                "State checking",
-                "check?password?",
-                "TK102-2: Check tracker status for GSM, GPS, GPRS and battery."));
-        commands.add(new Command(
-                "Version Checking",
-                "version?password?",
-                "TK102-2: Check tracker version."));
-        commands.add(new Command(
-                "Motion sensor ON",
-                "shake?password? ?sensitive?",
-                "TK102-2: This command will enable shake sensor to send alerts when the tracker is shaked, the ?sensitive? parameter should have a value between 1, for the least sensitive degree and 10 for the most sensitive degree."));
-        commands.add(new Command(
-                "SD storing data ON",
-                "sdlog?password? 1",
-                "TK102-2: Activate the function of storing data in SD card."));
-        commands.add(new Command(
-                "SD storing data OFF",
-                "sdlog?password? 0",
-                "TK102-2: Deactivate the function of storing data in SD card."));
-        commands.add(new Command(
-                "SD send data to the GPRS server ON",
-                "readsd?password? 1",
-                "TK102-2: Activate the function to send data from the SD card to the GPRS server."));
-        commands.add(new Command(
-                "SD send data to the GPRS server OFF",
-                "readsd?password? 0",
-                "TK102-2: Deactivate the function to send data from the SD card to the GPRS server."));
-        commands.add(new Command(
-                "SMS position link",
-                "smslink?password?",
-                "TK102-2: Turn tracker messages with the tracker positions as links."));
-        commands.add(new Command(
-                "SMS position text",
-                "smstext?password?",
-                "TK102-2: Turn tracker back to text messages, default format messages."));
-        commands.add(new Command(
-                "SMS link once",
-                "smslinkone?password?",
-                "TK102-2: Tracker will send one messages with the position as a link."));
-        commands.add(new Command(
-                "Set APN user",
-                "apnuser?password? ?username?",
-                "TK102-2: Set the APN user name."));
-        commands.add(new Command(
-                "Set APN password",
-                "apnuser?password? ?apnpassword?",
-                "TK102-2: Set the APN password."));
-        commands.add(new Command(
-                "Set Time Zone",
-                "time zone?password? ?timezone?",
-                "TK102-2: Set the tracker reports time zone."));
-        commands.add(new Command(
-                "Tlimit function ON",
-                "tlimit?password? ?distance?",
-                "TK102-2: Activate the limited distance for autor reporting mode (t030s***n...). Distance can be a numeric value between 50 and 5999 meters."));
-        commands.add(new Command(
-                "Tlimit function OFF",
-                "tlimit?password? 0",
-                "TK102-2: Deactivate Tlimit function."));
-        commands.add(new Command(
-                "Set GPRS MODE-UDP",
-                "gprsmode?password? 1",
-                "TK102-2: Set GPRS MODE to UDP protocol."));
-        commands.add(new Command(
-                "Set GPRS MODE-TCP",
-                "gprsmode?password? 0",
-                "TK102-2: Set GPRS MODE to TCP protocol. (default protocol)"));
+        mDirtyCommands.clear();
+        String model = getTrackerModel();
+        if (!mCommandCatalog.hasModel(model)) {
+            model = DEFAULT_TRACKER_MODEL;
+        }
+        try {
+            mCommandCatalog.load(model, new CommandCatalog.Listener() {
+                @Override
+                public void onCommand(Command command) {
+                    addCommand(command);
+                }
+            });
+        } catch (IOException e) {
+            Log.e(TAG, "Exception: " + e.getMessage(), e);
+        } catch (XmlPullParserException e) {
+            Log.e(TAG, "Exception: " + e.getMessage(), e);
+        }
     }
 
     /**
      * This method should be used to prepare the initial parameters of specified
-     * command. The parameters are taken from the application preferences.
+     * command. The parameters are taken from the parameters registry, for the
+     * current tracker model.
      *
      * @param command The command to be prepared.
      */
     public void prepareCommandParameters(Command command) {
         if (command.hasParameters()) {
+            String model = getTrackerModel();
             String parameterValue;
             for (String parameterName : command.getParameters()) {
                 // skip if is the password
                 if (!Constants.PASSWORD.equals(parameterName)) {
-                    parameterValue = mSharedPreferences.getString(parameterName,
-                            parameterName);
+                    parameterValue = mParameterRegistry.get(model,
+                            command.getName(), parameterName);
+                    if (parameterValue == null) {
+                        parameterValue = migrateParameter(model, parameterName);
+                    }
                     command.setParameterValue(parameterName, parameterValue);
                 }
             }
         }
     }
 
+    /**
+     * Move a parameter value stored by the older application versions on the
+     * application preferences, to the parameters registry. The older versions
+     * used the value for all the trackers, so it is kept as default value of
+     * every tracker model, not only of the current one.
+     *
+     * @param model         The tracker model.
+     * @param parameterName The parameter name.
+     * @return The parameter value or the parameter name if there is no value.
+     */
+    private String migrateParameter(String model, String parameterName) {
+        String parameterValue = mPersistenceScheduler.getString(parameterName, null);
+        if (parameterValue == null) {
+            return parameterName;
+        }
+        Set<String> models = new HashSet<String>(mCommandCatalog.getModels());
+        models.add(model);
+        mParameterRegistry.putDefault(models, parameterName, parameterValue);
+        mPersistenceScheduler.remove(parameterName);
+        return parameterValue;
+    }
+
+    /**
+     * Obtain the model of the GPS trackers, used to namespace the commands
+     * parameters values.
+     *
+     * @return The tracker model.
+     */
+    public String getTrackerModel() {
+        return mPersistenceScheduler.getString(KEY_TRACKER_MODEL, DEFAULT_TRACKER_MODEL);
+    }
+
+    /**
+     * Obtain the catalog with the command packs of the tracker models.
+     *
+     * @return The command catalog.
+     */
+    public CommandCatalog getCommandCatalog() {
+        return mCommandCatalog;
+    }
+
+    /**
+     * Obtain the registry with the commands parameters values.
+     *
+     * @return The parameters registry.
+     */
+    public ParameterRegistry getParameterRegistry() {
+        return mParameterRegistry;
+    }
+
     /**
      * This method is used to obtain the GPS tracker phone number.
      *
      * @return The GPS tracker phone number.
      */
     private String getGPSPhoneNumber() {
-        return mSharedPreferences.getString("gpsPhoneNumber", "");
+        return mPersistenceScheduler.getString("gpsPhoneNumber", "");
     }
 
     /**
-     * Save the command parameters value to the application preferences.
+     * Save the command parameters value to the parameters registry, for the
+     * current tracker model.
      *
      * @param command The command which parameters should to be saved to the
-     *                application preferences.
+     *                parameters registry.
      */
     public void saveCommandParameters(Command command) {
         if (command.hasParameters()) {
+            String model = getTrackerModel();
             String parameterValue;
-            SharedPreferences.Editor editor = mSharedPreferences.edit();
             for (String parameterName : command.getParameters()) {
                 // skip if is the password
                 if (!Constants.PASSWORD.equals(parameterName)) {
                     parameterValue = command.getParameterValue(parameterName);
                     if (parameterValue != null) {
-                        editor.putString(parameterName, parameterValue);
+                        mParameterRegistry.put(model, command.getName(),
+                                parameterName, parameterValue);
                     }
                 }
             }
-            editor.commit();
         }
     }
 
@@ -350,62 +535,233 @@ public class TKConfigApplication extends Application {
     public void onClose() {
         phoneContacts = null;
         hideProgressDialog();
+        persistState();
     }
 
     /**
-     * Method used to save the commands to the application preferences.
+     * Write the scheduled preference changes and the state snapshot. This
+     * should be invoked from the main thread, e.g. when an activity is
+     * paused.
+     */
+    public void persistState() {
+        flushPendingChanges();
+        saveStateSnapshot();
+        mSentFolderWriter.flushAsync();
+    }
+
+    /**
+     * Write the sent messages buffered for the Send folder. This is a
+     * blocking call and should be invoked from a background thread, e.g. at
+     * the end of a broadcast.
+     */
+    public void flushSentFolder() {
+        mSentFolderWriter.flush();
+        Log.d(TAG, "Send folder: " + mSentFolderWriter.getMessages()
+                + " messages in " + mSentFolderWriter.getRoundTrips() + " bulk inserts");
+    }
+
+    /**
+     * Write all the scheduled preference changes. This should be invoked when
+     * the changes must be stored, e.g. when an activity is paused.
+     */
+    public void flushPendingChanges() {
+        mPersistenceScheduler.flush();
+        mParameterRegistry.flush();
+        Log.d(TAG, "Preferences commits: requested " + mPersistenceScheduler.getRequestedCommits()
+                + ", performed " + mPersistenceScheduler.getPerformedCommits()
+                + ", coalesced " + mPersistenceScheduler.getCoalescedCommits());
+    }
+
+    /**
+     * Obtain the write-behind scheduler used to store the application
+     * preferences.
+     *
+     * @return The persistence scheduler.
+     */
+    public PersistenceScheduler getPersistenceScheduler() {
+        return mPersistenceScheduler;
+    }
+
+    /**
+     * Method used to save the commands to the application preferences. Only
+     * the modified and removed commands are written, each command is stored
+     * under its stable identifier.
      */
     public void commandsSave() {
-        SharedPreferences.Editor editor = mSharedPreferences.edit();
-        editor.putInt("commands", commands.size());
-        int i = 0;
-        for (Command command : commands) {
-            editor.putString("command_" + i + "_name", command.getName());
-            editor.putString("command_" + i + "_cmd", command.getCommand());
-            editor.putString("command_" + i + "_desc", command.getDescription());
-            i++;
+        if (mDirtyCommands.isEmpty() && mRemovedCommandIds.isEmpty()
+                && !mCommandIdsModified) {
+            return;
+        }
+        PersistenceScheduler.Batch editor = mPersistenceScheduler.edit();
+        for (Command command : mDirtyCommands.values()) {
+            String prefix = KEY_PREFIX_COMMAND + command.getId();
+            editor.putString(prefix + "_name", command.getName());
+            editor.putString(prefix + "_cmd", command.getCommand());
+            editor.putString(prefix + "_desc", command.getDescription());
+            editor.putBoolean(prefix + "_urgent", command.isUrgent());
         }
+        for (Long id : mRemovedCommandIds) {
+            removeCommandKeys(editor, id);
+        }
+        if (mCommandIdsModified) {
+            editor.putString(KEY_COMMAND_IDS, getCommandIds());
+            editor.putLong(KEY_COMMAND_NEXT_ID, mNextCommandId);
+        }
+        markStateModified(editor);
         editor.commit();
+        mDirtyCommands.clear();
+        mRemovedCommandIds.clear();
+        mCommandIdsModified = false;
+    }
+
+    /**
+     * Obtain the comma separated list of the command identifiers.
+     *
+     * @return The command identifiers.
+     */
+    private String getCommandIds() {
+        StringBuilder sb = new StringBuilder();
+        for (Command command : commands) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(command.getId());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parse the comma separated list of the stored command identifiers.
+     *
+     * @return The list of command identifiers.
+     */
+    private List<Long> getStoredCommandIds() {
+        String ids = mPersistenceScheduler.getString(KEY_COMMAND_IDS, "");
+        List<Long> result = new ArrayList<Long>();
+        for (String id : ids.split(",")) {
+            if (id.length() > 0) {
+                result.add(Utilities.parseLong(id));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove the preferences keys of a stored command.
+     *
+     * @param editor The editor used to remove the keys.
+     * @param id     The command identifier.
+     */
+    private void removeCommandKeys(PersistenceScheduler.Batch editor, long id) {
+        String prefix = KEY_PREFIX_COMMAND + id;
+        editor.remove(prefix + "_name");
+        editor.remove(prefix + "_cmd");
+        editor.remove(prefix + "_desc");
+        editor.remove(prefix + "_urgent");
     }
 
     /**
      * Method used to load the commands from the application preferences.
      */
     public void commandsLoad() {
-        int count = mSharedPreferences.getInt("commands", 0);
-        int i = 0;
         if (commands.size() > 0) {
             commands.clear();
         }
-        while (i < count) {
-            commands.add(new Command(mSharedPreferences.getString("command_" + i
-                    + "_name", ""), mSharedPreferences.getString("command_" + i
-                    + "_cmd", ""), mSharedPreferences.getString("command_" + i
-                    + "_desc", "")));
-            i++;
+        mDirtyCommands.clear();
+        mRemovedCommandIds.clear();
+        mCommandIdsModified = false;
+        mNextCommandId = mPersistenceScheduler.getLong(KEY_COMMAND_NEXT_ID, 0L);
+        if (!mPersistenceScheduler.contains(KEY_COMMAND_IDS)
+                && mPersistenceScheduler.contains(KEY_COMMANDS)) {
+            mCommandsLoaded = true;
+            migrateCommands();
+            return;
         }
-        if (i == 0) {
+        mCommandsLoaded = true;
+        mSnapshotDirty = true;
+        commands.addAll(readCommandsFromPreferences());
+        if (commands.isEmpty()) {
             populateDefaultCommands();
         }
     }
 
     /**
-     * Remove the commands stored on the application preferences.
+     * Check if the command list was loaded, from the state snapshot or from
+     * the application preferences.
+     *
+     * @return True if the command list was loaded.
      */
-    public void commandsStoreCleanup() {
-        int count = mSharedPreferences.getInt("commands", 0);
-        SharedPreferences.Editor editor = mSharedPreferences.edit();
-        int i = 0;
-        while (i < count) {
+    public boolean isCommandsLoaded() {
+        return mCommandsLoaded;
+    }
+
+    /**
+     * Read the commands stored on the application preferences, in the stored
+     * order.
+     *
+     * @return The stored commands.
+     */
+    public List<Command> readCommandsFromPreferences() {
+        List<Long> ids = getStoredCommandIds();
+        List<Command> result = new ArrayList<Command>(ids.size());
+        Command command;
+        String prefix;
+        for (Long id : ids) {
+            prefix = KEY_PREFIX_COMMAND + id;
+            command = new Command(mPersistenceScheduler.getString(prefix + "_name", ""),
+                    mPersistenceScheduler.getString(prefix + "_cmd", ""),
+                    mPersistenceScheduler.getString(prefix + "_desc", ""));
+            command.setId(id);
+            command.setUrgent(mPersistenceScheduler.getBoolean(prefix + "_urgent", false));
+            result.add(command);
+        }
+        return result;
+    }
+
+    /**
+     * Move the commands stored by older application versions by position to
+     * the stable identifiers layout. This is done only once, after that the
+     * old preferences keys are removed.
+     */
+    private void migrateCommands() {
+        int count = mPersistenceScheduler.getInt(KEY_COMMANDS, 0);
+        PersistenceScheduler.Batch editor = mPersistenceScheduler.edit();
+        for (int i = 0; i < count; i++) {
+            addCommand(new Command(mPersistenceScheduler.getString("command_" + i
+                    + "_name", ""), mPersistenceScheduler.getString("command_" + i
+                    + "_cmd", ""), mPersistenceScheduler.getString("command_" + i
+                    + "_desc", "")));
             editor.remove("command_" + i + "_name");
             editor.remove("command_" + i + "_cmd");
             editor.remove("command_" + i + "_desc");
-            i++;
         }
-        if (i > 0) {
-            editor.remove("commands");
-            editor.commit();
+        editor.remove(KEY_COMMANDS);
+        editor.commit();
+        if (commands.isEmpty()) {
+            populateDefaultCommands();
+        } else {
+            commandsSave();
         }
+        Log.i(TAG, "Migrated " + count + " commands to the stable identifiers layout.");
+    }
+
+    /**
+     * Remove the commands stored on the application preferences.
+     */
+    public void commandsStoreCleanup() {
+        List<Long> ids = getStoredCommandIds();
+        if (ids.isEmpty() && !mPersistenceScheduler.contains(KEY_COMMAND_IDS)) {
+            return;
+        }
+        PersistenceScheduler.Batch editor = mPersistenceScheduler.edit();
+        for (Long id : ids) {
+            removeCommandKeys(editor, id);
+        }
+        editor.remove(KEY_COMMAND_IDS);
+        markStateModified(editor);
+        editor.commit();
+        mRemovedCommandIds.clear();
+        mCommandIdsModified = true;
     }
 
     /**
@@ -462,132 +818,627 @@ public class TKConfigApplication extends Application {
     }
 
     /**
-     * Add an history event to the histories list.
+     * Append an history event to the history store. The retention policy is
+     * applied in background, on the application start and after each
+     * HISTORIES_PER_COMPACTION added events.
      *
      * @param history The history event to be added.
-     * @return Always will be returned true.
+     * @return True if the history event was stored.
      */
     public boolean addHistory(History history) {
-        return histories.add(history);
+        boolean added = mHistoryStore.add(history) != -1;
+        boolean compact;
+        synchronized (this) {
+            compact = ++mHistoriesAdded >= HISTORIES_PER_COMPACTION;
+            if (compact) {
+                mHistoriesAdded = 0;
+            }
+        }
+        if (compact) {
+            compactHistories(false);
+        }
+        return added;
     }
 
     /**
-     * Obtain the histories list.
+     * Remove an history event from the history store.
      *
-     * @return The histories list.
+     * @param history The history event to be removed.
      */
-    public List<History> getHistories() {
-        return histories;
+    public void removeHistory(History history) {
+        mHistoryStore.remove(history);
     }
 
     /**
-     * Method used to save the histories to the application preferences.
+     * Remove all history events.
      */
-    public void historiesSave() {
-        int i = 0;
-        SharedPreferences.Editor editor = mSharedPreferences.edit();
-        removeOldHistories(editor);
-        editor.putInt("histories", histories.size());
-        for (History history : histories) {
-            editor.putLong(KEY_PREFIX_HISTORY + i + "_dateTime", history.getDateTime());
-            editor.putString(KEY_PREFIX_HISTORY + i + "_cmd", history.getSmsCommand());
-            editor.putString(KEY_PREFIX_HISTORY + i + "_number",
-                    history.getPhoneNumber());
-            i++;
-        }
-        editor.commit();
+    public void clearHistories() {
+        mHistoryStore.clear();
+        compactHistories(true);
+    }
+
+    /**
+     * Obtain the history retention policy from the application preferences.
+     * All the limits are disabled by default, so no history event is removed
+     * until the user chooses a limit.
+     *
+     * @return The history retention policy.
+     */
+    public HistoryRetentionPolicy getHistoryRetentionPolicy() {
+        return new HistoryRetentionPolicy(
+                Utilities.parseInt(mPersistenceScheduler.getString(KEY_HISTORY_MAX_ENTRIES, "0")),
+                Utilities.parseInt(mPersistenceScheduler.getString(KEY_HISTORY_MAX_AGE, "0")),
+                Utilities.parseInt(mPersistenceScheduler.getString(KEY_HISTORY_MAX_PER_TRACKER, "0")));
+    }
+
+    /**
+     * Schedule a background compaction of the history store.
+     *
+     * @param forceVacuum True if the free space should be reclaimed even if
+     *                    is below the compactor threshold.
+     */
+    public void compactHistories(boolean forceVacuum) {
+        mHistoryCompactor.schedule(getHistoryRetentionPolicy(), forceVacuum);
+    }
+
+    /**
+     * Obtain the history compactor.
+     *
+     * @return The history compactor.
+     */
+    public HistoryCompactor getHistoryCompactor() {
+        return mHistoryCompactor;
     }
 
     /**
-     * Remove all histories from the SharedPreferences.
+     * Obtain the history store.
      *
-     * @param editor The SharedPreferences editor.
+     * @return The history store.
+     */
+    public HistoryStore getHistoryStore() {
+        return mHistoryStore;
+    }
+
+    /**
+     * Move the histories stored by older application versions on the
+     * application preferences to the history store. This is done only once,
+     * after that the preferences keys are removed.
      */
-    private void removeOldHistories(SharedPreferences.Editor editor) {
-        Set<String> keys = mSharedPreferences.getAll().keySet();
-        for (String key : keys) {
+    private void migrateHistories() {
+        if (!mPersistenceScheduler.contains(KEY_HISTORIES)) {
+            return;
+        }
+        int count = mPersistenceScheduler.getInt(KEY_HISTORIES, 0);
+        List<History> oldHistories = new ArrayList<History>(count);
+        for (int i = 0; i < count; i++) {
+            oldHistories.add(new History(mPersistenceScheduler.getLong(KEY_PREFIX_HISTORY + i
+                    + "_dateTime", 0L), mPersistenceScheduler.getString(KEY_PREFIX_HISTORY
+                    + i + "_number", ""), mPersistenceScheduler.getString(
+                    KEY_PREFIX_HISTORY + i + "_cmd", "")));
+        }
+        try {
+            mHistoryStore.addAll(oldHistories);
+        } catch (Exception e) {
+            Log.e(TAG, "migrateHistories: " + e.getMessage(), e);
+            return;
+        }
+        PersistenceScheduler.Batch editor = mPersistenceScheduler.edit();
+        for (String key : mSharedPreferences.getAll().keySet()) {
             if (key.startsWith(KEY_PREFIX_HISTORY)) {
                 editor.remove(key);
             }
         }
+        editor.remove(KEY_HISTORIES);
+        editor.commit();
+        Log.i(TAG, "Migrated " + count + " histories to the history store.");
     }
 
     /**
-     * Method used to load the histories from the application preferences.
+     * Method used to send a SMS message to provided phone number.
+     *
+     * The message is sent on the user request, so it does not wait for the
+     * rate limiter, but its token is still counted. The message is not sent
+     * if the same message was sent to the same phone number within the
+     * duplicates window.
+     *
+     * @param phoneNumber The phone number.
+     * @param message     The message to be send.
+     * @return False if the message was suppressed as a duplicate.
      */
-    public void historiesLoad() {
-        int count = mSharedPreferences.getInt("histories", 0);
-        int i = 0;
-        if (histories.size() > 0) {
-            histories.clear();
+    public boolean sendSMS(String phoneNumber, String message) {
+        if (mDuplicateFilter.suppress(phoneNumber, message, System.currentTimeMillis())) {
+            Log.w(TAG, "Duplicate SMS to " + phoneNumber + " suppressed.");
+            return false;
         }
-        while (i < count) {
-            histories.add(new History(mSharedPreferences.getLong(KEY_PREFIX_HISTORY + i
-                    + "_dateTime", 0L), mSharedPreferences.getString(KEY_PREFIX_HISTORY
-                    + i + "_number", ""), mSharedPreferences.getString(
-                    KEY_PREFIX_HISTORY + i + "_cmd", "")));
-            i++;
+        OutboxMessage outboxMessage = new OutboxMessage(phoneNumber, message);
+        List<OutboxMessage> messages = new ArrayList<OutboxMessage>(1);
+        messages.add(outboxMessage);
+        mOutboxStore.enqueueAll(messages);
+        mSmsRateLimiter.consume(SmsRateLimiter.DEFAULT_SIM);
+        dispatchSMS(outboxMessage);
+        return true;
+    }
+
+    /**
+     * Hand a queued outbox message to the SMS transport. The message is
+     * marked as sending before the hand-off, so a process death in the middle
+     * of the hand-off does not lead to a second send of the same message. The
+     * sent report is received by {@link #onSmsSent}, which marks the message
+     * as failed if the system could not send it.
+     *
+     * @param message The outbox message to be sent.
+     * @return True if the message was handed to the SMS transport.
+     */
+    public boolean dispatchSMS(OutboxMessage message) {
+        String phoneNumber = message.getPhoneNumber();
+        String text = message.getMessage();
+        message.setState(OutboxMessage.STATE_SENDING);
+        mOutboxStore.updateState(message);
+        History history = new History(phoneNumber, text);
+        history.setCarrier(getCarrier());
+        addHistory(history);
+        Log.i(TAG, "Send to: " + phoneNumber + " the SMS:\"" + text + "\"");
+        try {
+            mSmsTransport.send(message, history.getId());
+            message.setState(OutboxMessage.STATE_SENT);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "dispatchSMS: " + e.getMessage(), e);
+            message.setState(OutboxMessage.STATE_FAILED);
+            mDuplicateFilter.forget(phoneNumber, text);
+        }
+        mOutboxStore.updateState(message);
+        if (message.getState() == OutboxMessage.STATE_SENT) {
+            if (!mSmsTransport.isSimulated()) {
+                saveMessageToSendFolder(phoneNumber, text);
+            }
+            return true;
         }
+        return false;
     }
 
     /**
-     * Method used to send a SMS message to provided phone number.
+     * Compute the total number of SMS segments needed to send a command to
+     * the selected GPS contacts. The command is rendered for each contact,
+     * because the GPS passwords could have different lengths.
+     *
+     * @param template The bound command to be send.
+     * @return The number of selected contacts, the total number of segments
+     * and 1 if at least one message needs the UCS-2 encoding, otherwise 0.
+     */
+    public int[] getSegmentsPreview(BoundTemplate template) {
+        int[] preview = new int[3];
+        SmsEncoder.Encoding encoding;
+        for (GpsContact contact : contacts) {
+            if (contact.isSelected()) {
+                encoding = SmsEncoder.encode(prepareCommandPassword(template, contact));
+                preview[0]++;
+                preview[1] += encoding.getSegments();
+                if (!encoding.isGsm7()) {
+                    preview[2] = 1;
+                }
+            }
+        }
+        return preview;
+    }
+
+    /**
+     * Obtain the name of the current network operator, used to group the
+     * delivery latencies per carrier.
+     *
+     * @return The network operator name or null if it is not available.
+     */
+    private String getCarrier() {
+        TelephonyManager telephonyManager = (TelephonyManager) getSystemService(
+                Context.TELEPHONY_SERVICE);
+        return telephonyManager != null ? telephonyManager.getNetworkOperatorName() : null;
+    }
+
+    /**
+     * Resume the outbox messages left queued by a previous process. The
+     * messages interrupted during the hand-off to the SMS manager are marked
+     * as failed, because they could already be sent, and the old finished
+     * messages are removed. The running campaigns are resumed as soon as the
+     * queued messages are loaded, without waiting for them to be sent. The
+     * task waits for the rate limiter, so it is not run on the serial
+     * executor shared by the other tasks.
+     */
+    @TargetApi(11)
+    private void resumeOutbox() {
+        AsyncTask<Void, Void, Integer> task = new AsyncTask<Void, Void, Integer>() {
+            @Override
+            protected Integer doInBackground(Void... params) {
+                int interrupted = mOutboxStore.failInterrupted();
+                if (interrupted > 0) {
+                    Log.w(TAG, interrupted + " outbox messages were interrupted and marked as failed.");
+                }
+                mOutboxStore.purgeFinished(System.currentTimeMillis() - OUTBOX_RETENTION);
+                List<OutboxMessage> messages = mOutboxStore.load(OutboxMessage.STATE_QUEUED);
+                publishProgress();
+                if (messages.isEmpty()) {
+                    return null;
+                }
+                int i = 0;
+                for (OutboxMessage message : messages) {
+                    mSmsRateLimiter.acquire(SmsRateLimiter.DEFAULT_SIM, Long.MAX_VALUE / 2);
+                    if (dispatchSMS(message)) {
+                        i++;
+                    }
+                }
+                Log.i(TAG, "Resumed the outbox: " + i + " of " + messages.size() + " messages sent.");
+                return i;
+            }
+
+            @Override
+            protected void onProgressUpdate(Void... values) {
+                mCampaignRunner.resumeRunning();
+            }
+
+            @Override
+            protected void onPostExecute(Integer sent) {
+                if (sent != null) {
+                    showMessageInfo(TKConfigApplication.this, R.string.outbox_resumed, "" + sent);
+                }
+            }
+        };
+        if (mSdkInt >= 11) {
+            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        } else {
+            task.execute();
+        }
+    }
+
+    /**
+     * Method invoked by the {@link SmsStatusReceiver} or by a simulated SMS
+     * transport when is reported the sent result of a message.
+     *
+     * @param outboxId   The outbox message ID.
+     * @param historyId  The history event ID.
+     * @param sim        The SIM used to send the message.
+     * @param resultCode The sent result code.
+     */
+    @Override
+    public void onSmsSent(long outboxId, long historyId, String sim, int resultCode) {
+        mSmsRateLimiter.onSendResult(sim != null ? sim : SmsRateLimiter.DEFAULT_SIM,
+                resultCode);
+        if (historyId > -1) {
+            mHistoryStore.updateSent(historyId, System.currentTimeMillis(), resultCode);
+        }
+        if (resultCode != Activity.RESULT_OK) {
+            Log.w(TAG, "The SMS " + outboxId + " was not sent, result code: " + resultCode);
+            OutboxMessage message = mOutboxStore.find(outboxId);
+            boolean open = message != null
+                    && recordSendResult(message.getPhoneNumber(), false);
+            if (message != null && !open && SmsRetryScheduler.isRetryable(resultCode)
+                    && message.getRetries() < SmsRetryScheduler.MAX_RETRIES) {
+                int retries = message.getRetries() + 1;
+                mOutboxStore.queueRetry(outboxId, retries, resultCode);
+                long delay = mSmsRetryScheduler.schedule(outboxId, retries);
+                Log.i(TAG, "The SMS " + outboxId + " will be retried in " + delay + " ms.");
+            } else {
+                mOutboxStore.updateState(outboxId, OutboxMessage.STATE_FAILED, resultCode);
+                if (message != null) {
+                    mDuplicateFilter.forget(message.getPhoneNumber(), message.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Send again a message queued for retry. This method is invoked by the
+     * retry scheduler, on its thread.
+     *
+     * @param outboxId The outbox message ID.
+     */
+    @Override
+    public void retrySMS(long outboxId) {
+        OutboxMessage message = mOutboxStore.find(outboxId);
+        if (message == null || !message.isPending()) {
+            return;
+        }
+        GpsContact contact = findGpsContact(message.getPhoneNumber());
+        if (contact != null && !CircuitBreaker.allowRequest(contact,
+                System.currentTimeMillis())) {
+            message.setState(OutboxMessage.STATE_FAILED);
+            mOutboxStore.updateState(message);
+            return;
+        }
+        mSmsRateLimiter.acquire(SmsRateLimiter.DEFAULT_SIM, Long.MAX_VALUE / 2);
+        Log.i(TAG, "Retry " + message.getRetries() + " of the SMS " + outboxId);
+        dispatchSMS(message);
+    }
+
+    /**
+     * Update the circuit breaker of the GPS contact with a phone number.
      *
-     * @param context     The context used to send the SMS.
-     * @param clazz       The sender class.
      * @param phoneNumber The phone number.
-     * @param message     The message to be send.
+     * @param success     True if the message was delivered.
+     * @return True if the circuit breaker is open.
      */
-    public void sendSMS(Context context, Class<?> clazz, String phoneNumber,
-                        String message) {
-        addHistory(new History(phoneNumber, message));
-        historiesSave();
-        Log.i(TAG, "Send to: " + phoneNumber + " the SMS:\"" + message + "\"");
-        PendingIntent pi = PendingIntent.getActivity(context, 0, new Intent(
-                context, clazz), 0);
-        smsManager.sendTextMessage(phoneNumber, null, message, pi, null);
-        saveMessageToSendFolder(phoneNumber, message);
+    private boolean recordSendResult(String phoneNumber, boolean success) {
+        GpsContact contact = findGpsContact(phoneNumber);
+        if (contact == null) {
+            return false;
+        }
+        boolean open = false;
+        boolean changed = true;
+        if (success) {
+            changed = CircuitBreaker.onSuccess(contact);
+        } else {
+            open = CircuitBreaker.onFailure(contact, System.currentTimeMillis());
+            if (open) {
+                Log.w(TAG, "Too many failures, skip " + phoneNumber + " for a while.");
+            }
+        }
+        if (changed) {
+            mGpsContactStore.updateFailures(contact);
+        }
+        return open;
     }
 
     /**
-     * Save the message to the Send folder from Messaging application.
+     * Reset the circuit breaker of a GPS contact, so the messages are sent
+     * again to it.
+     *
+     * @param contact The GPS contact.
+     */
+    public void resetFailures(GpsContact contact) {
+        if (CircuitBreaker.onSuccess(contact)) {
+            mGpsContactStore.updateFailures(contact);
+        }
+    }
+
+    /**
+     * Method invoked by the {@link SmsStatusReceiver} or by a simulated SMS
+     * transport when the delivery report of a message is received. A pending
+     * report only updates the history, the outbox message and the circuit
+     * breaker are updated by the final report.
+     *
+     * @param outboxId  The outbox message ID.
+     * @param historyId The history event ID.
+     * @param status    The delivery status.
+     */
+    @Override
+    public void onSmsDelivered(long outboxId, long historyId, int status) {
+        if (SmsStatusReceiver.getDeliveryState(status) == SmsStatusReceiver.DELIVERY_PENDING) {
+            Log.i(TAG, "The SMS " + outboxId + " is not yet delivered, status: " + status);
+            if (historyId > -1) {
+                mHistoryStore.updateDeliveryStatus(historyId, status);
+            }
+            return;
+        }
+        if (historyId > -1) {
+            mHistoryStore.updateDelivered(historyId, System.currentTimeMillis(), status);
+        }
+        OutboxMessage message = mOutboxStore.find(outboxId);
+        if (message != null) {
+            recordSendResult(message.getPhoneNumber(), SmsStatusReceiver.isDelivered(status));
+            if (!SmsStatusReceiver.isDelivered(status)) {
+                mDuplicateFilter.forget(message.getPhoneNumber(), message.getMessage());
+            }
+        }
+        if (SmsStatusReceiver.isDelivered(status)) {
+            mOutboxStore.updateState(outboxId, OutboxMessage.STATE_DELIVERED, status);
+        } else {
+            Log.w(TAG, "The SMS " + outboxId + " was not delivered, status: " + status);
+            mOutboxStore.updateState(outboxId, OutboxMessage.STATE_FAILED, status);
+        }
+    }
+
+    /**
+     * Build the delivery report from the stored history events.
+     *
+     * @return The delivery latencies report.
+     */
+    public DeliveryReport getDeliveryReport() {
+        DeliveryReport report = new DeliveryReport();
+        mHistoryStore.scanReported(report);
+        return report;
+    }
+
+    /**
+     * Apply the rate limiter settings.
+     */
+    public void updateSmsRateLimiter() {
+        mSmsRateLimiter.configure(getSmsRateBurst(),
+                getSmsRateLimit(KEY_SMS_RATE_LIMIT, "1"),
+                getSmsRateLimit(KEY_SMS_RATE_LIMIT_SIM, "0"));
+    }
+
+    /**
+     * Apply the duplicates window setting.
+     */
+    public void updateDuplicateFilter() {
+        mDuplicateFilter.setWindow(getSmsDedupWindow());
+    }
+
+    /**
+     * Obtain the window within the same command is not sent again to the
+     * same phone number.
+     *
+     * @return The window in milliseconds, 0 if the duplicates are sent.
+     */
+    private long getSmsDedupWindow() {
+        return Utilities.parseInt(mPersistenceScheduler.getString(KEY_SMS_DEDUP_WINDOW, "300")) * 1000L;
+    }
+
+    private int getSmsRateBurst() {
+        return Utilities.parseInt(mPersistenceScheduler.getString(KEY_SMS_RATE_BURST, "30"));
+    }
+
+    private double getSmsRateLimit(String key, String defaultValue) {
+        return Utilities.parseFloat(mPersistenceScheduler.getString(key, defaultValue));
+    }
+
+    /**
+     * Obtain the transport used to send the SMS.
+     *
+     * @return The SMS transport.
+     */
+    public SmsTransport getSmsTransport() {
+        return mSmsTransport;
+    }
+
+    /**
+     * Replace the transport used to send the SMS, e.g. with a loopback
+     * transport for load tests on an emulator. The messages sent through a
+     * simulated transport are not saved to the Send folder.
+     *
+     * @param smsTransport The new SMS transport.
+     * @return The previous SMS transport.
+     */
+    public SmsTransport setSmsTransport(SmsTransport smsTransport) {
+        SmsTransport previous = mSmsTransport;
+        mSmsTransport = smsTransport;
+        return previous;
+    }
+
+    /**
+     * Obtain the SMS rate limiter.
+     *
+     * @return The SMS rate limiter.
+     */
+    public SmsRateLimiter getSmsRateLimiter() {
+        return mSmsRateLimiter;
+    }
+
+    /**
+     * Obtain the sent commands duplicates filter.
+     *
+     * @return The duplicates filter.
+     */
+    public DuplicateFilter getDuplicateFilter() {
+        return mDuplicateFilter;
+    }
+
+    /**
+     * Obtain the SMS outbox store.
+     *
+     * @return The SMS outbox store.
+     */
+    public OutboxStore getOutboxStore() {
+        return mOutboxStore;
+    }
+
+    /**
+     * Obtain the campaigns store.
+     *
+     * @return The campaigns store.
+     */
+    public CampaignStore getCampaignStore() {
+        return mCampaignStore;
+    }
+
+    /**
+     * Obtain the campaigns runner.
+     *
+     * @return The campaigns runner.
+     */
+    public CampaignRunner getCampaignRunner() {
+        return mCampaignRunner;
+    }
+
+    /**
+     * Create a campaign which sends a command to the selected GPS contacts
+     * and start it. The selection is stored first, because the campaign
+     * targets are copied from the GPS contacts store.
+     *
+     * @param name    The campaign name.
+     * @param command The command to be send.
+     * @return The started campaign or null if the campaign was not created.
+     */
+    public Campaign startCampaign(String name, String command) {
+        contactsSave();
+        Campaign campaign = new Campaign(name, command);
+        campaign.setState(Campaign.STATE_RUNNING);
+        if (mCampaignStore.create(campaign) < 0) {
+            return null;
+        }
+        Log.i(TAG, "Campaign " + campaign.getId() + " created for "
+                + campaign.getTotal() + " GPS contacts: \"" + command + "\"");
+        mCampaignRunner.start(campaign.getId());
+        return campaign;
+    }
+
+    /**
+     * Save the message to the Send folder from Messaging application. The
+     * message is buffered and written in background with other sent messages.
      *
      * @param phoneNumber The phone number were was send the message.
      * @param message     The message to be saved.
      */
     private void saveMessageToSendFolder(String phoneNumber, String message) {
-        ContentValues values = new ContentValues();
-        values.put("address", phoneNumber);
-        values.put("body", message);
-        try {
-            if (sendFolderUri == null) {
-                sendFolderUri = Uri.parse("content://sms/sent");
+        mSentFolderWriter.add(phoneNumber, message);
+    }
+
+    /**
+     * Render the message for each GPS contact and store the rendered messages
+     * on the outbox, in a single transaction. The GPS contacts with an open
+     * circuit breaker are skipped, and also the GPS contacts which already
+     * received the same message within the duplicates window.
+     *
+     * @param contacts   The GPS contacts.
+     * @param template   The bound message to be send, only the password is
+     *                   rendered for each contact.
+     * @param duplicates The list where are added the GPS contacts skipped as
+     *                   duplicates, could be null.
+     * @return The queued outbox messages.
+     */
+    public List<OutboxMessage> enqueueSMS(List<GpsContact> contacts, BoundTemplate template,
+                                          List<GpsContact> duplicates) {
+        List<OutboxMessage> messages = new ArrayList<OutboxMessage>(contacts.size());
+        long now = System.currentTimeMillis();
+        GpsContact breakerContact;
+        String text;
+        for (GpsContact contact : contacts) {
+            breakerContact = findGpsContact(contact.getPhone());
+            if (breakerContact == null) {
+                breakerContact = contact;
             }
-            if (sendFolderUri != null) {
-                this.getContentResolver().insert(sendFolderUri, values);
+            int state = CircuitBreaker.getState(breakerContact, now);
+            if (state == CircuitBreaker.STATE_OPEN) {
+                Log.w(TAG, "Skip " + contact.getPhone() + ", too many failures.");
+                continue;
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Save message to the send folder:" + e.getMessage());
-            e.printStackTrace();
+            text = prepareCommandPassword(template, contact);
+            if (mDuplicateFilter.suppress(contact.getPhone(), text, now)) {
+                if (duplicates != null) {
+                    duplicates.add(contact);
+                }
+                continue;
+            }
+            if (state == CircuitBreaker.STATE_HALF_OPEN
+                    && CircuitBreaker.allowRequest(breakerContact, now)) {
+                mGpsContactStore.updateFailures(breakerContact);
+            }
+            messages.add(new OutboxMessage(contact.getPhone(), text));
         }
+        mOutboxStore.enqueueAll(messages);
+        return messages;
     }
 
     /**
-     * Method used to send a SMS message to all selected GPS contacts.
+     * Mark as cancelled the queued outbox messages, so they are not resumed.
      *
-     * @param context The context used to send the SMS.
-     * @param clazz   The sender class.
-     * @param message The message to be send.
+     * @param messages The outbox messages to be cancelled.
      */
-    public void sendSMS(Context context, Class<?> clazz, String message) {
-        int i = 0;
-        for (GpsContact contact : contacts) {
-            String cmd = prepareCommandPassword(message, contact);
-            if (contact.isSelected()) {
-                sendSMS(context, clazz, contact.getPhone(), cmd);
-                i++;
+    public void cancelSMS(List<OutboxMessage> messages) {
+        for (OutboxMessage message : messages) {
+            if (message.isPending()) {
+                message.setState(OutboxMessage.STATE_FAILED);
+                message.setResultCode(OutboxMessage.RESULT_CANCELLED);
+                mOutboxStore.updateState(message);
+                mDuplicateFilter.forget(message.getPhoneNumber(), message.getMessage());
             }
         }
+    }
+
+    /**
+     * Inform the user about the number of sent commands.
+     *
+     * @param context The context used to show the message.
+     * @param i       The number of sent commands.
+     */
+    public void showSendSMSResult(Context context, int i) {
         if (i == 1) {
             showMessageInfo(context, R.string.sms_command_send_one);
         } else if (i > 0) {
@@ -598,17 +1449,155 @@ public class TKConfigApplication extends Application {
     }
 
     /**
-     * Prepare the specific GPS password for the provided contact used on the
-     * message.
+     * Inform the user about the commands which were not sent because the
+     * same commands were sent recently.
      *
-     * @param message The original message.
-     * @param contact The contact used to obtain the GPS password.
+     * @param context    The context used to show the message.
+     * @param duplicates The number of suppressed commands.
+     */
+    public void showSuppressedSMS(Context context, int duplicates) {
+        if (duplicates == 1) {
+            showMessageInfo(context, R.string.sms_duplicate_one);
+        } else if (duplicates > 0) {
+            showMessageInfo(context, R.string.sms_duplicate_many, "" + duplicates);
+        }
+    }
+
+    /**
+     * Render a bound message with the GPS password of a contact. The message
+     * should be bound once, with the shared parameters already rendered, and
+     * then only the password is inserted for each contact.
+     *
+     * @param template The bound message.
+     * @param contact  The contact used to obtain the GPS password.
      * @return The prepared message which include the GPS password.
      */
-    private String prepareCommandPassword(String message, GpsContact contact) {
-        String result = message.replaceAll("\\?password\\?",
-                contact.getPassword());
-        return result;
+    public String prepareCommandPassword(BoundTemplate template, GpsContact contact) {
+        return template.render(Constants.PASSWORD, contact.getPassword());
+    }
+
+    /**
+     * Obtain the running sending task. The tasks are kept by the application,
+     * so an activity can attach to them after it is recreated.
+     *
+     * @param urgent True for the urgent commands task.
+     * @return The running task or null if there is no running task.
+     */
+    public SendSmsAsyncTask getSendSmsTask(boolean urgent) {
+        return urgent ? mUrgentSmsTask : mSendSmsTask;
+    }
+
+    /**
+     * Start a sending task. On the newer platforms the tasks are executed by
+     * default one after another, so the task is started on the thread pool,
+     * to let an urgent command run beside a bulk command.
+     *
+     * @param task The sending task.
+     */
+    @TargetApi(11)
+    public void startSendSmsTask(SendSmsAsyncTask task) {
+        if (task.isUrgent()) {
+            mUrgentSmsTask = task;
+        } else {
+            mSendSmsTask = task;
+        }
+        if (mSdkInt >= 11) {
+            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        } else {
+            task.execute();
+        }
+    }
+
+    /**
+     * Method invoked by a sending task when it is finished or cancelled.
+     *
+     * @param task The finished task.
+     */
+    public void onSendSmsTaskEnded(SendSmsAsyncTask task) {
+        if (mSendSmsTask == task) {
+            mSendSmsTask = null;
+        } else if (mUrgentSmsTask == task) {
+            mUrgentSmsTask = null;
+        }
+    }
+
+    /**
+     * Set on a command the parameters schemas declared by the command pack of
+     * the current tracker model, the other parameters keep their default
+     * schemas.
+     *
+     * @param command The command to be prepared.
+     */
+    private void applyParameterSchemas(Command command) {
+        String model = getTrackerModel();
+        if (!mCommandCatalog.hasModel(model)) {
+            model = DEFAULT_TRACKER_MODEL;
+        }
+        ParameterSchema schema;
+        for (String parameter : command.getParameters()) {
+            schema = mCommandCatalog.getSchema(model, command.getName(), parameter);
+            if (schema != null) {
+                command.setParameterSchema(parameter, schema);
+            }
+        }
+    }
+
+    /**
+     * Validate a command before it is sent to the selected GPS contacts. The
+     * rendered messages differ only by the GPS password, so the shared
+     * parameters are validated once and then the password of each selected
+     * GPS contact, without rendering the messages.
+     *
+     * @param command The command to be validated.
+     * @return The description of the invalid values or null if the command
+     * can be sent.
+     */
+    public String getValidationErrors(Command command) {
+        applyParameterSchemas(command);
+        StringBuilder sb = new StringBuilder();
+        ParameterSchema schema;
+        for (String parameter : command.getInvalidParameters()) {
+            schema = command.getParameterSchema(parameter);
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(getString(R.string.invalid_parameter, parameter,
+                    command.getParameterValue(parameter), schema.getHint(this)));
+        }
+        schema = command.getParameterSchema(Constants.PASSWORD);
+        if (schema != null) {
+            Set<String> checked = new HashSet<String>();
+            List<String> names = new ArrayList<String>();
+            int invalid = 0;
+            long lastId = -1;
+            List<GpsContact> page;
+            do {
+                page = mGpsContactStore.loadSelected(lastId,
+                        SendSmsAsyncTask.PAGE_SIZE);
+                for (GpsContact contact : page) {
+                    lastId = contact.getId();
+                    if (checked.contains(contact.getPassword())) {
+                        continue;
+                    }
+                    if (schema.isValid(contact.getPassword())) {
+                        checked.add(contact.getPassword());
+                    } else {
+                        invalid++;
+                        if (names.size() < 5) {
+                            names.add(contact.getName());
+                        }
+                    }
+                }
+            } while (page.size() == SendSmsAsyncTask.PAGE_SIZE);
+            if (invalid > 0) {
+                if (sb.length() > 0) {
+                    sb.append('\n');
+                }
+                sb.append(getString(R.string.invalid_passwords, invalid,
+                        TextUtils.join(", ", names), schema.getHint(this)));
+            }
+        }
+        return sb.length() > 0 ? sb.toString() : null;
     }
 
     /**
@@ -617,23 +1606,86 @@ public class TKConfigApplication extends Application {
      * @return True if is at least one selected GPS contact in the list.
      */
     public boolean haveContactsSelected() {
-        boolean result = false;
-        for (GpsContact contact : contacts) {
-            if (contact.isSelected()) {
-                result = true;
-                break;
-            }
-        }
-        return result;
+        return mGpsContactStore.countSelected() > 0;
     }
 
     /**
-     * Add a GPS contact to the list of contacts.
+     * Add a GPS contact to the list of contacts and store it.
      *
      * @param contact The contact to be added to the list.
+     * @return False if there is already a contact with the same phone number.
      */
-    public void addGpsContact(GpsContact contact) {
+    public boolean addGpsContact(GpsContact contact) {
+        String phone = Utilities.normalizePhoneNumber(contact.getPhone());
+        if (mContactsByPhone.containsKey(phone)) {
+            return false;
+        }
         contacts.add(contact);
+        mContactsByPhone.put(phone, contact);
+        mGpsContactStore.upsert(contact);
+        mDuplicateFilter.setContacts(contacts.size());
+        return true;
+    }
+
+    /**
+     * Change the fields of a GPS contact and store it.
+     *
+     * @param contact  The contact to be changed.
+     * @param name     The new contact name.
+     * @param phone    The new contact phone number.
+     * @param password The new GPS password.
+     * @param selected The new selected flag.
+     * @return False if the phone number is used by another contact.
+     */
+    public boolean updateGpsContact(GpsContact contact, String name, String phone,
+                                    String password, boolean selected) {
+        String oldPhone = Utilities.normalizePhoneNumber(contact.getPhone());
+        String newPhone = Utilities.normalizePhoneNumber(phone);
+        GpsContact other = mContactsByPhone.get(newPhone);
+        if (other != null && other != contact) {
+            return false;
+        }
+        contact.setName(name);
+        contact.setPhone(phone);
+        contact.setPassword(password);
+        contact.setSelected(selected);
+        if (!oldPhone.equals(newPhone)) {
+            mContactsByPhone.put(newPhone, contact);
+            mContactsByPhone.remove(oldPhone);
+        }
+        mGpsContactStore.upsert(contact);
+        return true;
+    }
+
+    /**
+     * Remove a GPS contact from the list of contacts and from the store.
+     *
+     * @param contact The contact to be removed.
+     */
+    public void removeGpsContact(GpsContact contact) {
+        contacts.remove(contact);
+        mContactsByPhone.remove(Utilities.normalizePhoneNumber(contact.getPhone()));
+        mGpsContactStore.remove(contact);
+    }
+
+    /**
+     * Find a GPS contact by its phone number.
+     *
+     * @param phoneNumber The phone number, in any format.
+     * @return The GPS contact or null if there is no contact with the phone
+     * number.
+     */
+    public GpsContact findGpsContact(String phoneNumber) {
+        return mContactsByPhone.get(Utilities.normalizePhoneNumber(phoneNumber));
+    }
+
+    /**
+     * Obtain the GPS contacts store.
+     *
+     * @return The GPS contacts store.
+     */
+    public GpsContactStore getGpsContactStore() {
+        return mGpsContactStore;
     }
 
     /**
@@ -646,50 +1698,85 @@ public class TKConfigApplication extends Application {
     }
 
     /**
-     * Load the list of GPS contacts.
+     * Load the list of GPS contacts from the GPS contacts store. The phone
+     * numbers index is built aside and then replaced, so the background
+     * lookups do not see it empty.
      */
-    private void contactsLoad() {
-        int count = mSharedPreferences.getInt("contacts", 0);
-        int i = 0;
+    public void contactsLoad() {
+        migrateContacts();
         if (contacts.size() > 0) {
             contacts.clear();
         }
-        while (i < count) {
-            contacts.add(new GpsContact(mSharedPreferences.getString("contact_"
-                    + i + "_name", ""), mSharedPreferences.getString("contact_"
-                    + i + "_phone", ""), mSharedPreferences.getString("contact_"
-                    + i + "_password", ""), mSharedPreferences.getBoolean(
-                    "contact_" + i + "_selected", false)));
-            i++;
+        contacts.addAll(mGpsContactStore.loadAll());
+        Map<String, GpsContact> contactsByPhone =
+                new ConcurrentHashMap<String, GpsContact>(Math.max(16, contacts.size() * 2));
+        for (GpsContact contact : contacts) {
+            contactsByPhone.put(Utilities.normalizePhoneNumber(contact.getPhone()), contact);
         }
-        if (contacts.size() < 1) {
-            String temp = getGPSPhoneNumber();
-            String pass = mSharedPreferences.getString("password", "123456");
-            if (temp.length() > 0) {
-                contacts.add(new GpsContact(temp, temp, pass, true));
-            }
+        mContactsByPhone = contactsByPhone;
+        if (mDuplicateFilter != null) {
+            mDuplicateFilter.setContacts(contacts.size());
         }
     }
 
     /**
-     * Save the GPS contacts list
+     * Move the GPS contacts stored by older application versions on the
+     * application preferences to the GPS contacts store. This is done only
+     * once, after that the preferences keys are removed.
      */
-    public void contactsSave() {
-        SharedPreferences.Editor editor = mSharedPreferences.edit();
-        editor.putInt("contacts", contacts.size());
-        int i = 0;
-        for (GpsContact contact : contacts) {
-            editor.putString("contact_" + i + "_name", contact.getName());
-            editor.putString("contact_" + i + "_phone", contact.getPhone());
-            editor.putString("contact_" + i + "_password",
-                    contact.getPassword());
-            editor.putBoolean("contact_" + i + "_selected",
-                    contact.isSelected());
-            i++;
+    private void migrateContacts() {
+        boolean hasContacts = mPersistenceScheduler.contains("contacts");
+        String gpsPhoneNumber = getGPSPhoneNumber();
+        if (!hasContacts && gpsPhoneNumber.length() == 0) {
+            return;
+        }
+        int count = mPersistenceScheduler.getInt("contacts", 0);
+        List<GpsContact> oldContacts = new ArrayList<GpsContact>(count);
+        for (int i = 0; i < count; i++) {
+            oldContacts.add(new GpsContact(mPersistenceScheduler.getString("contact_"
+                    + i + "_name", ""), mPersistenceScheduler.getString("contact_"
+                    + i + "_phone", ""), mPersistenceScheduler.getString("contact_"
+                    + i + "_password", ""), mPersistenceScheduler.getBoolean(
+                    "contact_" + i + "_selected", false)));
         }
+        if (oldContacts.isEmpty() && gpsPhoneNumber.length() > 0) {
+            oldContacts.add(new GpsContact(gpsPhoneNumber, gpsPhoneNumber,
+                    mPersistenceScheduler.getString("password", "123456"), true));
+        }
+        try {
+            mGpsContactStore.upsertAll(oldContacts);
+        } catch (Exception e) {
+            Log.e(TAG, "migrateContacts: " + e.getMessage(), e);
+            return;
+        }
+        PersistenceScheduler.Batch editor = mPersistenceScheduler.edit();
+        for (int i = 0; i < count; i++) {
+            editor.remove("contact_" + i + "_name");
+            editor.remove("contact_" + i + "_phone");
+            editor.remove("contact_" + i + "_password");
+            editor.remove("contact_" + i + "_selected");
+        }
+        editor.remove("contacts");
         editor.remove("gpsPhoneNumber");
         editor.remove("password");
         editor.commit();
+        Log.i(TAG, "Migrated " + oldContacts.size() + " GPS contacts to the GPS contacts store.");
+    }
+
+    /**
+     * Store the GPS contacts changed since the last save, e.g. the selected
+     * flag changed from the list.
+     */
+    public void contactsSave() {
+        List<GpsContact> modified = new ArrayList<GpsContact>();
+        for (GpsContact contact : contacts) {
+            if (contact.isModified()) {
+                modified.add(contact);
+            }
+        }
+        if (!modified.isEmpty()) {
+            mGpsContactStore.upsertAll(modified);
+        }
     }
 
     /**
@@ -850,7 +1937,7 @@ public class TKConfigApplication extends Application {
             defaultPath += getString(R.string.default_backup_dir);
         }
         defaultPath += getString(R.string.default_backup_file);
-        return mSharedPreferences.getString("backupPath", defaultPath);
+        return mPersistenceScheduler.getString("backupPath", defaultPath);
     }
 
     /**
@@ -861,9 +1948,7 @@ public class TKConfigApplication extends Application {
      *                   file.
      */
     public void setBackupPath(String backupPath) {
-        Editor editor = mSharedPreferences.edit();
-        editor.putString("backupPath", backupPath);
-        editor.commit();
+        mPersistenceScheduler.putString("backupPath", backupPath);
     }
 
     /**
@@ -891,9 +1976,7 @@ public class TKConfigApplication extends Application {
      * @param value The boolean value to be saved.
      */
     private void saveBooleanValue(String key, boolean value) {
-        SharedPreferences.Editor editor = mSharedPreferences.edit();
-        editor.putBoolean(key, value);
-        editor.commit();
+        mPersistenceScheduler.putBoolean(key, value);
     }
 
     /**
@@ -902,9 +1985,7 @@ public class TKConfigApplication extends Application {
      * @param key The key of the shared preference to be removed.
      */
     private void removeSharedPreference(String key) {
-        SharedPreferences.Editor editor = mSharedPreferences.edit();
-        editor.remove(key);
-        editor.commit();
+        mPersistenceScheduler.remove(key);
     }
 
     /**
@@ -922,7 +2003,7 @@ public class TKConfigApplication extends Application {
      * @return True if the permissions were asked.
      */
     public boolean havePermissionsAsked() {
-        return mSharedPreferences.getBoolean(KEY_HAVE_PERMISSIONS_ASKED, false);
+        return mPersistenceScheduler.getBoolean(KEY_HAVE_PERMISSIONS_ASKED, false);
     }
 
     /**
@@ -939,7 +2020,7 @@ public class TKConfigApplication extends Application {
      * @return True if the permission was asked before.
      */
     public boolean isPermissionAsked(String permission) {
-        return mSharedPreferences.getBoolean(permission, false);
+        return mPersistenceScheduler.getBoolean(permission, false);
     }
 
     /**
@@ -1049,7 +2130,7 @@ public class TKConfigApplication extends Application {
      * @return The application theme.
      */
     public int getApplicationTheme() {
-        String theme = mSharedPreferences.getString(KEY_APP_THEME, "dark");
+        String theme = mPersistenceScheduler.getString(KEY_APP_THEME, "dark");
         if ("dark".equals(theme)) {
             return R.style.AppThemeDark;
         }
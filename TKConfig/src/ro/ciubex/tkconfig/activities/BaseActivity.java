@@ -109,6 +109,7 @@ public class BaseActivity extends ActionBarActivity {
 	 */
 	@Override
 	protected void onPause() {
+		mApplication.persistState();
 		super.onPause();
 	}
 
@@ -0,0 +1,192 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.activities;
+
+import ro.ciubex.tkconfig.R;
+import ro.ciubex.tkconfig.list.CampaignListAdapter;
+import ro.ciubex.tkconfig.models.Campaign;
+import ro.ciubex.tkconfig.sms.CampaignRunner;
+
+import android.app.AlertDialog;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.AdapterView.OnItemClickListener;
+import android.widget.ListView;
+
+/**
+ * This activity show the campaigns and their progress. From here the
+ * campaigns can be paused, resumed, cancelled or removed.
+ * 
+ * @author Claudiu Ciobotariu
+ */
+public class CampaignActivity extends BaseActivity implements
+		CampaignRunner.Listener {
+	private CampaignListAdapter adapter;
+	private ListView campaignsList;
+
+	private final int CONFIRM_ID_DELETE = 0;
+
+	/**
+	 * The method invoked when the activity is creating
+	 */
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.campaign_list_layout);
+		setMenuId(R.menu.back_only_menu);
+		prepareCampaignListView();
+	}
+
+	/**
+	 * Method invoked when the activity is resumed.
+	 */
+	@Override
+	protected void onResume() {
+		super.onResume();
+		mApplication.getCampaignRunner().setListener(this);
+		adapter.reload();
+	}
+
+	/**
+	 * Method invoked when the activity is paused.
+	 */
+	@Override
+	protected void onPause() {
+		mApplication.getCampaignRunner().setListener(null);
+		super.onPause();
+	}
+
+	/**
+	 * Method used to initialize the campaigns list view.
+	 */
+	private void prepareCampaignListView() {
+		campaignsList = (ListView) findViewById(R.id.campaign_list);
+		campaignsList.setEmptyView(findViewById(R.id.no_campaigns));
+		campaignsList.setOnItemClickListener(new OnItemClickListener() {
+			@Override
+			public void onItemClick(AdapterView<?> parent, View view,
+									int position, long id) {
+				if (position > -1 && position < adapter.getCount()) {
+					showItemDialogMenu(position);
+				}
+			}
+		});
+		adapter = new CampaignListAdapter(this, mApplication);
+		campaignsList.setAdapter(adapter);
+	}
+
+	/**
+	 * Method invoked by the campaigns runner, on its thread, when the
+	 * progress of a campaign is changed.
+	 * 
+	 * @param campaign
+	 *            The campaign.
+	 */
+	@Override
+	public void onCampaignProgress(final Campaign campaign) {
+		runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				adapter.update(campaign);
+			}
+		});
+	}
+
+	/**
+	 * Prepare Option menu
+	 */
+	@Override
+	protected boolean onMenuItemSelected(int menuItemId) {
+		boolean processed = false;
+		switch (menuItemId) {
+			case R.id.menu_back:
+				processed = true;
+				goBack();
+				break;
+		}
+		return processed;
+	}
+
+	/**
+	 * This method show the pop up menu when the user click on a list item.
+	 *
+	 * @param position The campaign position where was made the click
+	 */
+	private void showItemDialogMenu(final int position) {
+		final Campaign campaign = (Campaign) adapter.getItem(position);
+		AlertDialog.Builder builder = new AlertDialog.Builder(this);
+		builder.setTitle(campaign.getName());
+		builder.setItems(R.array.campaigns_menu_list,
+				new DialogInterface.OnClickListener() {
+					public void onClick(DialogInterface dialog, int which) {
+						switch (which) {
+							case 0:
+								mApplication.getCampaignRunner().pause(campaign.getId());
+								break;
+							case 1:
+								mApplication.getCampaignRunner().resume(campaign.getId());
+								break;
+							case 2:
+								mApplication.getCampaignRunner().cancel(campaign.getId());
+								break;
+							case 3:
+								onMenuItemDelete(campaign);
+								break;
+						}
+					}
+				});
+		builder.create().show();
+	}
+
+	/**
+	 * This method is invoked when the user chose to delete a campaign.
+	 *
+	 * @param campaign The campaign to be deleted.
+	 */
+	private void onMenuItemDelete(final Campaign campaign) {
+		if (campaign.getState() == Campaign.STATE_RUNNING) {
+			mApplication.showMessageInfo(this, R.string.campaign_delete_running);
+		} else {
+			showConfirmationDialog(
+					R.string.remove_campaign,
+					mApplication.getString(R.string.remove_campaign_question,
+							campaign.getName()), CONFIRM_ID_DELETE,
+					campaign);
+		}
+	}
+
+	/**
+	 * This method is invoked by the each time when is accepted a confirmation
+	 * dialog.
+	 *
+	 * @param positive       True if the confirmation is positive.
+	 * @param confirmationId The confirmation ID to identify the case.
+	 * @param anObject       An object send by the caller method.
+	 */
+	@Override
+	protected void onConfirmation(boolean positive, int confirmationId,
+								  Object anObject) {
+		if (positive && confirmationId == CONFIRM_ID_DELETE) {
+			mApplication.getCampaignStore().remove(((Campaign) anObject).getId());
+			adapter.reload();
+		}
+	}
+}
@@ -128,6 +128,9 @@ public class GpsContactActivity extends BaseActivity {
 						case 2:
 							onMenuItemDelete(position);
 							break;
+						case 3:
+							onMenuItemResetFailures(position);
+							break;
 						}
 					}
 				});
@@ -188,6 +191,21 @@ public class GpsContactActivity extends BaseActivity {
 		}
 	}
 
+	/**
+	 * This method is invoked when the user chose to reset the failures of a
+	 * contact, so the messages are sent again to it.
+	 * 
+	 * @param position
+	 *            The position of contact item.
+	 */
+	private void onMenuItemResetFailures(int position) {
+		GpsContact contact = (GpsContact) adapter.getItem(position);
+		if (contact != null) {
+			mApplication.resetFailures(contact);
+			reloadAdapter();
+		}
+	}
+
 	/**
 	 * This method is invoked by the each time when is accepted a confirmation
 	 * dialog.
@@ -219,8 +237,7 @@ public class GpsContactActivity extends BaseActivity {
 	 */
 	private void doDeleteContact(GpsContact contact) {
 		mApplication.showProgressDialog(this, R.string.please_wait);
-		mApplication.getContacts().remove(contact);
-		mApplication.contactsSave();
+		mApplication.removeGpsContact(contact);
 		reloadAdapter();
 	}
 }
@@ -21,9 +21,11 @@ package ro.ciubex.tkconfig.activities;
 import ro.ciubex.tkconfig.R;
 import ro.ciubex.tkconfig.list.HistoryListAdapter;
 import ro.ciubex.tkconfig.models.History;
+import ro.ciubex.tkconfig.sms.DeliveryReport;
 
 import android.app.AlertDialog;
 import android.content.DialogInterface;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.View;
 import android.widget.AdapterView;
@@ -62,6 +64,15 @@ public class HistoryActivity extends BaseActivity {
 		reloadAdapter();
 	}
 
+	/**
+	 * Method invoked when the activity is destroyed.
+	 */
+	@Override
+	protected void onDestroy() {
+		adapter.close();
+		super.onDestroy();
+	}
+
 	/**
 	 * Method used to initialize the history list view.
 	 */
@@ -85,10 +96,8 @@ public class HistoryActivity extends BaseActivity {
 	 * Reload adapter and histories list.
 	 */
 	public void reloadAdapter() {
-		adapter.notifyDataSetChanged();
-//		historiesList.invalidateViews();
-//		historiesList.scrollBy(0, 0);
-		historiesList.setFastScrollEnabled(mApplication.getHistories().size() > 50);
+		adapter.reload();
+		historiesList.setFastScrollEnabled(adapter.getCount() > 50);
 		mApplication.hideProgressDialog();
 	}
 
@@ -103,6 +112,10 @@ public class HistoryActivity extends BaseActivity {
 				processed = true;
 				goBack();
 				break;
+			case R.id.menu_delivery_report:
+				processed = true;
+				showDeliveryReport();
+				break;
 			case R.id.menu_clean_history:
 				processed = true;
 				cleanHistory();
@@ -111,6 +124,34 @@ public class HistoryActivity extends BaseActivity {
 		return processed;
 	}
 
+	/**
+	 * Build in background the delivery latencies report and show it.
+	 */
+	private void showDeliveryReport() {
+		mApplication.showProgressDialog(this, R.string.please_wait);
+		new AsyncTask<Void, Void, DeliveryReport>() {
+			@Override
+			protected DeliveryReport doInBackground(Void... params) {
+				return mApplication.getDeliveryReport();
+			}
+
+			@Override
+			protected void onPostExecute(DeliveryReport report) {
+				mApplication.hideProgressDialog();
+				if (isFinishing()) {
+					return;
+				}
+				new AlertDialog.Builder(HistoryActivity.this)
+						.setTitle(R.string.delivery_report)
+						.setMessage(report.getTotal().getSent().getCount() > 0
+								|| report.getTotal().getSendFailed() > 0
+								? report.format(HistoryActivity.this)
+								: getString(R.string.delivery_report_empty))
+						.setNeutralButton(R.string.ok, null).show();
+			}
+		}.execute();
+	}
+
 	/**
 	 * This method show the pop up menu when the user do a long click on a list
 	 * item.
@@ -218,8 +259,7 @@ public class HistoryActivity extends BaseActivity {
 	 */
 	private void doDeleteHistory(History history) {
 		mApplication.showProgressDialog(this, R.string.please_wait);
-		mApplication.getHistories().remove(history);
-		mApplication.historiesSave();
+		mApplication.removeHistory(history);
 		reloadAdapter();
 	}
 
@@ -228,8 +268,7 @@ public class HistoryActivity extends BaseActivity {
 	 */
 	private void doDeleteAllHistory() {
 		mApplication.showProgressDialog(this, R.string.please_wait);
-		mApplication.getHistories().clear();
-		mApplication.historiesSave();
+		mApplication.clearHistories();
 		reloadAdapter();
 	}
 
@@ -240,9 +279,11 @@ public class HistoryActivity extends BaseActivity {
 	 */
 	private void doResendSMS(History history) {
 		mApplication.showProgressDialog(this, R.string.please_wait);
-		mApplication.sendSMS(this, HistoryActivity.class, history.getPhoneNumber(),
-				history.getSmsCommand());
-		mApplication.showMessageInfo(this, R.string.resend_command_finish);
+		if (mApplication.sendSMS(history.getPhoneNumber(), history.getSmsCommand())) {
+			mApplication.showMessageInfo(this, R.string.resend_command_finish);
+		} else {
+			mApplication.showSuppressedSMS(this, 1);
+		}
 		reloadAdapter();
 	}
 
@@ -20,6 +20,7 @@ package ro.ciubex.tkconfig.activities;
 
 import android.annotation.TargetApi;
 import android.app.AlertDialog;
+import android.app.ProgressDialog;
 import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.DialogInterface;
@@ -38,17 +39,24 @@ import ro.ciubex.tkconfig.dialogs.EditorDialog;
 import ro.ciubex.tkconfig.dialogs.ParameterEditor;
 import ro.ciubex.tkconfig.list.CommandListAdapter;
 import ro.ciubex.tkconfig.list.ParamListAdapter;
+import ro.ciubex.tkconfig.models.BoundTemplate;
+import ro.ciubex.tkconfig.models.Campaign;
 import ro.ciubex.tkconfig.models.Command;
 import ro.ciubex.tkconfig.models.GpsContact;
 import ro.ciubex.tkconfig.models.Utilities;
+import ro.ciubex.tkconfig.sms.SmsRateLimiter;
+import ro.ciubex.tkconfig.tasks.DefaultAsyncTaskResult;
+import ro.ciubex.tkconfig.tasks.SendSmsAsyncTask;
 
 /**
  * The main activity which should load and show the commands.
  *
  * @author Claudiu Ciobotariu
  */
-public class TKConfigActivity extends BaseActivity {
+public class TKConfigActivity extends BaseActivity implements
+        SendSmsAsyncTask.Responder {
     private CommandListAdapter adapter;
+    private ProgressDialog mSendSmsProgress;
     private ListView commandsList;
 
     private final int CONFIRM_ID_DELETE = 0;
@@ -57,13 +65,14 @@ public class TKConfigActivity extends BaseActivity {
     private final int CONFIRM_ID_DONATE = 3;
     private final int SMS_NO_CONTACT = 4;
     private final int NO_PARAMS_TO_EDIT = 5;
+    private final int CONFIRM_ID_CAMPAIGN = 6;
 
     private static final int REQUEST_CODE_SETTINGS = 0;
     private static final int REQUEST_CODE_ABOUT = 1;
     private static final int PERMISSIONS_REQUEST_CODE = 44;
 
     private enum METHOD {
-        NOTHING, SEND_SMS
+        NOTHING, SEND_SMS, START_CAMPAIGN
     }
 
     /**
@@ -84,8 +93,9 @@ public class TKConfigActivity extends BaseActivity {
     protected void onStart() {
         super.onStart();
         mApplication.showProgressDialog(this, R.string.please_wait);
-        mApplication.commandsLoad();
-        mApplication.historiesLoad();
+        if (!mApplication.isCommandsLoaded()) {
+            mApplication.commandsLoad();
+        }
         reloadAdapter();
         checkForPermissions();
     }
@@ -97,6 +107,7 @@ public class TKConfigActivity extends BaseActivity {
             mApplication.setMustRestart(false);
             restartActivity();
         }
+        attachSendSmsTasks();
     }
 
     /**
@@ -104,10 +115,54 @@ public class TKConfigActivity extends BaseActivity {
      */
     @Override
     protected void onPause() {
+        detachSendSmsTasks();
         mApplication.onClose();
         super.onPause();
     }
 
+    /**
+     * Attach this activity to the sending tasks which are still running, e.g.
+     * after the activity was recreated, and show again the sending progress.
+     */
+    private void attachSendSmsTasks() {
+        SendSmsAsyncTask task = mApplication.getSendSmsTask(true);
+        if (task != null) {
+            task.setResponder(mUrgentResponder);
+        }
+        task = mApplication.getSendSmsTask(false);
+        if (task != null) {
+            task.setResponder(this);
+            startSendSms(task.getTotal());
+            updateSendSms(task.getProcessed(), task.getTotal(), task.getRate());
+        }
+    }
+
+    /**
+     * Detach this activity from the running sending tasks, the tasks continue
+     * the sending without updating this activity.
+     */
+    private void detachSendSmsTasks() {
+        SendSmsAsyncTask task = mApplication.getSendSmsTask(true);
+        if (task != null) {
+            task.setResponder(null);
+        }
+        task = mApplication.getSendSmsTask(false);
+        if (task != null) {
+            task.setResponder(null);
+        }
+        hideSendSmsProgress();
+    }
+
+    /**
+     * Invoked when the activity is destroyed. The sending process continues,
+     * only the progress dialog is closed.
+     */
+    @Override
+    protected void onDestroy() {
+        hideSendSmsProgress();
+        super.onDestroy();
+    }
+
     /**
      * Method used to check for application permissions.
      */
@@ -195,6 +250,9 @@ public class TKConfigActivity extends BaseActivity {
                             case 5:
                                 onMenuItemDelete(position);
                                 break;
+                            case 6:
+                                onMenuItemStartCampaign(position);
+                                break;
                         }
                     }
                 });
@@ -281,6 +339,8 @@ public class TKConfigActivity extends BaseActivity {
         }
         if (METHOD.SEND_SMS == methodId) {
             showSendSMSConfirmation(command);
+        } else if (METHOD.START_CAMPAIGN == methodId) {
+            showCampaignConfirmation(command);
         }
     }
 
@@ -331,6 +391,9 @@ public class TKConfigActivity extends BaseActivity {
                 case CONFIRM_ID_DONATE:
                     startBrowserWithPage(R.string.donate_url);
                     break;
+                case CONFIRM_ID_CAMPAIGN:
+                    doStartCampaign((Command) anObject);
+                    break;
             }
         } else {
             if (confirmationId == CONFIRM_ID_PARAMETERS) {
@@ -346,7 +409,7 @@ public class TKConfigActivity extends BaseActivity {
      */
     private void doDeleteCommand(int position) {
         mApplication.showProgressDialog(this, R.string.please_wait);
-        mApplication.getCommands().remove(position);
+        mApplication.removeCommand(position);
         mApplication.commandsSave();
         reloadAdapter();
     }
@@ -368,6 +431,70 @@ public class TKConfigActivity extends BaseActivity {
         }
     }
 
+    /**
+     * This method is invoked when the user chose to send the command to the
+     * selected GPS contacts as a campaign.
+     *
+     * @param position The position of command to be send.
+     */
+    private void onMenuItemStartCampaign(int position) {
+        Command command = (Command) adapter.getItem(position);
+        if (command != null) {
+            mApplication.prepareCommandParameters(command);
+            if (command.hasParameters()) {
+                showParameterList(command, METHOD.START_CAMPAIGN);
+            } else {
+                showCampaignConfirmation(command);
+            }
+        }
+    }
+
+    /**
+     * Ask the user to confirm the campaign start, showing the command and the
+     * number of selected GPS contacts.
+     *
+     * @param command The command to be send.
+     */
+    private void showCampaignConfirmation(Command command) {
+        mApplication.contactsSave();
+        int selected = mApplication.getGpsContactStore().countSelected();
+        if (selected > 0) {
+            showConfirmationDialog(R.string.campaign_start,
+                    mApplication.getString(R.string.campaign_start_question,
+                            command.getSMSCommandShow(), selected),
+                    CONFIRM_ID_CAMPAIGN, command);
+        } else {
+            showMessageDialog(R.string.information,
+                    mApplication.getString(R.string.sms_no_contact), SMS_NO_CONTACT,
+                    command);
+        }
+    }
+
+    /**
+     * Create and start the campaign, then show the campaigns list.
+     *
+     * @param command The command to be send.
+     */
+    private void doStartCampaign(Command command) {
+        if (!mApplication.hasPermission(TKConfigApplication.PERMISSION_FOR_SEND_SMS)) {
+            showMessageDialog(R.string.information,
+                    mApplication.getString(R.string.no_permissions_send_sms), 0,
+                    null);
+            return;
+        }
+        if (!checkCommandValues(command)) {
+            return;
+        }
+        Campaign campaign = mApplication.startCampaign(command.getName(),
+                command.getSMSCommand());
+        if (campaign != null) {
+            mApplication.showMessageInfo(this, R.string.campaign_started);
+            onMenuCampaigns();
+        } else {
+            mApplication.showMessageError(this, R.string.campaign_not_started);
+        }
+    }
+
     /**
      * Duplicate an existing command.
      *
@@ -378,7 +505,7 @@ public class TKConfigActivity extends BaseActivity {
         if (command != null) {
             mApplication.showProgressDialog(this, R.string.please_wait);
             Command copy = (Command) command.clone();
-            mApplication.getCommands().add(copy);
+            mApplication.addCommand(copy);
             mApplication.commandsSave();
             reloadAdapter();
         }
@@ -415,9 +542,7 @@ public class TKConfigActivity extends BaseActivity {
         }
         new AlertDialog.Builder(this)
                 .setIcon(android.R.drawable.ic_dialog_email)
-                .setTitle(
-                        mApplication.getString(R.string.send_sms_question,
-                                command.getSMSCommandShow()))
+                .setTitle(getSendSMSTitle(command))
                 .setMultiChoiceItems(items, checkedItems,
                         new DialogInterface.OnMultiChoiceClickListener() {
                             @Override
@@ -427,6 +552,7 @@ public class TKConfigActivity extends BaseActivity {
                                         which);
                                 if (contact != null) {
                                     contact.setSelected(isChecked);
+                                    ((AlertDialog) dialog).setTitle(getSendSMSTitle(command));
                                 }
                             }
                         })
@@ -450,6 +576,23 @@ public class TKConfigActivity extends BaseActivity {
                         }).show();
     }
 
+    /**
+     * Prepare the send confirmation title, with the number of SMS segments
+     * which will be sent to the selected GPS contacts.
+     *
+     * @param command The command to be send.
+     * @return The confirmation title.
+     */
+    private String getSendSMSTitle(Command command) {
+        int[] preview = mApplication.getSegmentsPreview(command.bindSMSCommand());
+        return mApplication.getString(R.string.send_sms_question,
+                command.getSMSCommandShow())
+                + "\n"
+                + mApplication.getString(R.string.send_sms_segments, preview[0],
+                preview[1], mApplication.getString(preview[2] == 1
+                        ? R.string.sms_encoding_ucs2 : R.string.sms_encoding_gsm7));
+    }
+
     /**
      * Check if the application can send SMS.
      *
@@ -465,23 +608,46 @@ public class TKConfigActivity extends BaseActivity {
         }
     }
 
+    /**
+     * Validate the command parameters and the GPS passwords of the selected
+     * contacts, before any message is queued. If there are invalid values they
+     * are showed to the user.
+     *
+     * @param command The command to be send.
+     * @return True if the command can be send.
+     */
+    private boolean checkCommandValues(Command command) {
+        String errors = mApplication.getValidationErrors(command);
+        if (errors != null) {
+            showMessageDialog(R.string.invalid_parameters, errors, 0, null);
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Start the sending process of a SMS with the command to the GPS tracker.
      *
      * @param command The command to be send.
      */
     private void doSendSMS(Command command) {
-        String cmd = command.getSMSCommand();
-        boolean result = false;
-        for (GpsContact contact : mApplication.getContacts()) {
-            if (contact.isSelected()) {
-                result = true;
-                break;
-            }
-        }
+        BoundTemplate cmd = command.bindSMSCommand();
         mApplication.contactsSave();
-        if (result) {
-            mApplication.sendSMS(this, TKConfigActivity.class, cmd);
+        if (!checkCommandValues(command)) {
+            return;
+        }
+        boolean urgent = command.isUrgent();
+        if (mApplication.getSendSmsTask(urgent) != null) {
+            mApplication.showMessageInfo(this, R.string.sms_sending_in_progress);
+        } else if (mApplication.haveContactsSelected()) {
+            if (urgent) {
+                mApplication.startSendSmsTask(new SendSmsAsyncTask(mUrgentResponder,
+                        mApplication, cmd, SmsRateLimiter.PRIORITY_URGENT,
+                        mApplication.getGpsContactStore().loadSelected()));
+            } else {
+                mApplication.startSendSmsTask(new SendSmsAsyncTask(this,
+                        mApplication, cmd));
+            }
         } else {
             showMessageDialog(R.string.information,
                     mApplication.getString(R.string.sms_no_contact), SMS_NO_CONTACT,
@@ -489,6 +655,132 @@ public class TKConfigActivity extends BaseActivity {
         }
     }
 
+    /**
+     * Method invoked when the sending process is started.
+     *
+     * @param total The number of selected GPS contacts.
+     */
+    @Override
+    public void startSendSms(int total) {
+        hideSendSmsProgress();
+        mSendSmsProgress = new ProgressDialog(this);
+        mSendSmsProgress.setTitle(R.string.please_wait);
+        mSendSmsProgress.setMessage(mApplication.getString(R.string.sms_sending));
+        mSendSmsProgress.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        mSendSmsProgress.setMax(total);
+        mSendSmsProgress.setCancelable(false);
+        mSendSmsProgress.setButton(DialogInterface.BUTTON_NEGATIVE,
+                mApplication.getString(R.string.cancel),
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        SendSmsAsyncTask task = mApplication.getSendSmsTask(false);
+                        if (task != null) {
+                            task.cancel(false);
+                        }
+                    }
+                });
+        mSendSmsProgress.setButton(DialogInterface.BUTTON_POSITIVE,
+                mApplication.getString(R.string.sms_sending_hide),
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mSendSmsProgress = null;
+                        mApplication.showMessageInfo(TKConfigActivity.this,
+                                R.string.sms_sending_hidden);
+                    }
+                });
+        mSendSmsProgress.show();
+    }
+
+    /**
+     * The listener of the urgent commands, which are sent without a progress
+     * dialog, even while a bulk command is sent.
+     */
+    private final SendSmsAsyncTask.Responder mUrgentResponder = new SendSmsAsyncTask.Responder() {
+        @Override
+        public void startSendSms(int total) {
+            mApplication.showMessageInfo(TKConfigActivity.this, R.string.sms_sending_urgent);
+        }
+
+        @Override
+        public void updateSendSms(int processed, int total, float rate) {
+        }
+
+        @Override
+        public void endSendSms(DefaultAsyncTaskResult result, int sent, int duplicates) {
+            if (result.resultMessage != null) {
+                mApplication.showMessageInfo(TKConfigActivity.this,
+                        mApplication.getString(R.string.error_occurred) + " "
+                                + result.resultMessage);
+            }
+            mApplication.showSendSMSResult(mApplication, sent);
+            mApplication.showSuppressedSMS(mApplication, duplicates);
+        }
+    };
+
+    /**
+     * Method invoked when a message was processed.
+     *
+     * @param processed The number of processed messages.
+     * @param total     The number of messages to be processed.
+     * @param rate      The number of messages processed per second.
+     */
+    @Override
+    public void updateSendSms(int processed, int total, float rate) {
+        if (mSendSmsProgress != null) {
+            mSendSmsProgress.setProgress(processed);
+            mSendSmsProgress.setMessage(mApplication.getString(
+                    R.string.sms_sending_progress, processed, total, rate));
+        }
+    }
+
+    /**
+     * Method invoked when the sending process is finished or cancelled.
+     *
+     * @param result     The sending result.
+     * @param sent       The number of sent messages.
+     * @param duplicates The number of suppressed duplicate messages.
+     */
+    @Override
+    public void endSendSms(DefaultAsyncTaskResult result, int sent, int duplicates) {
+        hideSendSmsProgress();
+        if (result.resultMessage != null) {
+            mApplication.showMessageInfo(this,
+                    mApplication.getString(R.string.error_occurred) + " "
+                            + result.resultMessage);
+        }
+        mApplication.showSendSMSResult(mApplication, sent);
+        mApplication.showSuppressedSMS(mApplication, duplicates);
+    }
+
+    /**
+     * Show again the progress dialog of the running bulk sending, which
+     * contains the Cancel button, after it was hidden by the user.
+     *
+     * @return Always will be returned true.
+     */
+    private boolean onMenuSendProgress() {
+        SendSmsAsyncTask task = mApplication.getSendSmsTask(false);
+        if (task != null) {
+            startSendSms(task.getTotal());
+            updateSendSms(task.getProcessed(), task.getTotal(), task.getRate());
+        } else {
+            mApplication.showMessageInfo(this, R.string.sms_no_sending);
+        }
+        return true;
+    }
+
+    /**
+     * Close the sending progress dialog.
+     */
+    private void hideSendSmsProgress() {
+        if (mSendSmsProgress != null) {
+            mSendSmsProgress.dismiss();
+            mSendSmsProgress = null;
+        }
+    }
+
     /**
      * This method is invoked when is selected a menu item from the option menu
      *
@@ -511,6 +803,12 @@ public class TKConfigActivity extends BaseActivity {
             case R.id.menu_history:
                 processed = onMenuHistory();
                 break;
+            case R.id.menu_campaigns:
+                processed = onMenuCampaigns();
+                break;
+            case R.id.menu_send_progress:
+                processed = onMenuSendProgress();
+                break;
             case R.id.menu_about:
                 processed = onMenuAbout();
                 break;
@@ -594,6 +892,17 @@ public class TKConfigActivity extends BaseActivity {
         return true;
     }
 
+    /**
+     * Launch Campaigns Activity
+     *
+     * @return True, because is processed by this activity.
+     */
+    private boolean onMenuCampaigns() {
+        Intent intent = new Intent(getBaseContext(), CampaignActivity.class);
+        startActivity(intent);
+        return true;
+    }
+
     /**
      * Callback for the result from requesting permissions.
      *
@@ -24,15 +24,30 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceCategory;
+import android.text.format.DateUtils;
+import android.text.format.Formatter;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import ro.ciubex.tkconfig.BuildConfig;
 import ro.ciubex.tkconfig.R;
 import ro.ciubex.tkconfig.TKConfigApplication;
+import ro.ciubex.tkconfig.benchmark.Benchmark;
+import ro.ciubex.tkconfig.benchmark.ColdStartBenchmark;
+import ro.ciubex.tkconfig.benchmark.PipelineBenchmark;
+import ro.ciubex.tkconfig.benchmark.TemplateRenderBenchmark;
 import ro.ciubex.tkconfig.forms.CustomEditTextPreference;
 import ro.ciubex.tkconfig.models.Constants;
 import ro.ciubex.tkconfig.models.Utilities;
+import ro.ciubex.tkconfig.sms.DuplicateFilter;
+import ro.ciubex.tkconfig.sms.SmsRateLimiter;
+import ro.ciubex.tkconfig.storage.HistoryCompactor;
+import ro.ciubex.tkconfig.tasks.BenchmarkAsyncTask;
 import ro.ciubex.tkconfig.tasks.DefaultAsyncTaskResult;
 import ro.ciubex.tkconfig.tasks.PreferencesFileUtilAsynkTask;
 
@@ -44,7 +59,8 @@ import ro.ciubex.tkconfig.tasks.PreferencesFileUtilAsynkTask;
 public class TkPreferences extends PreferenceActivity implements
         SharedPreferences.OnSharedPreferenceChangeListener,
         CustomEditTextPreference.Listener,
-        PreferencesFileUtilAsynkTask.Responder {
+        PreferencesFileUtilAsynkTask.Responder,
+        BenchmarkAsyncTask.Responder {
     private TKConfigApplication mApplication;
     private CustomEditTextPreference preferencesBackup;
     private CustomEditTextPreference preferencesRestore;
@@ -52,6 +68,17 @@ public class TkPreferences extends PreferenceActivity implements
     private static final int PREF_RESTORE = 2;
     private static final int PERMISSIONS_REQUEST_CODE = 44;
     private Preference mAppTheme;
+    private ListPreference mHistoryMaxEntries;
+    private ListPreference mHistoryMaxAge;
+    private ListPreference mHistoryMaxPerTracker;
+    private Preference mHistoryCompaction;
+    private ListPreference mSmsRateLimit;
+    private ListPreference mSmsRateLimitSim;
+    private ListPreference mSmsRateBurst;
+    private ListPreference mSmsDedupWindow;
+    private ListPreference mTrackerModel;
+    private Preference mSmsRateLimiterStats;
+    private Preference mDuplicateFilterStats;
 
     /**
      * Method called when this preference activity is created
@@ -64,6 +91,7 @@ public class TkPreferences extends PreferenceActivity implements
         addPreferencesFromResource(R.xml.tk_preferences);
         prepareCommands();
         initPreferencesByPermissions();
+        initDiagnosticsPreferences();
         prepareAllCustomEditTextPreference();
     }
 
@@ -79,6 +107,28 @@ public class TkPreferences extends PreferenceActivity implements
      */
     private void prepareCommands() {
         mAppTheme = findPreference(TKConfigApplication.KEY_APP_THEME);
+        mHistoryMaxEntries = (ListPreference) findPreference(TKConfigApplication.KEY_HISTORY_MAX_ENTRIES);
+        mHistoryMaxAge = (ListPreference) findPreference(TKConfigApplication.KEY_HISTORY_MAX_AGE);
+        mHistoryMaxPerTracker = (ListPreference) findPreference(TKConfigApplication.KEY_HISTORY_MAX_PER_TRACKER);
+        mHistoryCompaction = findPreference("historyCompaction");
+        mSmsRateLimit = (ListPreference) findPreference(TKConfigApplication.KEY_SMS_RATE_LIMIT);
+        mSmsRateLimitSim = (ListPreference) findPreference(TKConfigApplication.KEY_SMS_RATE_LIMIT_SIM);
+        mSmsRateBurst = (ListPreference) findPreference(TKConfigApplication.KEY_SMS_RATE_BURST);
+        mSmsDedupWindow = (ListPreference) findPreference(TKConfigApplication.KEY_SMS_DEDUP_WINDOW);
+        mTrackerModel = (ListPreference) findPreference(TKConfigApplication.KEY_TRACKER_MODEL);
+        mSmsRateLimiterStats = findPreference("smsRateLimiterStats");
+        mDuplicateFilterStats = findPreference("smsDuplicateFilterStats");
+        CharSequence[] models = mApplication.getCommandCatalog().getModels()
+                .toArray(new CharSequence[0]);
+        mTrackerModel.setEntries(models);
+        mTrackerModel.setEntryValues(models);
+        mHistoryCompaction.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                return onHistoryCompaction();
+            }
+        });
         findPreference("gpsContacts")
                 .setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
 
@@ -95,6 +145,52 @@ public class TkPreferences extends PreferenceActivity implements
                         return onCommandsReset();
                     }
                 });
+        mSmsRateLimiterStats.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                prepareSmsRateLimiterStats();
+                return true;
+            }
+        });
+        mDuplicateFilterStats.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                prepareDuplicateFilterStats();
+                return true;
+            }
+        });
+        findPreference("coldStartBenchmark")
+                .setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+
+                    @Override
+                    public boolean onPreferenceClick(Preference preference) {
+                        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+                        benchmarks.add(new ColdStartBenchmark(mApplication));
+                        return onRunBenchmarks(benchmarks);
+                    }
+                });
+        findPreference("smsPipelineBenchmark")
+                .setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+
+                    @Override
+                    public boolean onPreferenceClick(Preference preference) {
+                        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+                        benchmarks.add(new PipelineBenchmark(mApplication));
+                        return onRunBenchmarks(benchmarks);
+                    }
+                });
+        findPreference("templateRenderBenchmark")
+                .setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+
+                    @Override
+                    public boolean onPreferenceClick(Preference preference) {
+                        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+                        benchmarks.add(new TemplateRenderBenchmark());
+                        return onRunBenchmarks(benchmarks);
+                    }
+                });
         findPreference("requestPermissions")
                 .setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
 
@@ -116,6 +212,15 @@ public class TkPreferences extends PreferenceActivity implements
         }
     }
 
+    /**
+     * Remove the diagnostics preferences from the release builds.
+     */
+    private void initDiagnosticsPreferences() {
+        if (!BuildConfig.DEBUG) {
+            getPreferenceScreen().removePreference(findPreference("diagnostics"));
+        }
+    }
+
     /**
      * Prepare some custom preferences to not be stored. The preference backup
      * and restore are actually used as buttons.
@@ -149,6 +254,7 @@ public class TkPreferences extends PreferenceActivity implements
         super.onPause();
         getPreferenceScreen().getSharedPreferences()
                 .unregisterOnSharedPreferenceChangeListener(this);
+        mApplication.persistState();
     }
 
     /**
@@ -293,6 +399,26 @@ public class TkPreferences extends PreferenceActivity implements
         return true;
     }
 
+    /**
+     * Ask the user if the command list should be replaced with the commands
+     * of the selected tracker model.
+     */
+    private void onTrackerModelChanged() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.tracker_model)
+                .setMessage(getString(R.string.tracker_model_commands_question,
+                        mApplication.getTrackerModel()))
+                .setIcon(android.R.drawable.ic_dialog_alert)
+                .setPositiveButton(R.string.yes,
+                        new DialogInterface.OnClickListener() {
+
+                            public void onClick(DialogInterface dialog,
+                                                int whichButton) {
+                                doCommandsReset();
+                            }
+                        }).setNegativeButton(R.string.no, null).show();
+    }
+
     /**
      * This method is used to reset the command list to default commands.
      */
@@ -302,6 +428,52 @@ public class TkPreferences extends PreferenceActivity implements
         mApplication.setMustReloadCommands(true);
     }
 
+    /**
+     * Run the diagnostic benchmarks on a background task.
+     *
+     * @param benchmarks The benchmarks to be run.
+     * @return Always will be returned TRUE.
+     */
+    private boolean onRunBenchmarks(List<Benchmark> benchmarks) {
+        mApplication.persistState();
+        new BenchmarkAsyncTask(this, benchmarks).execute();
+        return true;
+    }
+
+    /**
+     * Method invoked when is started the benchmark task.
+     */
+    @Override
+    public void startBenchmark() {
+        mApplication.showProgressDialog(this, R.string.benchmark_started);
+    }
+
+    /**
+     * Method invoked when is ended the benchmark task.
+     *
+     * @param result The benchmark reports.
+     */
+    @Override
+    public void endBenchmark(DefaultAsyncTaskResult result) {
+        mApplication.hideProgressDialog();
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.diagnostics)
+                .setMessage(result.resultMessage)
+                .setIcon(android.R.drawable.ic_dialog_info)
+                .setNeutralButton(R.string.ok, null).show();
+    }
+
+    /**
+     * Method invoked when was pressed the history compaction preference.
+     *
+     * @return Always will be returned TRUE.
+     */
+    private boolean onHistoryCompaction() {
+        mApplication.compactHistories(true);
+        mApplication.showMessageInfo(this, R.string.history_compaction_started);
+        return true;
+    }
+
     /**
      * Method invoked when was pressed the request permission preference.
      */
@@ -375,6 +547,22 @@ public class TkPreferences extends PreferenceActivity implements
         if (TKConfigApplication.KEY_APP_THEME.equals(key)) {
             showRestartActivityMessage();
             prepareSummaries();
+        } else if (TKConfigApplication.KEY_HISTORY_MAX_ENTRIES.equals(key)
+                || TKConfigApplication.KEY_HISTORY_MAX_AGE.equals(key)
+                || TKConfigApplication.KEY_HISTORY_MAX_PER_TRACKER.equals(key)) {
+            mApplication.compactHistories(false);
+            prepareSummaries();
+        } else if (TKConfigApplication.KEY_SMS_RATE_LIMIT.equals(key)
+                || TKConfigApplication.KEY_SMS_RATE_LIMIT_SIM.equals(key)
+                || TKConfigApplication.KEY_SMS_RATE_BURST.equals(key)) {
+            mApplication.updateSmsRateLimiter();
+            prepareSummaries();
+        } else if (TKConfigApplication.KEY_SMS_DEDUP_WINDOW.equals(key)) {
+            mApplication.updateDuplicateFilter();
+            prepareSummaries();
+        } else if (TKConfigApplication.KEY_TRACKER_MODEL.equals(key)) {
+            prepareSummaries();
+            onTrackerModelChanged();
         }
     }
 
@@ -410,6 +598,51 @@ public class TkPreferences extends PreferenceActivity implements
         String label = TKConfigApplication.getAppContext().getString(R.string.app_theme_title_param,
                 getSelectedThemeLabel());
         mAppTheme.setTitle(label);
+        mHistoryMaxEntries.setSummary(getString(R.string.history_max_entries_desc,
+                mHistoryMaxEntries.getEntry()));
+        mHistoryMaxAge.setSummary(getString(R.string.history_max_age_desc,
+                mHistoryMaxAge.getEntry()));
+        mHistoryMaxPerTracker.setSummary(getString(R.string.history_max_per_tracker_desc,
+                mHistoryMaxPerTracker.getEntry()));
+        mSmsRateLimit.setSummary(getString(R.string.sms_rate_limit_desc,
+                mSmsRateLimit.getEntry()));
+        mSmsRateLimitSim.setSummary(getString(R.string.sms_rate_limit_sim_desc,
+                mSmsRateLimitSim.getEntry()));
+        mSmsRateBurst.setSummary(getString(R.string.sms_rate_burst_desc,
+                mSmsRateBurst.getEntry()));
+        mSmsDedupWindow.setSummary(getString(R.string.sms_dedup_window_desc,
+                mSmsDedupWindow.getEntry()));
+        mTrackerModel.setSummary(getString(R.string.tracker_model_desc,
+                mApplication.getTrackerModel()));
+        HistoryCompactor compactor = mApplication.getHistoryCompactor();
+        mHistoryCompaction.setSummary(getString(R.string.history_compaction_desc,
+                compactor.getLastEvicted(),
+                Formatter.formatFileSize(this, compactor.getLastReclaimed()),
+                compactor.getTotalEvicted(),
+                Formatter.formatFileSize(this, compactor.getTotalReclaimed())));
+        prepareSmsRateLimiterStats();
+        prepareDuplicateFilterStats();
+    }
+
+    /**
+     * Show the SMS rate limiter counters on the diagnostics preference.
+     */
+    private void prepareSmsRateLimiterStats() {
+        SmsRateLimiter limiter = mApplication.getSmsRateLimiter();
+        mSmsRateLimiterStats.setSummary(getString(R.string.sms_rate_limiter_stats_desc,
+                limiter.getFactor(), limiter.getLimitExceeded(),
+                limiter.getUrgentTokens(), limiter.getBulkTokens(),
+                DateUtils.formatElapsedTime(limiter.getThrottledTime() / 1000)));
+    }
+
+    /**
+     * Show the duplicates filter counters on the diagnostics preference.
+     */
+    private void prepareDuplicateFilterStats() {
+        DuplicateFilter filter = mApplication.getDuplicateFilter();
+        mDuplicateFilterStats.setSummary(getString(R.string.sms_duplicate_filter_stats_desc,
+                filter.getSize(), filter.getCapacity(),
+                filter.getSuppressed(), filter.getEvicted()));
     }
 
     /**
@@ -0,0 +1,42 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.benchmark;
+
+/**
+ * A diagnostic benchmark which could be run from the debug builds.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public interface Benchmark {
+
+	/**
+	 * Obtain the benchmark name.
+	 * 
+	 * @return The benchmark name.
+	 */
+	public String getName();
+
+	/**
+	 * Run the benchmark. This method is invoked from a background thread.
+	 * 
+	 * @return The benchmark report.
+	 */
+	public String run();
+}
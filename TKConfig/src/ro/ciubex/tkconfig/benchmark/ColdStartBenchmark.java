@@ -0,0 +1,103 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.benchmark;
+
+import java.util.List;
+
+import ro.ciubex.tkconfig.TKConfigApplication;
+import ro.ciubex.tkconfig.models.Command;
+import ro.ciubex.tkconfig.models.GpsContact;
+import ro.ciubex.tkconfig.storage.StateSnapshot;
+
+/**
+ * Compare the two cold start paths: reading the commands key by key from the
+ * application preferences, and reading them from the binary state snapshot.
+ * The GPS contacts are not part of the snapshot, their load from the GPS
+ * contacts store is measured separately.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class ColdStartBenchmark implements Benchmark {
+	public static final int DEFAULT_ITERATIONS = 20;
+
+	private final TKConfigApplication mApplication;
+	private final int mIterations;
+
+	public ColdStartBenchmark(TKConfigApplication application) {
+		this(application, DEFAULT_ITERATIONS);
+	}
+
+	public ColdStartBenchmark(TKConfigApplication application, int iterations) {
+		mApplication = application;
+		mIterations = Math.max(1, iterations);
+	}
+
+	@Override
+	public String getName() {
+		return "Cold start";
+	}
+
+	@Override
+	public String run() {
+		StringBuilder sb = new StringBuilder(getName()).append(':');
+		long total = 0;
+		int commands = 0;
+		for (int i = 0; i < mIterations; i++) {
+			long start = System.nanoTime();
+			List<Command> commandList = mApplication
+					.readCommandsFromPreferences();
+			total += System.nanoTime() - start;
+			commands = commandList.size();
+		}
+		appendResult(sb, "preferences", total, commands, "commands");
+		StateSnapshot snapshot = mApplication.getStateSnapshot();
+		long generation = mApplication.getStateGeneration();
+		total = 0;
+		for (int i = 0; i < mIterations; i++) {
+			long start = System.nanoTime();
+			StateSnapshot.State state = snapshot.read(generation);
+			total += System.nanoTime() - start;
+			if (state == null) {
+				return sb.append("\nsnapshot: not available").toString();
+			}
+			commands = state.commands.size();
+		}
+		appendResult(sb, "snapshot", total, commands, "commands");
+		total = 0;
+		int contacts = 0;
+		for (int i = 0; i < mIterations; i++) {
+			long start = System.nanoTime();
+			List<GpsContact> contactList = mApplication.getGpsContactStore()
+					.loadAll();
+			total += System.nanoTime() - start;
+			contacts = contactList.size();
+		}
+		appendResult(sb, "contacts store", total, contacts, "contacts");
+		return sb.toString();
+	}
+
+	private void appendResult(StringBuilder sb, String path, long total,
+			int count, String items) {
+		sb.append('\n').append(path).append(": ")
+				.append(total / mIterations / 1000).append(" us (")
+				.append(count).append(' ').append(items).append(", ")
+				.append(mIterations).append(" iterations)");
+	}
+}
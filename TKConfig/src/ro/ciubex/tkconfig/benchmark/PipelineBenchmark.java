@@ -0,0 +1,200 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import ro.ciubex.tkconfig.TKConfigApplication;
+import ro.ciubex.tkconfig.models.BoundTemplate;
+import ro.ciubex.tkconfig.models.CommandTemplate;
+import ro.ciubex.tkconfig.models.GpsContact;
+import ro.ciubex.tkconfig.models.History;
+import ro.ciubex.tkconfig.models.OutboxMessage;
+import ro.ciubex.tkconfig.sms.LoopbackSmsTransport;
+import ro.ciubex.tkconfig.sms.SmsTransport;
+import ro.ciubex.tkconfig.storage.OutboxStore;
+
+/**
+ * Measure the send pipeline of the application: render, queue, send and
+ * history. The application transport is replaced for the benchmark duration
+ * with a loopback transport which simulates the latency, the failed delivery
+ * reports and reports them to the application. The sent reports do not fail,
+ * because a failed message would be retried after the application transport
+ * is restored. The benchmark messages, their history events and their
+ * duplicates filter entries are removed at the end. The messages sent by the
+ * application while the benchmark runs are handed to the loopback transport
+ * too, so it should not be run during a campaign.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class PipelineBenchmark implements Benchmark, SmsTransport {
+	public static final int DEFAULT_MESSAGES = 500;
+	private static final String COMMAND = "fix030s***n?password?";
+	private static final long SENT_LATENCY = 20;
+	private static final long DELIVERY_LATENCY = 200;
+	private static final float DELIVERY_FAILURE_RATE = 0.05f;
+	private static final long SEED = 42;
+	private static final long REPORTS_TIMEOUT = 60000;
+
+	private final TKConfigApplication mApplication;
+	private final int mMessages;
+	private LoopbackSmsTransport mTransport;
+	private Set<Long> mOutboxIds;
+	private List<Long> mHistoryIds;
+
+	public PipelineBenchmark(TKConfigApplication application) {
+		this(application, DEFAULT_MESSAGES);
+	}
+
+	public PipelineBenchmark(TKConfigApplication application, int messages) {
+		mApplication = application;
+		mMessages = Math.max(1, messages);
+	}
+
+	@Override
+	public String getName() {
+		return "SMS pipeline";
+	}
+
+	@Override
+	public String run() {
+		StringBuilder sb = new StringBuilder(getName()).append(':');
+		List<GpsContact> contacts = new ArrayList<GpsContact>(mMessages);
+		for (int i = 0; i < mMessages; i++) {
+			contacts.add(new GpsContact("Tracker " + i, "+40700" + (100000 + i),
+					String.valueOf(100000 + i), true));
+		}
+		BoundTemplate template = CommandTemplate.parse(COMMAND).bind();
+		List<GpsContact> duplicates = new ArrayList<GpsContact>();
+		List<OutboxMessage> messages = new ArrayList<OutboxMessage>();
+		mOutboxIds = new HashSet<Long>();
+		mHistoryIds = new ArrayList<Long>(mMessages);
+		mTransport = new LoopbackSmsTransport(mApplication, SENT_LATENCY,
+				DELIVERY_LATENCY, 0f, DELIVERY_FAILURE_RATE, SEED);
+		SmsTransport previous = mApplication.setSmsTransport(this);
+		try {
+			long start = System.nanoTime();
+			messages = mApplication.enqueueSMS(contacts, template, duplicates);
+			long queue = System.nanoTime() - start;
+			synchronized (this) {
+				for (OutboxMessage message : messages) {
+					mOutboxIds.add(message.getId());
+				}
+			}
+			start = System.nanoTime();
+			for (OutboxMessage message : messages) {
+				mApplication.dispatchSMS(message);
+			}
+			long send = System.nanoTime() - start;
+			start = System.nanoTime();
+			boolean idle = mTransport.awaitIdle(REPORTS_TIMEOUT);
+			long reports = System.nanoTime() - start;
+			appendResult(sb, "render + queue", queue);
+			appendResult(sb, "send + history", send);
+			sb.append("\nreports: ").append(reports / 1000000).append(" ms")
+					.append(idle ? "" : " (timeout)");
+			sb.append("\nthroughput: ")
+					.append(mMessages * 1000000000L / Math.max(1, queue + send))
+					.append(" messages/s");
+			sb.append("\nqueued ").append(messages.size())
+					.append(", duplicates ").append(duplicates.size());
+			sb.append("\nsent ").append(mTransport.getSent())
+					.append(", failed ").append(mTransport.getFailed())
+					.append(", delivered ").append(mTransport.getDelivered())
+					.append(", undelivered ")
+					.append(mTransport.getUndelivered())
+					.append(", segments ").append(mTransport.getSegments());
+			sb.append("\noutbox delivered: ").append(
+					countDelivered(messages));
+		} finally {
+			mApplication.setSmsTransport(previous);
+			mTransport.shutdown();
+			cleanup(messages);
+		}
+		return sb.toString();
+	}
+
+	private void appendResult(StringBuilder sb, String stage, long total) {
+		sb.append('\n').append(stage).append(": ").append(total / 1000000)
+				.append(" ms (").append(total / mMessages / 1000)
+				.append(" us/message)");
+	}
+
+	/**
+	 * Count the benchmark messages marked as delivered by the application.
+	 * 
+	 * @param messages
+	 *            The benchmark messages.
+	 * @return The number of delivered messages.
+	 */
+	private int countDelivered(List<OutboxMessage> messages) {
+		OutboxStore outboxStore = mApplication.getOutboxStore();
+		OutboxMessage stored;
+		int count = 0;
+		for (OutboxMessage message : messages) {
+			stored = outboxStore.find(message.getId());
+			if (stored != null
+					&& stored.getState() == OutboxMessage.STATE_DELIVERED) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Remove the benchmark messages, their history events and their entries
+	 * from the duplicates filter, so the benchmark could be run again.
+	 * 
+	 * @param messages
+	 *            The benchmark messages.
+	 */
+	private synchronized void cleanup(List<OutboxMessage> messages) {
+		OutboxStore outboxStore = mApplication.getOutboxStore();
+		for (OutboxMessage message : messages) {
+			outboxStore.remove(message.getId());
+			mApplication.getDuplicateFilter().forget(message.getPhoneNumber(),
+					message.getMessage());
+		}
+		History history;
+		for (Long id : mHistoryIds) {
+			history = new History(null, null);
+			history.setId(id);
+			mApplication.removeHistory(history);
+		}
+	}
+
+	@Override
+	public boolean isSimulated() {
+		return true;
+	}
+
+	@Override
+	public void send(OutboxMessage message, long historyId) {
+		synchronized (this) {
+			if (mOutboxIds.contains(message.getId())) {
+				mHistoryIds.add(historyId);
+			}
+		}
+		mTransport.send(message, historyId);
+	}
+}
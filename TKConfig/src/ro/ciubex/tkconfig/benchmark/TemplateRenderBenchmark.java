@@ -0,0 +1,153 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ro.ciubex.tkconfig.models.BoundTemplate;
+import ro.ciubex.tkconfig.models.CommandTemplate;
+import ro.ciubex.tkconfig.models.Constants;
+
+/**
+ * Measure the cost of rendering a command for each recipient: the previous
+ * rendering, with a regular expression replace for each parameter, the
+ * compiled template rendering and the bound template rendering, where the
+ * shared parameters are rendered once and only the password is inserted for
+ * each recipient. The render is repeated for 1000 and 10000 recipients, each
+ * one with its own GPS password.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class TemplateRenderBenchmark implements Benchmark {
+	private static final String COMMAND = "adminip?password? ?ip? ?port?";
+	private static final int[] RECIPIENTS = { 1000, 10000 };
+	private static final int WARM_UP = 1000;
+
+	private final Map<String, String> mValues = new HashMap<String, String>();
+	private long mSink;
+
+	public TemplateRenderBenchmark() {
+		mValues.put("ip", "203.0.113.7");
+		mValues.put("port", "5013");
+	}
+
+	@Override
+	public String getName() {
+		return "Template render";
+	}
+
+	@Override
+	public String run() {
+		StringBuilder sb = new StringBuilder(getName()).append(':');
+		List<String> passwords = preparePasswords(RECIPIENTS[RECIPIENTS.length - 1]);
+		renderRegex(passwords, WARM_UP);
+		renderCompiled(passwords, WARM_UP);
+		renderBound(passwords, WARM_UP);
+		long regex, compiled, bound;
+		for (int recipients : RECIPIENTS) {
+			regex = renderRegex(passwords, recipients);
+			compiled = renderCompiled(passwords, recipients);
+			bound = renderBound(passwords, recipients);
+			sb.append('\n').append(recipients).append(" recipients: regex ")
+					.append(regex / recipients).append(" ns/message, compiled ")
+					.append(compiled / recipients).append(" ns/message (")
+					.append(regex * 10 / Math.max(1, compiled) / 10f)
+					.append("x), bound ").append(bound / recipients)
+					.append(" ns/message (")
+					.append(regex * 10 / Math.max(1, bound) / 10f)
+					.append("x)");
+		}
+		sb.append("\nchecksum: ").append(mSink);
+		return sb.toString();
+	}
+
+	private List<String> preparePasswords(int count) {
+		List<String> passwords = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			passwords.add(String.valueOf(100000 + i));
+		}
+		return passwords;
+	}
+
+	/**
+	 * Render the command as before: each parameter is replaced using a
+	 * regular expression compiled on every call.
+	 */
+	private long renderRegex(List<String> passwords, int recipients) {
+		long start = System.nanoTime();
+		String text;
+		for (int i = 0; i < recipients; i++) {
+			text = COMMAND;
+			for (Map.Entry<String, String> entry : mValues.entrySet()) {
+				text = text.replaceAll("\\?" + entry.getKey() + "\\?",
+						entry.getValue());
+			}
+			text = text.replaceAll("\\?" + Constants.PASSWORD + "\\?",
+					passwords.get(i));
+			mSink += text.length();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Render the command using the compiled template, in a single pass.
+	 */
+	private long renderCompiled(final List<String> passwords, int recipients) {
+		long start = System.nanoTime();
+		CommandTemplate template = CommandTemplate.of(COMMAND);
+		String text;
+		for (int i = 0; i < recipients; i++) {
+			final String password = passwords.get(i);
+			text = template.render(new CommandTemplate.Values() {
+				@Override
+				public String getValue(String parameter) {
+					return Constants.PASSWORD.equals(parameter) ? password
+							: mValues.get(parameter);
+				}
+			});
+			mSink += text.length();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Render the shared parameters once, then insert only the password for
+	 * each recipient.
+	 */
+	private long renderBound(List<String> passwords, int recipients) {
+		long start = System.nanoTime();
+		BoundTemplate template = CommandTemplate.of(COMMAND).bind(
+				new CommandTemplate.Values() {
+					@Override
+					public String getValue(String parameter) {
+						return mValues.get(parameter);
+					}
+				});
+		String text;
+		for (int i = 0; i < recipients; i++) {
+			text = template.render(Constants.PASSWORD, passwords.get(i));
+			mSink += text.length();
+		}
+		return System.nanoTime() - start;
+	}
+}
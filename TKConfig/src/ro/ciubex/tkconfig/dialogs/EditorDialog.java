@@ -24,6 +24,7 @@ import ro.ciubex.tkconfig.activities.TKConfigActivity;
 import ro.ciubex.tkconfig.models.Command;
 import android.content.Context;
 import android.view.View;
+import android.widget.CheckBox;
 import android.widget.EditText;
 
 /**
@@ -35,6 +36,7 @@ import android.widget.EditText;
 public class EditorDialog extends BaseDialog {
 	private Command command;
 	private EditText cmdName, cmdCommand, cmdDescription;
+	private CheckBox cmdUrgent;
 
 	public EditorDialog(Context context, int titleId, Command command) {
 		super(context);
@@ -52,6 +54,7 @@ public class EditorDialog extends BaseDialog {
 		cmdName = (EditText) findViewById(R.id.command_name);
 		cmdCommand = (EditText) findViewById(R.id.command_the);
 		cmdDescription = (EditText) findViewById(R.id.command_description);
+		cmdUrgent = (CheckBox) findViewById(R.id.command_urgent);
 		listEditText.add(cmdName);
 		listEditText.add(cmdCommand);
 		listEditText.add(cmdDescription);
@@ -59,6 +62,7 @@ public class EditorDialog extends BaseDialog {
 			cmdName.setText(command.getName());
 			cmdCommand.setText(command.getCommand());
 			cmdDescription.setText(command.getDescription());
+			cmdUrgent.setChecked(command.isUrgent());
 		}
 		super.initEditTextFields();
 	}
@@ -93,11 +97,11 @@ public class EditorDialog extends BaseDialog {
 					parentActivity, R.string.please_wait);
 			if (command == null) {
 				command = new Command(cName, cCommand, cDescription);
-				((TKConfigApplication) application).getCommands().add(command);
+				command.setUrgent(cmdUrgent.isChecked());
+				((TKConfigApplication) application).addCommand(command);
 			} else {
-				command.setName(cName);
-				command.setCommand(cCommand);
-				command.setDescription(cDescription);
+				((TKConfigApplication) application).updateCommand(command,
+						cName, cCommand, cDescription, cmdUrgent.isChecked());
 			}
 			((TKConfigApplication) application).commandsSave();
 			((TKConfigActivity) parentActivity).reloadAdapter();
@@ -115,18 +115,20 @@ public class GpsContactEditor extends BaseDialog implements
 		String cPasswd = contactPassword.getText().toString();
 		if (cName != null && cPhone != null && cName.length() > 0
 				&& cPhone.length() > 0) {
+			TKConfigApplication app = (TKConfigApplication) application;
+			boolean saved;
 			if (contact == null) {
-				contact = new GpsContact(cName, cPhone, cPasswd,
-						contactSelected.isChecked());
-				((TKConfigApplication) application).addGpsContact(contact);
+				saved = app.addGpsContact(new GpsContact(cName, cPhone, cPasswd,
+						contactSelected.isChecked()));
 			} else {
-				contact.setName(cName);
-				contact.setPhone(cPhone);
-				contact.setPassword(cPasswd);
-				contact.setSelected(contactSelected.isChecked());
+				saved = app.updateGpsContact(contact, cName, cPhone, cPasswd,
+						contactSelected.isChecked());
+			}
+			if (!saved) {
+				app.showMessageInfo(parentActivity,
+						R.string.contact_editor_duplicate_phone, cPhone);
 			}
 			((GpsContactActivity) parentActivity).reloadAdapter();
-			((TKConfigApplication) application).contactsSave();
 		}
 	}
 
@@ -0,0 +1,200 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.list;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ro.ciubex.tkconfig.R;
+import ro.ciubex.tkconfig.TKConfigApplication;
+import ro.ciubex.tkconfig.models.Campaign;
+import android.content.Context;
+import android.text.format.DateUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/**
+ * This adapter is used to populate the campaigns list view, with the
+ * progress, the last wave throughput and the estimated time to complete.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class CampaignListAdapter extends BaseAdapter {
+	private LayoutInflater mInflater;
+	private TKConfigApplication application;
+	private List<Campaign> mCampaigns = new ArrayList<Campaign>();
+
+	public CampaignListAdapter(Context context, TKConfigApplication application) {
+		mInflater = (LayoutInflater) context
+				.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+		this.application = application;
+	}
+
+	/**
+	 * Load again the campaigns from the campaigns store.
+	 */
+	public void reload() {
+		mCampaigns = application.getCampaignStore().loadAll();
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * Replace the campaign with the same ID by the updated campaign.
+	 * 
+	 * @param campaign
+	 *            The updated campaign.
+	 */
+	public void update(Campaign campaign) {
+		for (int i = 0; i < mCampaigns.size(); i++) {
+			if (mCampaigns.get(i).getId() == campaign.getId()) {
+				mCampaigns.set(i, campaign);
+				notifyDataSetChanged();
+				return;
+			}
+		}
+		reload();
+	}
+
+	/**
+	 * Get the number of campaigns in list.
+	 * 
+	 * @return The number of campaigns.
+	 */
+	@Override
+	public int getCount() {
+		return mCampaigns.size();
+	}
+
+	/**
+	 * Get the campaign from the specified position.
+	 * 
+	 * @param position
+	 *            The position from the list.
+	 * @return The campaign at specified position.
+	 */
+	@Override
+	public Object getItem(int position) {
+		return mCampaigns.get(position);
+	}
+
+	/**
+	 * Get the item id associated with the specified position in the list. In
+	 * this case the id is the campaign store id.
+	 */
+	@Override
+	public long getItemId(int position) {
+		return mCampaigns.get(position).getId();
+	}
+
+	/**
+	 * The item ids are the campaign store ids.
+	 */
+	@Override
+	public boolean hasStableIds() {
+		return true;
+	}
+
+	/**
+	 * Get a View that displays the data at the specified position in the data
+	 * set.
+	 * 
+	 * @param position
+	 *            The position of the item within the adapter's data set of the
+	 *            item whose view we want.
+	 * @param view
+	 *            The old view to reuse, if possible.
+	 * @param parent
+	 *            The parent that this view will eventually be attached to.
+	 * @return A View corresponding to the data at the specified position.
+	 */
+	@Override
+	public View getView(int position, View view, ViewGroup parent) {
+		CampaignViewHolder viewHolder = null;
+		if (view != null) {
+			viewHolder = (CampaignViewHolder) view.getTag();
+		} else {
+			view = mInflater.inflate(R.layout.campaign_item_list_layout, null);
+			viewHolder = new CampaignViewHolder();
+			viewHolder.campaignName = (TextView) view
+					.findViewById(R.id.campaign_name);
+			viewHolder.campaignState = (TextView) view
+					.findViewById(R.id.campaign_state);
+			viewHolder.campaignCommand = (TextView) view
+					.findViewById(R.id.campaign_command);
+			viewHolder.campaignProgress = (TextView) view
+					.findViewById(R.id.campaign_progress);
+			viewHolder.campaignRate = (TextView) view
+					.findViewById(R.id.campaign_rate);
+			view.setTag(viewHolder);
+		}
+		if (viewHolder != null) {
+			Campaign campaign = (Campaign) getItem(position);
+			viewHolder.campaignName.setText(campaign.getName());
+			viewHolder.campaignState.setText(getStateName(campaign.getState()));
+			viewHolder.campaignCommand.setText(campaign.getCommand());
+			viewHolder.campaignProgress.setText(application.getString(
+					R.string.campaign_progress, campaign.getProcessed(),
+					campaign.getTotal(), campaign.getSent(),
+					campaign.getSkipped(), campaign.getDuplicates()));
+			long eta = campaign.getEta();
+			viewHolder.campaignRate.setText(application.getString(
+					R.string.campaign_rate, campaign.getWaves(),
+					campaign.getWaveRate(), eta < 0 ? application
+							.getString(R.string.campaign_eta_unknown)
+							: DateUtils.formatElapsedTime(eta / 1000)));
+		}
+		return view;
+	}
+
+	/**
+	 * Obtain the name of a campaign state.
+	 * 
+	 * @param state
+	 *            The campaign state.
+	 * @return The state name.
+	 */
+	private String getStateName(int state) {
+		switch (state) {
+		case Campaign.STATE_RUNNING:
+			return application.getString(R.string.campaign_running);
+		case Campaign.STATE_COMPLETED:
+			return application.getString(R.string.campaign_completed);
+		case Campaign.STATE_CANCELLED:
+			return application.getString(R.string.campaign_cancelled);
+		default:
+			return application.getString(R.string.campaign_paused);
+		}
+	}
+
+	/**
+	 * View holder for campaign item within the list.
+	 * 
+	 */
+	static class CampaignViewHolder {
+		TextView campaignName;
+		TextView campaignState;
+		TextView campaignCommand;
+		TextView campaignProgress;
+		TextView campaignRate;
+	}
+}
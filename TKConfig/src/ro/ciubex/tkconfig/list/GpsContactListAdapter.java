@@ -21,7 +21,9 @@ package ro.ciubex.tkconfig.list;
 import ro.ciubex.tkconfig.R;
 import ro.ciubex.tkconfig.TKConfigApplication;
 import ro.ciubex.tkconfig.models.GpsContact;
+import ro.ciubex.tkconfig.sms.CircuitBreaker;
 import android.content.Context;
+import android.text.format.DateFormat;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
@@ -105,6 +107,8 @@ public class GpsContactListAdapter extends BaseAdapter {
 					.findViewById(R.id.contact_selected);
 			viewHolder.name = (TextView) view.findViewById(R.id.gps_name);
 			viewHolder.phone = (TextView) view.findViewById(R.id.gps_phone);
+			viewHolder.failures = (TextView) view
+					.findViewById(R.id.gps_failures);
 			view.setTag(viewHolder);
 		}
 		if (viewHolder != null) {
@@ -113,6 +117,7 @@ public class GpsContactListAdapter extends BaseAdapter {
 				viewHolder.selected.setChecked(contact.isSelected());
 				viewHolder.name.setText(contact.getName());
 				viewHolder.phone.setText(contact.getPhone());
+				prepareFailures(viewHolder.failures, contact);
 				viewHolder.selected.setOnClickListener(new OnClickListener() {
 					public void onClick(View v) {
 						CheckBox cb = (CheckBox) v;
@@ -125,6 +130,38 @@ public class GpsContactListAdapter extends BaseAdapter {
 		return view;
 	}
 
+	/**
+	 * Show the circuit breaker state of a GPS contact, only if there are
+	 * failed messages.
+	 * 
+	 * @param view
+	 *            The failures text view.
+	 * @param contact
+	 *            The GPS contact.
+	 */
+	private void prepareFailures(TextView view, GpsContact contact) {
+		int failures = contact.getFailures();
+		if (failures == 0) {
+			view.setVisibility(View.GONE);
+			return;
+		}
+		switch (CircuitBreaker.getState(contact, System.currentTimeMillis())) {
+		case CircuitBreaker.STATE_OPEN:
+			view.setText(application.getString(R.string.gps_contact_skipped,
+					DateFormat.getTimeFormat(application).format(
+							contact.getOpenUntil()), failures));
+			break;
+		case CircuitBreaker.STATE_HALF_OPEN:
+			view.setText(application.getString(R.string.gps_contact_probe,
+					failures));
+			break;
+		default:
+			view.setText(application.getString(R.string.gps_contact_failures,
+					failures));
+		}
+		view.setVisibility(View.VISIBLE);
+	}
+
 	/**
 	 * View holder for GPS contact item within the list.
 	 * 
@@ -133,6 +170,7 @@ public class GpsContactListAdapter extends BaseAdapter {
 		CheckBox selected;
 		TextView name;
 		TextView phone;
+		TextView failures;
 	}
 
 	/**
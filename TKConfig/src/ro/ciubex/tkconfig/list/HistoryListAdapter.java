@@ -22,6 +22,7 @@ import ro.ciubex.tkconfig.R;
 import ro.ciubex.tkconfig.TKConfigApplication;
 import ro.ciubex.tkconfig.models.History;
 import ro.ciubex.tkconfig.models.Utilities;
+import ro.ciubex.tkconfig.storage.PagedHistorySource;
 import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -30,7 +31,9 @@ import android.widget.BaseAdapter;
 import android.widget.TextView;
 
 /**
- * This adapter is used to populate the history list view.
+ * This adapter is used to populate the history list view. The history events
+ * are read page by page from a paged history source, so only the pages around
+ * the visible range are kept in memory.
  * 
  * @author Claudiu Ciobotariu
  * 
@@ -38,11 +41,30 @@ import android.widget.TextView;
 public class HistoryListAdapter extends BaseAdapter {
 	private LayoutInflater mInflater;
 	private TKConfigApplication application;
+	private PagedHistorySource mSource;
 
 	public HistoryListAdapter(Context context, TKConfigApplication application) {
 		mInflater = (LayoutInflater) context
 				.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 		this.application = application;
+		mSource = new PagedHistorySource(application.getHistoryStore());
+	}
+
+	/**
+	 * Drop the cached pages and notify the list view that the history store
+	 * was changed.
+	 */
+	public void reload() {
+		mSource.invalidate();
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * Release the paged history source, should be invoked when the adapter is
+	 * not used anymore.
+	 */
+	public void close() {
+		mSource.close();
 	}
 
 	/**
@@ -52,7 +74,7 @@ public class HistoryListAdapter extends BaseAdapter {
 	 */
 	@Override
 	public int getCount() {
-		return application.getHistories().size();
+		return mSource.getCount();
 	}
 
 	/**
@@ -64,17 +86,25 @@ public class HistoryListAdapter extends BaseAdapter {
 	 */
 	@Override
 	public Object getItem(int position) {
-		return position > -1 && position < getCount() ? application
-				.getHistories().get(position) : null;
+		return mSource.get(position);
 	}
 
 	/**
 	 * Get the item id associated with the specified position in the list. In
-	 * this case the position is also the id.
+	 * this case the id is the history store id.
 	 */
 	@Override
 	public long getItemId(int position) {
-		return position;
+		History history = mSource.get(position);
+		return history != null ? history.getId() : position;
+	}
+
+	/**
+	 * The item ids are the history store ids.
+	 */
+	@Override
+	public boolean hasStableIds() {
+		return true;
 	}
 
 	/**
@@ -0,0 +1,181 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.models;
+
+/**
+ * A command template with the shared parameters already rendered. Only the
+ * recipient parameters, like the GPS password, are left as slots, so the
+ * message for each recipient is obtained by copying the rendered text and
+ * inserting the recipient values, without looking again at the shared
+ * parameters. The rendering uses a per-thread character buffer, so the only
+ * allocation for a recipient is the rendered message.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public final class BoundTemplate {
+	private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>() {
+		@Override
+		protected char[] initialValue() {
+			return new char[160];
+		}
+	};
+
+	private final char[] text;
+	private final int[] offsets;
+	private final String[] slots;
+	private final String rendered;
+
+	/**
+	 * Render the shared parameters of a compiled template.
+	 * 
+	 * @param literals
+	 *            The template literal segments, one more than the slots.
+	 * @param slots
+	 *            The template parameters names.
+	 * @param shared
+	 *            The shared parameters values, a null value means that the
+	 *            parameter is a recipient parameter. Could be null if all the
+	 *            parameters are recipient parameters.
+	 */
+	BoundTemplate(String[] literals, String[] slots,
+			CommandTemplate.Values shared) {
+		StringBuilder sb = new StringBuilder();
+		int[] slotOffsets = new int[slots.length];
+		String[] slotNames = new String[slots.length];
+		int count = 0;
+		String value;
+		for (int i = 0; i < slots.length; i++) {
+			sb.append(literals[i]);
+			value = shared != null ? shared.getValue(slots[i]) : null;
+			if (value != null) {
+				sb.append(value);
+			} else {
+				slotOffsets[count] = sb.length();
+				slotNames[count] = slots[i];
+				count++;
+			}
+		}
+		sb.append(literals[slots.length]);
+		text = new char[sb.length()];
+		sb.getChars(0, text.length, text, 0);
+		offsets = new int[count];
+		System.arraycopy(slotOffsets, 0, offsets, 0, count);
+		this.slots = new String[count];
+		System.arraycopy(slotNames, 0, this.slots, 0, count);
+		rendered = count == 0 ? sb.toString() : null;
+	}
+
+	/**
+	 * Obtain the number of recipient parameters.
+	 * 
+	 * @return The number of recipient parameters.
+	 */
+	public int getSlots() {
+		return slots.length;
+	}
+
+	/**
+	 * Render the message for a recipient with one recipient parameter, e.g.
+	 * the GPS password. The other recipient parameters are kept.
+	 * 
+	 * @param parameter
+	 *            The parameter name.
+	 * @param value
+	 *            The parameter value, if it is null the parameter is kept.
+	 * @return The rendered message.
+	 */
+	public String render(String parameter, String value) {
+		if (rendered != null) {
+			return rendered;
+		}
+		int length = text.length;
+		for (String slot : slots) {
+			length += value != null && parameter.equals(slot) ? value.length()
+					: slot.length() + 2;
+		}
+		char[] buffer = getBuffer(length);
+		int position = 0;
+		int last = 0;
+		String slot;
+		for (int i = 0; i < slots.length; i++) {
+			position = copy(text, last, offsets[i], buffer, position);
+			last = offsets[i];
+			slot = slots[i];
+			if (value != null && parameter.equals(slot)) {
+				position = append(value, buffer, position);
+			} else {
+				buffer[position++] = '?';
+				position = append(slot, buffer, position);
+				buffer[position++] = '?';
+			}
+		}
+		position = copy(text, last, text.length, buffer, position);
+		return new String(buffer, 0, position);
+	}
+
+	/**
+	 * Render the message for a recipient.
+	 * 
+	 * @param values
+	 *            The recipient parameters values.
+	 * @return The rendered message.
+	 */
+	public String render(CommandTemplate.Values values) {
+		if (rendered != null) {
+			return rendered;
+		}
+		StringBuilder sb = new StringBuilder(text.length + 16 * slots.length);
+		int last = 0;
+		String value;
+		for (int i = 0; i < slots.length; i++) {
+			sb.append(text, last, offsets[i] - last);
+			last = offsets[i];
+			value = values.getValue(slots[i]);
+			if (value != null) {
+				sb.append(value);
+			} else {
+				sb.append('?').append(slots[i]).append('?');
+			}
+		}
+		sb.append(text, last, text.length - last);
+		return sb.toString();
+	}
+
+	private static char[] getBuffer(int length) {
+		char[] buffer = BUFFER.get();
+		if (buffer.length < length) {
+			buffer = new char[Math.max(length, buffer.length * 2)];
+			BUFFER.set(buffer);
+		}
+		return buffer;
+	}
+
+	private static int copy(char[] source, int start, int end, char[] buffer,
+			int position) {
+		int length = end - start;
+		System.arraycopy(source, start, buffer, position, length);
+		return position + length;
+	}
+
+	private static int append(String value, char[] buffer, int position) {
+		value.getChars(0, value.length(), buffer, position);
+		return position + value.length();
+	}
+}
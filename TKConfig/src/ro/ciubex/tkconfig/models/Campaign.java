@@ -0,0 +1,253 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.models;
+
+/**
+ * This class define a campaign, used to send one command to a large set of
+ * GPS contacts. The target contacts are stored when the campaign is created
+ * and are processed in waves, in the order of their store ID. After each wave
+ * the campaign progress is stored, so a campaign can be paused and resumed,
+ * also after the application is restarted.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class Campaign {
+	public static final int STATE_RUNNING = 1;
+	public static final int STATE_PAUSED = 2;
+	public static final int STATE_COMPLETED = 3;
+	public static final int STATE_CANCELLED = 4;
+
+	private long id = -1;
+	private String name;
+	private String command;
+	private int state;
+	private int total;
+	private int processed;
+	private int sent;
+	private int skipped;
+	private int duplicates;
+	private long lastContactId = -1;
+	private int waves;
+	private long elapsed;
+	private float waveRate;
+	private long created;
+	private long updated;
+
+	public Campaign(String name, String command) {
+		this.name = name;
+		this.command = command;
+		state = STATE_PAUSED;
+		created = System.currentTimeMillis();
+		updated = created;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Obtain the command sent by this campaign, with the parameters already
+	 * replaced. The GPS password is replaced for each target contact.
+	 * 
+	 * @return The campaign command.
+	 */
+	public String getCommand() {
+		return command;
+	}
+
+	public int getState() {
+		return state;
+	}
+
+	public void setState(int state) {
+		this.state = state;
+	}
+
+	/**
+	 * Check if the campaign reached a final state.
+	 * 
+	 * @return True if the campaign is completed or cancelled.
+	 */
+	public boolean isFinished() {
+		return state == STATE_COMPLETED || state == STATE_CANCELLED;
+	}
+
+	/**
+	 * Obtain the number of target contacts.
+	 * 
+	 * @return The number of target contacts.
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	public void setTotal(int total) {
+		this.total = total;
+	}
+
+	/**
+	 * Obtain the number of processed target contacts, sent or skipped.
+	 * 
+	 * @return The number of processed target contacts.
+	 */
+	public int getProcessed() {
+		return processed;
+	}
+
+	public void setProcessed(int processed) {
+		this.processed = processed;
+	}
+
+	public int getSent() {
+		return sent;
+	}
+
+	public void setSent(int sent) {
+		this.sent = sent;
+	}
+
+	/**
+	 * Obtain the number of target contacts skipped because of too many
+	 * failures.
+	 * 
+	 * @return The number of skipped target contacts.
+	 */
+	public int getSkipped() {
+		return skipped;
+	}
+
+	public void setSkipped(int skipped) {
+		this.skipped = skipped;
+	}
+
+	/**
+	 * Obtain the number of target contacts skipped because they received
+	 * recently the same command.
+	 * 
+	 * @return The number of duplicate target contacts.
+	 */
+	public int getDuplicates() {
+		return duplicates;
+	}
+
+	public void setDuplicates(int duplicates) {
+		this.duplicates = duplicates;
+	}
+
+	/**
+	 * Obtain the checkpoint of this campaign, the store ID of the last
+	 * processed target contact.
+	 * 
+	 * @return The ID of the last processed contact or -1 if the campaign was
+	 *         not started.
+	 */
+	public long getLastContactId() {
+		return lastContactId;
+	}
+
+	public void setLastContactId(long lastContactId) {
+		this.lastContactId = lastContactId;
+	}
+
+	public int getWaves() {
+		return waves;
+	}
+
+	public void setWaves(int waves) {
+		this.waves = waves;
+	}
+
+	/**
+	 * Obtain the time spent by the campaign in the running state, including
+	 * the pauses between waves.
+	 * 
+	 * @return The running time in milliseconds.
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
+
+	public void setElapsed(long elapsed) {
+		this.elapsed = elapsed;
+	}
+
+	/**
+	 * Obtain the throughput of the last wave.
+	 * 
+	 * @return The number of processed contacts per second.
+	 */
+	public float getWaveRate() {
+		return waveRate;
+	}
+
+	public void setWaveRate(float waveRate) {
+		this.waveRate = waveRate;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	public void setCreated(long created) {
+		this.created = created;
+	}
+
+	public long getUpdated() {
+		return updated;
+	}
+
+	public void setUpdated(long updated) {
+		this.updated = updated;
+	}
+
+	/**
+	 * Obtain the average throughput of the campaign, from the start.
+	 * 
+	 * @return The number of processed contacts per second.
+	 */
+	public float getRate() {
+		return elapsed > 0 ? processed * 1000f / elapsed : 0f;
+	}
+
+	/**
+	 * Estimate the time needed to process the remaining target contacts,
+	 * using the average throughput.
+	 * 
+	 * @return The estimated time in milliseconds or -1 if it can not be
+	 *         estimated yet.
+	 */
+	public long getEta() {
+		if (processed >= total) {
+			return 0;
+		}
+		if (processed == 0 || elapsed == 0) {
+			return -1;
+		}
+		return (long) ((total - processed) * (double) elapsed / processed);
+	}
+}
@@ -22,7 +22,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
 
 /**
  * Commands model class.
@@ -31,13 +30,15 @@ import java.util.regex.Matcher;
  * 
  */
 public class Command implements Comparable<Command> {
+	private long id = -1;
 	private String name;
 	private String command;
 	private String description;
-	private List<String> parameters;
+	private CommandTemplate template;
 	private Map<String, Parameter> availableParameters;
+	private Map<String, ParameterSchema> schemas;
 	private boolean parametersModified;
-	private int passwords;
+	private boolean urgent;
 
 	public Command(String name, String command) {
 		this(name, command, "");
@@ -47,10 +48,56 @@ public class Command implements Comparable<Command> {
 		this.name = name;
 		this.command = command;
 		this.description = description;
-		passwords = 0;
-		parameters = new ArrayList<String>();
-		availableParameters = new HashMap<String, Parameter>();
-		prepareParameters();
+	}
+
+	/**
+	 * Create a command with already parsed parameters, used when the
+	 * command is restored from the state snapshot.
+	 * 
+	 * @param name
+	 *            The command name.
+	 * @param command
+	 *            The command template.
+	 * @param description
+	 *            The command description.
+	 * @param parameters
+	 *            The parameters names, in the template order.
+	 */
+	public Command(String name, String command, String description,
+			List<String> parameters) {
+		this.name = name;
+		this.command = command;
+		this.description = description;
+		template = CommandTemplate.of(command, parameters);
+	}
+
+	/**
+	 * Create a command which share an already parsed template.
+	 */
+	private Command(String name, String description, CommandTemplate template) {
+		this.name = name;
+		this.command = template.getTemplate();
+		this.description = description;
+		this.template = template;
+	}
+
+	/**
+	 * Obtain the stable identifier used to store this command.
+	 * 
+	 * @return The command identifier, or -1 if the command was not stored.
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Set the stable identifier used to store this command.
+	 * 
+	 * @param id
+	 *            The command identifier.
+	 */
+	public void setId(long id) {
+		this.id = id;
 	}
 
 	public String getName() {
@@ -67,7 +114,8 @@ public class Command implements Comparable<Command> {
 
 	public void setCommand(String command) {
 		this.command = command;
-		prepareParameters();
+		template = null;
+		schemas = null;
 	}
 
 	public String getDescription() {
@@ -78,16 +126,32 @@ public class Command implements Comparable<Command> {
 		this.description = description;
 	}
 
-	public List<String> getParameters() {
-		return parameters;
+	/**
+	 * Obtain the parsed command template. The template is parsed on first
+	 * use, the parse result is shared with the other commands with the same
+	 * template.
+	 * 
+	 * @return The parsed command template.
+	 */
+	public CommandTemplate getTemplate() {
+		if (template == null) {
+			template = CommandTemplate.of(command);
+		}
+		return template;
 	}
 
-	public boolean addParameter(String parameter) {
-		return parameters.add(parameter);
+	/**
+	 * Obtain the parameters names.
+	 * 
+	 * @return An unmodifiable list of parameters names.
+	 */
+	public List<String> getParameters() {
+		return getTemplate().getParameters();
 	}
 
 	public boolean hasParameters() {
-		return parameters.size() - passwords > 0;
+		CommandTemplate t = getTemplate();
+		return t.getParameters().size() - t.getPasswords() > 0;
 	}
 
 	public boolean needParameters() {
@@ -103,6 +167,9 @@ public class Command implements Comparable<Command> {
 	 *            Parameter value.
 	 */
 	public void setParameterValue(String parameterName, String parameterValue) {
+		if (availableParameters == null) {
+			availableParameters = new HashMap<String, Parameter>();
+		}
 		Parameter p = availableParameters.get(parameterName);
 		parametersModified = true;
 		if (p == null) {
@@ -124,7 +191,8 @@ public class Command implements Comparable<Command> {
 	 */
 	public String getParameterValue(String parameterName) {
 		String result = null;
-		if (availableParameters.containsKey(parameterName)) {
+		if (availableParameters != null
+				&& availableParameters.containsKey(parameterName)) {
 			Parameter p = availableParameters.get(parameterName);
 			if (p != null) {
 				result = p.getValue();
@@ -133,6 +201,68 @@ public class Command implements Comparable<Command> {
 		return result;
 	}
 
+	/**
+	 * Obtain the schema of a parameter. The schemas of all command parameters
+	 * are resolved on first use and kept until the command template is
+	 * changed.
+	 * 
+	 * @param parameterName
+	 *            The parameter name.
+	 * @return The parameter schema or null if the parameter accepts any value.
+	 */
+	public ParameterSchema getParameterSchema(String parameterName) {
+		if (schemas == null) {
+			Map<String, ParameterSchema> map = new HashMap<String, ParameterSchema>();
+			ParameterSchema schema;
+			for (String parameter : getParameters()) {
+				schema = ParameterSchema.of(parameter);
+				if (schema != null) {
+					map.put(parameter, schema);
+				}
+			}
+			schemas = map;
+		}
+		return schemas.get(parameterName);
+	}
+
+	/**
+	 * Declare for this command a schema different than the default schema of
+	 * the parameter.
+	 * 
+	 * @param parameterName
+	 *            The parameter name.
+	 * @param schema
+	 *            The parameter schema.
+	 */
+	public void setParameterSchema(String parameterName, ParameterSchema schema) {
+		getParameterSchema(parameterName);
+		schemas.put(parameterName, schema);
+	}
+
+	/**
+	 * Validate the parameters values against the parameters schemas. The
+	 * password is not checked, because its value is specific to each GPS
+	 * contact.
+	 * 
+	 * @return The names of the parameters with invalid values, the list is
+	 *         empty if all values are valid.
+	 */
+	public List<String> getInvalidParameters() {
+		List<String> invalid = new ArrayList<String>();
+		ParameterSchema schema;
+		for (String parameter : getParameters()) {
+			if (!Constants.PASSWORD.equals(parameter)
+					&& !invalid.contains(parameter)) {
+				schema = getParameterSchema(parameter);
+				if (schema != null
+						&& !schema.isValid(getParameterValue(parameter))) {
+					invalid.add(parameter);
+				}
+			}
+		}
+		return invalid;
+	}
+
 	/**
 	 * Obtain a string list with the parameter names and the values.
 	 * 
@@ -143,7 +273,7 @@ public class Command implements Comparable<Command> {
 		StringBuilder sb = new StringBuilder("");
 		String temp;
 		int i = 1;
-		for (String paramName : parameters) {
+		for (String paramName : getParameters()) {
 			// skip if is the password
 			if (!Constants.PASSWORD.equals(paramName)) {
 				temp = getParameterValue(paramName);
@@ -164,43 +294,53 @@ public class Command implements Comparable<Command> {
 
 	/**
 	 * Get prepared SMS command, based on the parameters and associated values.
+	 * The parameters without values, like the password, are kept.
 	 * 
 	 * @return The SMS command to send.
 	 */
 	public String getSMSCommand() {
-		String smsText = command;
-		String temp;
-		if (hasParameters()) {
-			for (String param : parameters) {
-				temp = getParameterValue(param);
-				if (temp != null) {
-					smsText = smsText.replaceAll("\\?" + param + "\\?", temp);
-				}
-			}
+		if (!hasParameters()) {
+			return command;
 		}
-		return smsText;
+		return getTemplate().render(new CommandTemplate.Values() {
+			@Override
+			public String getValue(String parameter) {
+				return getParameterValue(parameter);
+			}
+		});
+	}
+
+	/**
+	 * Bind the command template with the parameters values. Only the password
+	 * is left to be rendered for each GPS contact, so the template is bound
+	 * once for a sending.
+	 * 
+	 * @return The bound SMS command.
+	 */
+	public BoundTemplate bindSMSCommand() {
+		return getTemplate().bind(new CommandTemplate.Values() {
+			@Override
+			public String getValue(String parameter) {
+				return Constants.PASSWORD.equals(parameter) ? null
+						: getParameterValue(parameter);
+			}
+		});
 	}
 
 	/**
 	 * Get prepared SMS command to be showed to the user, based on the
-	 * parameters and associated values.
+	 * parameters and associated values. The password is hidden.
 	 * 
 	 * @return The SMS command to be showed.
 	 */
 	public String getSMSCommandShow() {
-		String smsText = command;
-		String temp;
-		for (String param : parameters) {
-			if (Constants.PASSWORD.equals(param)) {
-				temp = Constants.STARS;
-			} else {
-				temp = getParameterValue(param);
-			}
-			if (temp != null) {
-				smsText = smsText.replaceAll("\\?" + param + "\\?", temp);
+		return getTemplate().render(new CommandTemplate.Values() {
+			@Override
+			public String getValue(String parameter) {
+				return Constants.PASSWORD.equals(parameter) ? Constants.STARS
+						: getParameterValue(parameter);
 			}
-		}
-		return smsText;
+		});
 	}
 
 	@Override
@@ -251,25 +391,6 @@ public class Command implements Comparable<Command> {
 		return n1 - n2;
 	}
 
-	/**
-	 * Prepare the parameters list.
-	 */
-	private void prepareParameters() {
-		Matcher m = Constants.PARAMETERS.matcher(command);
-		String temp;
-		passwords = 0;
-		if (parameters.size() > 0) {
-			parameters.clear();
-		}
-		while (m.find()) {
-			temp = Utilities.getParameterName(m.group());
-			if (Constants.PASSWORD.equals(temp)) {
-				passwords++;
-			}
-			parameters.add(temp);
-		}
-	}
-
 	/**
 	 * Obtain the parameter name based on the position in the list.
 	 * 
@@ -280,6 +401,7 @@ public class Command implements Comparable<Command> {
 	 */
 	public String getParameterName(int parameterPosition) {
 		String parameterName = null;
+		List<String> parameters = getParameters();
 		if (parameterPosition > -1 && parameterPosition < parameters.size()) {
 			parameterName = parameters.get(parameterPosition);
 		}
@@ -292,7 +414,7 @@ public class Command implements Comparable<Command> {
 	 * @return The number of parameters.
 	 */
 	public int getParametersSize() {
-		return parameters.size();
+		return getParameters().size();
 	}
 
 	/**
@@ -320,12 +442,34 @@ public class Command implements Comparable<Command> {
 	 * @return True if the command contain passwords.
 	 */
 	public boolean havePassword() {
-		return passwords > 0;
+		return getTemplate().getPasswords() > 0;
 	}
 
 	@Override
 	public Object clone() {
-		return new Command(name + " (2)", command, description);
+		Command copy = new Command(name + " (2)", description, getTemplate());
+		copy.setUrgent(urgent);
+		return copy;
+	}
+
+	/**
+	 * Check if the command should be sent on the urgent lane, before the bulk
+	 * commands, e.g. a command which stops an alarm.
+	 * 
+	 * @return True if the command is urgent.
+	 */
+	public boolean isUrgent() {
+		return urgent;
+	}
+
+	/**
+	 * Set the command priority.
+	 * 
+	 * @param urgent
+	 *            True if the command should be sent on the urgent lane.
+	 */
+	public void setUrgent(boolean urgent) {
+		this.urgent = urgent;
 	}
 
 	/**
@@ -337,7 +481,7 @@ public class Command implements Comparable<Command> {
 	 */
 	public int getParameterPosition(String parameterName) {
 		int k = 0;
-		for (String parameter : parameters) {
+		for (String parameter : getParameters()) {
 			if (parameter.equals(parameterName)) {
 				return k;
 			}
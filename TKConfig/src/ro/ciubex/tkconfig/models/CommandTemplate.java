@@ -0,0 +1,310 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable parse result of a command template: the parameters names in the
+ * template order and the number of password parameters. The template is
+ * compiled once into literal and parameter segments, so a message is rendered
+ * in a single pass, without regular expressions, and the parameter values are
+ * copied as they are. The parse results are shared through a cache keyed by
+ * the template string, so the commands with the same template use the same
+ * instance.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public final class CommandTemplate {
+	private static final int CACHE_SIZE = 4096;
+
+	private static final Map<String, CommandTemplate> CACHE = new LinkedHashMap<String, CommandTemplate>(
+			64, 0.75f, true) {
+		private static final long serialVersionUID = 4203372712590180543L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, CommandTemplate> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(160);
+		}
+	};
+
+	/**
+	 * The parameters values used to render a template.
+	 */
+	public interface Values {
+
+		/**
+		 * Obtain the value of a parameter.
+		 * 
+		 * @param parameter
+		 *            The parameter name.
+		 * @return The parameter value or null to keep the parameter on the
+		 *         rendered message.
+		 */
+		public String getValue(String parameter);
+	}
+
+	private final String template;
+	private final List<String> parameters;
+	private final int passwords;
+	private final String[] literals;
+	private final String[] slots;
+	private final int literalsLength;
+	private volatile BoundTemplate unbound;
+
+	private CommandTemplate(String template, List<String> parameters) {
+		this.template = template;
+		List<String> literalList = new ArrayList<String>();
+		List<String> slotList = new ArrayList<String>();
+		compile(template, literalList, slotList);
+		literals = literalList.toArray(new String[literalList.size()]);
+		slots = slotList.toArray(new String[slotList.size()]);
+		int length = 0;
+		for (String literal : literals) {
+			length += literal.length();
+		}
+		literalsLength = length;
+		this.parameters = Collections.unmodifiableList(parameters != null ? parameters
+				: slotList);
+		int count = 0;
+		for (String parameter : this.parameters) {
+			if (Constants.PASSWORD.equals(parameter)) {
+				count++;
+			}
+		}
+		passwords = count;
+	}
+
+	/**
+	 * Obtain the parse result of a template, from the cache or by parsing
+	 * the template.
+	 * 
+	 * @param template
+	 *            The command template.
+	 * @return The parsed template.
+	 */
+	public static CommandTemplate of(String template) {
+		String key = template != null ? template : "";
+		synchronized (CACHE) {
+			CommandTemplate result = CACHE.get(key);
+			if (result == null) {
+				result = new CommandTemplate(key, null);
+				CACHE.put(key, result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Parse a template without caching it. Used for the messages which are
+	 * already rendered, like the command stored on a campaign, to not evict
+	 * the commands templates from the cache.
+	 * 
+	 * @param template
+	 *            The message template.
+	 * @return The parsed template.
+	 */
+	public static CommandTemplate parse(String template) {
+		return new CommandTemplate(template != null ? template : "", null);
+	}
+
+	/**
+	 * Obtain the parse result of a template with already known parameters.
+	 * If the template is not cached, the parameters are used without parsing
+	 * the template.
+	 * 
+	 * @param template
+	 *            The command template.
+	 * @param parameters
+	 *            The parameters names, in the template order.
+	 * @return The parsed template.
+	 */
+	public static CommandTemplate of(String template, List<String> parameters) {
+		String key = template != null ? template : "";
+		synchronized (CACHE) {
+			CommandTemplate result = CACHE.get(key);
+			if (result == null) {
+				result = new CommandTemplate(key, parameters);
+				CACHE.put(key, result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Split the template into literal and parameter segments. A parameter is
+	 * a name of letters, digits, '_' or '-' between two '?' signs, the same as
+	 * {@link Constants#PARAMETERS}. The literals list has always one element
+	 * more than the parameters list.
+	 * 
+	 * @param template
+	 *            The command template.
+	 * @param literals
+	 *            The list where are added the literal segments.
+	 * @param slots
+	 *            The list where are added the parameters names.
+	 */
+	private static void compile(String template, List<String> literals,
+			List<String> slots) {
+		int length = template.length();
+		int start = 0;
+		int i = template.indexOf('?');
+		int j;
+		while (i > -1 && i < length - 1) {
+			j = i + 1;
+			while (j < length && isNameChar(template.charAt(j))) {
+				j++;
+			}
+			if (j > i + 1 && j < length && template.charAt(j) == '?') {
+				literals.add(template.substring(start, i));
+				slots.add(template.substring(i + 1, j));
+				start = j + 1;
+				i = template.indexOf('?', start);
+			} else {
+				i = template.indexOf('?', i + 1);
+			}
+		}
+		literals.add(template.substring(start));
+	}
+
+	private static boolean isNameChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+				|| (c >= '0' && c <= '9') || c == '_' || c == '-';
+	}
+
+	/**
+	 * Render the template, replacing the parameters with their values.
+	 * 
+	 * @param values
+	 *            The parameters values.
+	 * @return The rendered message.
+	 */
+	public String render(Values values) {
+		if (slots.length == 0) {
+			return template;
+		}
+		StringBuilder sb = BUFFER.get();
+		sb.setLength(0);
+		render(sb, values);
+		return sb.toString();
+	}
+
+	/**
+	 * Render the template, replacing only one parameter. This is used to set
+	 * the GPS password for each contact.
+	 * 
+	 * @param parameter
+	 *            The parameter name.
+	 * @param value
+	 *            The parameter value, if it is null the parameter is kept.
+	 * @return The rendered message.
+	 */
+	public String render(String parameter, String value) {
+		if (value == null || !parameters.contains(parameter)) {
+			return template;
+		}
+		return bind().render(parameter, value);
+	}
+
+	/**
+	 * Obtain the template with all the parameters left as recipient
+	 * parameters, used when the shared parameters are already rendered into
+	 * the template, e.g. for the message of a multi-tracker send.
+	 * 
+	 * @return The bound template, shared by all callers.
+	 */
+	public BoundTemplate bind() {
+		BoundTemplate result = unbound;
+		if (result == null) {
+			result = new BoundTemplate(literals, slots, null);
+			unbound = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Render the shared parameters, the parameters without a shared value are
+	 * left to be rendered for each recipient.
+	 * 
+	 * @param shared
+	 *            The shared parameters values.
+	 * @return The bound template.
+	 */
+	public BoundTemplate bind(Values shared) {
+		return new BoundTemplate(literals, slots, shared);
+	}
+
+	/**
+	 * Append the rendered template to a buffer.
+	 * 
+	 * @param sb
+	 *            The buffer where is appended the rendered message.
+	 * @param values
+	 *            The parameters values.
+	 */
+	public void render(StringBuilder sb, Values values) {
+		sb.ensureCapacity(sb.length() + literalsLength + 16 * slots.length);
+		String value;
+		for (int i = 0; i < slots.length; i++) {
+			sb.append(literals[i]);
+			value = values.getValue(slots[i]);
+			if (value != null) {
+				sb.append(value);
+			} else {
+				sb.append('?').append(slots[i]).append('?');
+			}
+		}
+		sb.append(literals[slots.length]);
+	}
+
+	public String getTemplate() {
+		return template;
+	}
+
+	/**
+	 * Obtain the parameters names, in the template order.
+	 * 
+	 * @return An unmodifiable list of parameters names.
+	 */
+	public List<String> getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * Obtain the number of password parameters.
+	 * 
+	 * @return The number of password parameters.
+	 */
+	public int getPasswords() {
+		return passwords;
+	}
+}
@@ -29,10 +29,14 @@ import java.io.Serializable;
  */
 public class GpsContact implements Serializable {
 	private static final long serialVersionUID = 7654342853405113225L;
+	private long id = -1;
 	private String name;
 	private String phone;
 	private String password;
 	private boolean selected;
+	private boolean modified;
+	private int failures;
+	private long openUntil;
 
 	public GpsContact() {
 		this("", "", "", false);
@@ -43,6 +47,45 @@ public class GpsContact implements Serializable {
 		this.phone = phone;
 		this.password = password;
 		this.selected = selected;
+		modified = true;
+	}
+
+	/**
+	 * Obtain the identifier of this contact on the GPS contacts store.
+	 * 
+	 * @return The contact identifier, or -1 if the contact was not stored.
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Set the identifier of this contact on the GPS contacts store.
+	 * 
+	 * @param id
+	 *            The contact identifier.
+	 */
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	/**
+	 * Check if the contact was changed since was stored.
+	 * 
+	 * @return True if the contact should be stored.
+	 */
+	public boolean isModified() {
+		return modified;
+	}
+
+	/**
+	 * Set the modified flag.
+	 * 
+	 * @param modified
+	 *            The modified flag value.
+	 */
+	public void setModified(boolean modified) {
+		this.modified = modified;
 	}
 
 	public String getName() {
@@ -51,6 +94,7 @@ public class GpsContact implements Serializable {
 
 	public void setName(String name) {
 		this.name = name;
+		modified = true;
 	}
 
 	public String getPhone() {
@@ -59,6 +103,7 @@ public class GpsContact implements Serializable {
 
 	public void setPhone(String phone) {
 		this.phone = phone;
+		modified = true;
 	}
 
 	public boolean isSelected() {
@@ -66,7 +111,10 @@ public class GpsContact implements Serializable {
 	}
 
 	public void setSelected(boolean selected) {
-		this.selected = selected;
+		if (this.selected != selected) {
+			this.selected = selected;
+			modified = true;
+		}
 	}
 	
 	public String getPassword() {
@@ -75,6 +123,33 @@ public class GpsContact implements Serializable {
 
 	public void setPassword(String password) {
 		this.password = password;
+		modified = true;
+	}
+
+	/**
+	 * Obtain the number of consecutive failed messages sent to this contact.
+	 * 
+	 * @return The number of consecutive failures.
+	 */
+	public int getFailures() {
+		return failures;
+	}
+
+	public void setFailures(int failures) {
+		this.failures = failures;
+	}
+
+	/**
+	 * Obtain the time until the messages to this contact are skipped.
+	 * 
+	 * @return The time in milliseconds or 0 if the contact is not skipped.
+	 */
+	public long getOpenUntil() {
+		return openUntil;
+	}
+
+	public void setOpenUntil(long openUntil) {
+		this.openUntil = openUntil;
 	}
 
 	@Override
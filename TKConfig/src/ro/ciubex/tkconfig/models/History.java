@@ -25,20 +25,35 @@ package ro.ciubex.tkconfig.models;
  * 
  */
 public class History {
+	private long id;
 	private long dateTime;
 	private String phoneNumber;
 	private String smsCommand;
+	private String carrier;
+	private long sentTime;
+	private int sentResult;
+	private long deliveredTime;
+	private int deliveryStatus = -1;
 	
 	public History(String phoneNumber, String smsCommand) {
 		this(System.currentTimeMillis(), phoneNumber, smsCommand);
 	}
 	
 	public History(long dateTime, String phoneNumber, String smsCommand) {
+		this.id = -1;
 		this.dateTime = dateTime;
 		this.phoneNumber = phoneNumber;
 		this.smsCommand = smsCommand;
 	}
 
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
 	public long getDateTime() {
 		return dateTime;
 	}
@@ -51,6 +66,56 @@ public class History {
 		return smsCommand;
 	}
 
+	public String getCarrier() {
+		return carrier;
+	}
+
+	public void setCarrier(String carrier) {
+		this.carrier = carrier;
+	}
+
+	public long getSentTime() {
+		return sentTime;
+	}
+
+	public int getSentResult() {
+		return sentResult;
+	}
+
+	/**
+	 * Store the sent report of the SMS.
+	 * 
+	 * @param sentTime
+	 *            The time when the sent report was received.
+	 * @param sentResult
+	 *            The result code of the sent report.
+	 */
+	public void setSent(long sentTime, int sentResult) {
+		this.sentTime = sentTime;
+		this.sentResult = sentResult;
+	}
+
+	public long getDeliveredTime() {
+		return deliveredTime;
+	}
+
+	public int getDeliveryStatus() {
+		return deliveryStatus;
+	}
+
+	/**
+	 * Store the delivery report of the SMS.
+	 * 
+	 * @param deliveredTime
+	 *            The time when the delivery report was received.
+	 * @param deliveryStatus
+	 *            The status of the delivery report.
+	 */
+	public void setDelivered(long deliveredTime, int deliveryStatus) {
+		this.deliveredTime = deliveredTime;
+		this.deliveryStatus = deliveryStatus;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
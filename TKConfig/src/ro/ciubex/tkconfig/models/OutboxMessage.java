@@ -0,0 +1,128 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.models;
+
+/**
+ * This class define a message from the SMS outbox. A message is stored on the
+ * outbox before it is sent and then passes through the states: queued,
+ * sending, sent or failed and delivered.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class OutboxMessage {
+	public static final int STATE_QUEUED = 0;
+	public static final int STATE_SENDING = 1;
+	public static final int STATE_SENT = 2;
+	public static final int STATE_DELIVERED = 3;
+	public static final int STATE_FAILED = 4;
+	public static final int RESULT_CANCELLED = -1;
+
+	private long id;
+	private String phoneNumber;
+	private String message;
+	private int state;
+	private long created;
+	private long updated;
+	private int resultCode;
+	private int retries;
+
+	public OutboxMessage(String phoneNumber, String message) {
+		this(-1, phoneNumber, message, STATE_QUEUED, System
+				.currentTimeMillis(), 0);
+	}
+
+	public OutboxMessage(long id, String phoneNumber, String message,
+			int state, long created, long updated) {
+		this.id = id;
+		this.phoneNumber = phoneNumber;
+		this.message = message;
+		this.state = state;
+		this.created = created;
+		this.updated = updated > 0 ? updated : created;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public String getPhoneNumber() {
+		return phoneNumber;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public int getState() {
+		return state;
+	}
+
+	public void setState(int state) {
+		this.state = state;
+		this.updated = System.currentTimeMillis();
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	public long getUpdated() {
+		return updated;
+	}
+
+	public int getResultCode() {
+		return resultCode;
+	}
+
+	public void setResultCode(int resultCode) {
+		this.resultCode = resultCode;
+	}
+
+	public int getRetries() {
+		return retries;
+	}
+
+	public void setRetries(int retries) {
+		this.retries = retries;
+	}
+
+	/**
+	 * Check if the message was not yet handed to the SMS manager.
+	 * 
+	 * @return True if the message is still queued.
+	 */
+	public boolean isPending() {
+		return state == STATE_QUEUED;
+	}
+
+	/**
+	 * Check if the message reached a final state.
+	 * 
+	 * @return True if the message was sent, delivered or failed.
+	 */
+	public boolean isFinished() {
+		return state == STATE_SENT || state == STATE_DELIVERED
+				|| state == STATE_FAILED;
+	}
+}
@@ -0,0 +1,297 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.models;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ro.ciubex.tkconfig.R;
+import android.content.Context;
+
+/**
+ * Define the accepted values of a command parameter. Each schema is compiled
+ * into a validator which scans the value characters once, without regular
+ * expressions, so a value can be checked for each recipient of a large send.
+ * The default schemas are declared by parameter name, the command packs can
+ * declare other schemas for the parameters of a tracker model or of a single
+ * command.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public abstract class ParameterSchema {
+	private static final Map<String, ParameterSchema> SCHEMAS = new HashMap<String, ParameterSchema>();
+
+	static {
+		ParameterSchema password = token(16);
+		ParameterSchema phone = phone();
+		SCHEMAS.put(Constants.PASSWORD, password);
+		SCHEMAS.put("new-password", password);
+		SCHEMAS.put("admin-phone", phone);
+		SCHEMAS.put("phone-number", phone);
+		SCHEMAS.put("interval", fixedInteger(3, 20, 999));
+		SCHEMAS.put("speed", fixedInteger(3, 1, 999));
+		SCHEMAS.put("sensitive", integer(1, 10));
+		SCHEMAS.put("distance", integer(50, 5999));
+		SCHEMAS.put("server-ip", ipAddress());
+		SCHEMAS.put("server-port", integer(1, 65535));
+		SCHEMAS.put("latitudeNS", coordinate(90, 'N', 'S'));
+		SCHEMAS.put("longitudeEW", coordinate(180, 'E', 'W'));
+		SCHEMAS.put("apn-name", token(64));
+	}
+
+	/**
+	 * Obtain the schema declared for a parameter.
+	 * 
+	 * @param parameter
+	 *            The parameter name.
+	 * @return The parameter schema or null if the parameter accepts any value.
+	 */
+	public static ParameterSchema of(String parameter) {
+		return SCHEMAS.get(parameter);
+	}
+
+	/**
+	 * Check if a value is accepted by this schema.
+	 * 
+	 * @param value
+	 *            The parameter value.
+	 * @return True if the value is valid.
+	 */
+	public boolean isValid(String value) {
+		return value != null && value.length() > 0 && check(value);
+	}
+
+	/**
+	 * Check a not empty value.
+	 */
+	protected abstract boolean check(String value);
+
+	/**
+	 * Describe the accepted values, used on the validation messages.
+	 * 
+	 * @param context
+	 *            The context used to obtain the strings.
+	 * @return The description of the accepted values.
+	 */
+	public abstract String getHint(Context context);
+
+	/**
+	 * Parse the digits from a range of a value.
+	 * 
+	 * @return The parsed number or -1 if there are other characters than
+	 *         digits or the range is empty or too long.
+	 */
+	private static long parseDigits(String value, int start, int end) {
+		if (start >= end || end - start > 9) {
+			return -1;
+		}
+		long result = 0;
+		char c;
+		for (int i = start; i < end; i++) {
+			c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+
+	/**
+	 * A number between two limits.
+	 */
+	public static ParameterSchema integer(final int min, final int max) {
+		return new ParameterSchema() {
+			@Override
+			protected boolean check(String value) {
+				long number = parseDigits(value, 0, value.length());
+				return number >= min && number <= max;
+			}
+
+			@Override
+			public String getHint(Context context) {
+				return context.getString(R.string.schema_integer, min, max);
+			}
+		};
+	}
+
+	/**
+	 * A number with a fixed number of digits, padded with zeros.
+	 */
+	public static ParameterSchema fixedInteger(final int width, final int min,
+			final int max) {
+		return new ParameterSchema() {
+			@Override
+			protected boolean check(String value) {
+				if (value.length() != width) {
+					return false;
+				}
+				long number = parseDigits(value, 0, width);
+				return number >= min && number <= max;
+			}
+
+			@Override
+			public String getHint(Context context) {
+				return context.getString(R.string.schema_fixed_integer, width,
+						pad(min), pad(max));
+			}
+
+			private String pad(int number) {
+				StringBuilder sb = new StringBuilder(String.valueOf(number));
+				while (sb.length() < width) {
+					sb.insert(0, '0');
+				}
+				return sb.toString();
+			}
+		};
+	}
+
+	/**
+	 * A phone number, digits with an optional leading '+'.
+	 */
+	public static ParameterSchema phone() {
+		return new ParameterSchema() {
+			@Override
+			protected boolean check(String value) {
+				int start = value.charAt(0) == '+' ? 1 : 0;
+				int length = value.length() - start;
+				if (length < 3 || length > 20) {
+					return false;
+				}
+				char c;
+				for (int i = start; i < value.length(); i++) {
+					c = value.charAt(i);
+					if (c < '0' || c > '9') {
+						return false;
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public String getHint(Context context) {
+				return context.getString(R.string.schema_phone);
+			}
+		};
+	}
+
+	/**
+	 * An IPv4 address, four numbers from 0 to 255 separated by dots.
+	 */
+	public static ParameterSchema ipAddress() {
+		return new ParameterSchema() {
+			@Override
+			protected boolean check(String value) {
+				int start = 0;
+				int end;
+				for (int part = 0; part < 4; part++) {
+					end = value.indexOf('.', start);
+					if (end < 0) {
+						end = value.length();
+					}
+					if ((part < 3) == (end == value.length())
+							|| end - start > 3) {
+						return false;
+					}
+					long number = parseDigits(value, start, end);
+					if (number < 0 || number > 255) {
+						return false;
+					}
+					start = end + 1;
+				}
+				return true;
+			}
+
+			@Override
+			public String getHint(Context context) {
+				return context.getString(R.string.schema_ip_address);
+			}
+		};
+	}
+
+	/**
+	 * A coordinate in decimal degrees, with an optional sign or with the
+	 * hemisphere letter before or after the number, e.g. 22.2233N.
+	 */
+	public static ParameterSchema coordinate(final int max,
+			final char positive, final char negative) {
+		return new ParameterSchema() {
+			@Override
+			protected boolean check(String value) {
+				int start = 0;
+				int end = value.length();
+				char first = Character.toUpperCase(value.charAt(0));
+				char last = Character.toUpperCase(value.charAt(end - 1));
+				if (first == positive || first == negative || first == '-'
+						|| first == '+') {
+					start++;
+				} else if (last == positive || last == negative) {
+					end--;
+				}
+				int dot = value.indexOf('.', start);
+				if (dot < 0 || dot >= end) {
+					dot = end;
+				}
+				long degrees = parseDigits(value, start, dot);
+				if (degrees < 0 || degrees > max) {
+					return false;
+				}
+				if (dot < end) {
+					long fraction = parseDigits(value, dot + 1, end);
+					if (fraction < 0 || (degrees == max && fraction > 0)) {
+						return false;
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public String getHint(Context context) {
+				return context.getString(R.string.schema_coordinate, max,
+						positive, negative);
+			}
+		};
+	}
+
+	/**
+	 * A text without spaces, e.g. a password or an APN name.
+	 */
+	public static ParameterSchema token(final int maxLength) {
+		return new ParameterSchema() {
+			@Override
+			protected boolean check(String value) {
+				if (value.length() > maxLength) {
+					return false;
+				}
+				for (int i = 0; i < value.length(); i++) {
+					if (value.charAt(i) <= ' ' || value.charAt(i) == '?') {
+						return false;
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public String getHint(Context context) {
+				return context.getString(R.string.schema_token, maxLength);
+			}
+		};
+	}
+}
@@ -0,0 +1,362 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.models;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Sorted list of commands, ordered by {@link Command#compareTo(Command)}. The
+ * commands are kept in a balanced (AVL) tree where each node knows its subtree
+ * size, so the positional access, the single insertions and the removals are
+ * done in logarithmic time. A bulk load sorts the commands once and builds
+ * the tree in linear time.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class SortedCommandList extends AbstractList<Command> {
+
+	private static class Node {
+		Command value;
+		Node left;
+		Node right;
+		int height = 1;
+		int size = 1;
+
+		Node(Command value) {
+			this.value = value;
+		}
+	}
+
+	private Node root;
+
+	@Override
+	public int size() {
+		return size(root);
+	}
+
+	/**
+	 * Obtain the command from the specified position.
+	 * 
+	 * @param index
+	 *            The position of the command.
+	 * @return The command from the position.
+	 */
+	@Override
+	public Command get(int index) {
+		checkIndex(index);
+		Node node = root;
+		int leftSize;
+		while (true) {
+			leftSize = size(node.left);
+			if (index < leftSize) {
+				node = node.left;
+			} else if (index > leftSize) {
+				index -= leftSize + 1;
+				node = node.right;
+			} else {
+				return node.value;
+			}
+		}
+	}
+
+	/**
+	 * Insert a command on its sorted position. A command equal by order with
+	 * existing commands is placed after them.
+	 * 
+	 * @param command
+	 *            The command to be added.
+	 * @return Always will be returned true.
+	 */
+	@Override
+	public boolean add(Command command) {
+		root = insert(root, command);
+		modCount++;
+		return true;
+	}
+
+	/**
+	 * Add all commands from the collection. The existing and the new commands
+	 * are sorted once and the tree is rebuilt.
+	 * 
+	 * @param collection
+	 *            The commands to be added.
+	 * @return True if the list was changed.
+	 */
+	@Override
+	public boolean addAll(Collection<? extends Command> collection) {
+		if (collection.isEmpty()) {
+			return false;
+		}
+		List<Command> all = new ArrayList<Command>(size() + collection.size());
+		all.addAll(this);
+		all.addAll(collection);
+		Collections.sort(all);
+		root = build(all, 0, all.size() - 1);
+		modCount++;
+		return true;
+	}
+
+	/**
+	 * Remove the command from the specified position.
+	 * 
+	 * @param index
+	 *            The position of the command to be removed.
+	 * @return The removed command.
+	 */
+	@Override
+	public Command remove(int index) {
+		Command command = get(index);
+		root = removeAt(root, index);
+		modCount++;
+		return command;
+	}
+
+	/**
+	 * Remove the specified command instance.
+	 * 
+	 * @param object
+	 *            The command to be removed.
+	 * @return True if the command was found and removed.
+	 */
+	@Override
+	public boolean remove(Object object) {
+		int index = indexOf(object);
+		if (index < 0) {
+			return false;
+		}
+		remove(index);
+		return true;
+	}
+
+	/**
+	 * Obtain the position of the specified command instance. Only the commands
+	 * equal by order are checked, so the command should not be renamed while
+	 * it is on the list.
+	 * 
+	 * @param object
+	 *            The command to be searched.
+	 * @return The position of the command or -1 if it is not on the list.
+	 */
+	@Override
+	public int indexOf(Object object) {
+		if (!(object instanceof Command)) {
+			return -1;
+		}
+		Command command = (Command) object;
+		int index = lowerBound(command);
+		int size = size();
+		Command item;
+		for (int i = index; i < size; i++) {
+			item = get(i);
+			if (item.compareTo(command) != 0) {
+				break;
+			}
+			if (item == command) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public boolean contains(Object object) {
+		return indexOf(object) > -1;
+	}
+
+	@Override
+	public void clear() {
+		root = null;
+		modCount++;
+	}
+
+	/**
+	 * Iterate the commands in order, without the positional lookup of each
+	 * command.
+	 */
+	@Override
+	public Iterator<Command> iterator() {
+		return new Iterator<Command>() {
+			private final List<Node> stack = new ArrayList<Node>();
+			private final int expectedModCount = modCount;
+
+			{
+				pushLeft(root);
+			}
+
+			private void pushLeft(Node node) {
+				while (node != null) {
+					stack.add(node);
+					node = node.left;
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				return !stack.isEmpty();
+			}
+
+			@Override
+			public Command next() {
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				if (stack.isEmpty()) {
+					throw new NoSuchElementException();
+				}
+				Node node = stack.remove(stack.size() - 1);
+				pushLeft(node.right);
+				return node.value;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Obtain the position of the first command which is not lower than the
+	 * specified command.
+	 */
+	private int lowerBound(Command command) {
+		Node node = root;
+		int index = 0;
+		while (node != null) {
+			if (node.value.compareTo(command) < 0) {
+				index += size(node.left) + 1;
+				node = node.right;
+			} else {
+				node = node.left;
+			}
+		}
+		return index;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ size());
+		}
+	}
+
+	private static int size(Node node) {
+		return node != null ? node.size : 0;
+	}
+
+	private static int height(Node node) {
+		return node != null ? node.height : 0;
+	}
+
+	private static void update(Node node) {
+		node.height = Math.max(height(node.left), height(node.right)) + 1;
+		node.size = size(node.left) + size(node.right) + 1;
+	}
+
+	private static Node rotateRight(Node node) {
+		Node left = node.left;
+		node.left = left.right;
+		left.right = node;
+		update(node);
+		update(left);
+		return left;
+	}
+
+	private static Node rotateLeft(Node node) {
+		Node right = node.right;
+		node.right = right.left;
+		right.left = node;
+		update(node);
+		update(right);
+		return right;
+	}
+
+	private static Node balance(Node node) {
+		update(node);
+		int factor = height(node.left) - height(node.right);
+		if (factor > 1) {
+			if (height(node.left.left) < height(node.left.right)) {
+				node.left = rotateLeft(node.left);
+			}
+			return rotateRight(node);
+		}
+		if (factor < -1) {
+			if (height(node.right.right) < height(node.right.left)) {
+				node.right = rotateRight(node.right);
+			}
+			return rotateLeft(node);
+		}
+		return node;
+	}
+
+	private static Node insert(Node node, Command command) {
+		if (node == null) {
+			return new Node(command);
+		}
+		if (command.compareTo(node.value) < 0) {
+			node.left = insert(node.left, command);
+		} else {
+			node.right = insert(node.right, command);
+		}
+		return balance(node);
+	}
+
+	private static Node removeAt(Node node, int index) {
+		int leftSize = size(node.left);
+		if (index < leftSize) {
+			node.left = removeAt(node.left, index);
+		} else if (index > leftSize) {
+			node.right = removeAt(node.right, index - leftSize - 1);
+		} else {
+			if (node.left == null) {
+				return node.right;
+			}
+			if (node.right == null) {
+				return node.left;
+			}
+			Node successor = node.right;
+			while (successor.left != null) {
+				successor = successor.left;
+			}
+			node.value = successor.value;
+			node.right = removeAt(node.right, 0);
+		}
+		return balance(node);
+	}
+
+	private static Node build(List<Command> sorted, int low, int high) {
+		if (low > high) {
+			return null;
+		}
+		int middle = (low + high) >>> 1;
+		Node node = new Node(sorted.get(middle));
+		node.left = build(sorted, low, middle - 1);
+		node.right = build(sorted, middle + 1, high);
+		update(node);
+		return node;
+	}
+}
@@ -52,6 +52,37 @@ public class Utilities {
 		return parameterName;
 	}
 
+	/**
+	 * Normalize a phone number to be used as lookup key: all the characters
+	 * other than digits are removed, the international prefix 00 is replaced
+	 * by + and the leading + is kept.
+	 * 
+	 * @param phoneNumber
+	 *            The phone number to be normalized.
+	 * @return The normalized phone number.
+	 */
+	public static String normalizePhoneNumber(String phoneNumber) {
+		if (phoneNumber == null) {
+			return "";
+		}
+		String number = phoneNumber.trim();
+		StringBuilder sb = new StringBuilder(number.length());
+		if (number.startsWith("+")) {
+			sb.append('+');
+		} else if (number.startsWith("00")) {
+			sb.append('+');
+			number = number.substring(2);
+		}
+		char c;
+		for (int i = 0; i < number.length(); i++) {
+			c = number.charAt(i);
+			if (c >= '0' && c <= '9') {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
 	/**
 	 * Format the date time information into a human readable format.
 	 * 
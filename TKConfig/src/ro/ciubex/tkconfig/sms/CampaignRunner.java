@@ -0,0 +1,479 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.sms;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ro.ciubex.tkconfig.TKConfigApplication;
+import ro.ciubex.tkconfig.models.BoundTemplate;
+import ro.ciubex.tkconfig.models.Campaign;
+import ro.ciubex.tkconfig.models.CommandTemplate;
+import ro.ciubex.tkconfig.models.GpsContact;
+import ro.ciubex.tkconfig.models.OutboxMessage;
+import ro.ciubex.tkconfig.storage.CampaignStore;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Runner for the campaigns. The campaigns are executed one after another on
+ * a background thread. The target contacts of a campaign are processed in
+ * waves: each wave is queued on the outbox and the campaign checkpoint is
+ * moved after the wave in the same transaction, then the messages are sent
+ * using the bulk tokens of the SMS rate limiter. If the process is stopped in
+ * the middle of a wave, the queued messages are sent by the outbox resume
+ * and the campaign continues with the next wave. Between the waves there is
+ * a short pause, so the delivery reports of a wave can open the circuit
+ * breakers before the next wave.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class CampaignRunner {
+	private final static String TAG = CampaignRunner.class.getName();
+	public static final int WAVE_SIZE = 50;
+	public static final long WAVE_PAUSE = 5000;
+
+	/**
+	 * The listener is informed on the runner thread about the campaign
+	 * progress.
+	 */
+	public interface Listener {
+		public void onCampaignProgress(Campaign campaign);
+	}
+
+	private final TKConfigApplication mApplication;
+	private final CampaignStore mStore;
+	private final Handler mHandler;
+	private final Map<Long, Integer> mStopRequests = new HashMap<Long, Integer>();
+	private long mCurrentId = -1;
+	private long mMark;
+	private volatile Listener mListener;
+
+	public CampaignRunner(TKConfigApplication application, CampaignStore store) {
+		mApplication = application;
+		mStore = store;
+		HandlerThread thread = new HandlerThread(TAG,
+				Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		mHandler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Set the listener informed about the campaign progress.
+	 * 
+	 * @param listener
+	 *            The listener or null to remove the current listener.
+	 */
+	public void setListener(Listener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Schedule a running campaign to be executed.
+	 * 
+	 * @param campaignId
+	 *            The campaign ID.
+	 */
+	public void start(final long campaignId) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				runCampaign(campaignId);
+			}
+		});
+	}
+
+	/**
+	 * Schedule all the running campaigns, e.g. the campaigns interrupted by
+	 * the process death.
+	 */
+	public void resumeRunning() {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				List<Campaign> campaigns = mStore.load(Campaign.STATE_RUNNING);
+				if (!campaigns.isEmpty()) {
+					Log.i(TAG, "Resume " + campaigns.size() + " campaigns.");
+				}
+				for (Campaign campaign : campaigns) {
+					start(campaign.getId());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Pause a campaign. A running campaign is paused after the current
+	 * message.
+	 * 
+	 * @param campaignId
+	 *            The campaign ID.
+	 */
+	public void pause(long campaignId) {
+		stop(campaignId, Campaign.STATE_PAUSED);
+	}
+
+	/**
+	 * Cancel a campaign. A running campaign is cancelled after the current
+	 * message.
+	 * 
+	 * @param campaignId
+	 *            The campaign ID.
+	 */
+	public void cancel(long campaignId) {
+		stop(campaignId, Campaign.STATE_CANCELLED);
+	}
+
+	/**
+	 * Resume a paused campaign from its checkpoint.
+	 * 
+	 * @param campaignId
+	 *            The campaign ID.
+	 */
+	public void resume(long campaignId) {
+		Campaign campaign;
+		synchronized (this) {
+			mStopRequests.remove(campaignId);
+			if (mCurrentId == campaignId) {
+				return;
+			}
+			campaign = mStore.find(campaignId);
+			if (campaign == null || campaign.getState() != Campaign.STATE_PAUSED) {
+				return;
+			}
+			campaign.setState(Campaign.STATE_RUNNING);
+			mStore.checkpoint(campaign);
+		}
+		notifyProgress(campaign);
+		start(campaignId);
+	}
+
+	/**
+	 * Request a campaign to be stopped. If the campaign is not executed now,
+	 * its new state is stored directly.
+	 * 
+	 * @param campaignId
+	 *            The campaign ID.
+	 * @param state
+	 *            The new campaign state, paused or cancelled.
+	 */
+	private void stop(long campaignId, int state) {
+		Campaign campaign = null;
+		synchronized (this) {
+			if (mCurrentId == campaignId) {
+				mStopRequests.put(campaignId, state);
+				notifyAll();
+			} else {
+				campaign = mStore.find(campaignId);
+				if (campaign == null || campaign.isFinished()) {
+					return;
+				}
+				campaign.setState(state);
+				mStore.checkpoint(campaign);
+			}
+		}
+		if (campaign != null) {
+			notifyProgress(campaign);
+		}
+	}
+
+	/**
+	 * Obtain and remove the stop request of a campaign.
+	 * 
+	 * @param campaignId
+	 *            The campaign ID.
+	 * @return The requested state or null if the campaign should continue.
+	 */
+	private synchronized Integer takeStopRequest(long campaignId) {
+		return mStopRequests.remove(campaignId);
+	}
+
+	/**
+	 * Execute the waves of a campaign until all target contacts are processed
+	 * or the campaign is stopped. Invoked on the runner thread.
+	 * 
+	 * @param campaignId
+	 *            The campaign ID.
+	 */
+	private void runCampaign(long campaignId) {
+		Campaign campaign;
+		synchronized (this) {
+			campaign = mStore.find(campaignId);
+			if (campaign == null || campaign.getState() != Campaign.STATE_RUNNING) {
+				return;
+			}
+			mCurrentId = campaignId;
+		}
+		mMark = SystemClock.elapsedRealtime();
+		Log.i(TAG, "Campaign " + campaignId + " started from contact "
+				+ campaign.getLastContactId() + ", " + campaign.getProcessed()
+				+ " of " + campaign.getTotal() + " processed.");
+		Integer stop = null;
+		try {
+			BoundTemplate template = CommandTemplate.parse(
+					campaign.getCommand()).bind();
+			List<GpsContact> page;
+			while ((stop = takeStopRequest(campaignId)) == null) {
+				page = mStore.loadTargets(campaignId,
+						campaign.getLastContactId(), WAVE_SIZE);
+				if (page.isEmpty()) {
+					campaign.setState(Campaign.STATE_COMPLETED);
+					break;
+				}
+				stop = runWave(campaign, template, page);
+				if (stop != null || !waitWavePause(campaignId)) {
+					break;
+				}
+			}
+		} catch (RuntimeException e) {
+			Log.e(TAG, "Campaign " + campaignId + ": " + e.getMessage(), e);
+			stop = Campaign.STATE_PAUSED;
+		} finally {
+			synchronized (this) {
+				if (stop == null) {
+					stop = mStopRequests.remove(campaignId);
+				}
+				if (stop != null) {
+					campaign.setState(stop);
+				}
+				updateElapsed(campaign);
+				mStore.checkpoint(campaign);
+				mCurrentId = -1;
+			}
+			mApplication.flushSentFolder();
+		}
+		Log.i(TAG, "Campaign " + campaignId + " stopped with the state "
+				+ campaign.getState() + ": " + campaign.getSent() + " sent, "
+				+ campaign.getSkipped() + " skipped, "
+				+ campaign.getDuplicates() + " duplicates, " + campaign.getProcessed()
+				+ " of " + campaign.getTotal() + " processed in "
+				+ campaign.getElapsed() + " ms.");
+		notifyProgress(campaign);
+	}
+
+	/**
+	 * Queue and send a wave of messages. If the campaign is stopped in the
+	 * middle of the wave, the messages which were not sent are cancelled and
+	 * the checkpoint is moved back after the last sent message.
+	 * 
+	 * @param campaign
+	 *            The running campaign.
+	 * @param template
+	 *            The campaign message, bound once for the run.
+	 * @param page
+	 *            The wave target contacts.
+	 * @return The requested state if the campaign was stopped, otherwise
+	 *         null.
+	 */
+	private Integer runWave(final Campaign campaign,
+			final BoundTemplate template, final List<GpsContact> page) {
+		long waveStart = SystemClock.elapsedRealtime();
+		long checkpoint = campaign.getLastContactId();
+		final int processed = campaign.getProcessed();
+		final int skipped = campaign.getSkipped();
+		final int duplicates = campaign.getDuplicates();
+		final List<OutboxMessage> messages = new ArrayList<OutboxMessage>(page.size());
+		final List<GpsContact> waveDuplicates = new ArrayList<GpsContact>();
+		campaign.setLastContactId(page.get(page.size() - 1).getId());
+		campaign.setWaves(campaign.getWaves() + 1);
+		mStore.checkpoint(campaign, new Runnable() {
+			@Override
+			public void run() {
+				messages.addAll(mApplication.enqueueSMS(page, template,
+						waveDuplicates));
+				int waveSkipped = page.size() - messages.size();
+				campaign.setSkipped(skipped + waveSkipped
+						- waveDuplicates.size());
+				campaign.setDuplicates(duplicates + waveDuplicates.size());
+				campaign.setProcessed(processed + waveSkipped);
+				updateElapsed(campaign);
+			}
+		});
+		notifyProgress(campaign);
+		SmsRateLimiter limiter = mApplication.getSmsRateLimiter();
+		Integer stop = null;
+		int i = 0;
+		for (OutboxMessage message : messages) {
+			if ((stop = acquirePermit(campaign.getId(), limiter)) != null) {
+				break;
+			}
+			if (mApplication.dispatchSMS(message)) {
+				campaign.setSent(campaign.getSent() + 1);
+			}
+			campaign.setProcessed(campaign.getProcessed() + 1);
+			checkpoint = findContactId(page, message.getPhoneNumber());
+			i++;
+			notifyProgress(campaign);
+		}
+		if (stop != null) {
+			mApplication.cancelSMS(messages.subList(i, messages.size()));
+			rewind(campaign, page, messages.subList(0, i), waveDuplicates,
+					checkpoint, processed, skipped, duplicates);
+		}
+		long duration = SystemClock.elapsedRealtime() - waveStart;
+		int waveProcessed = campaign.getProcessed() - processed;
+		campaign.setWaveRate(duration > 0 ? waveProcessed * 1000f / duration : 0f);
+		updateElapsed(campaign);
+		mStore.checkpoint(campaign);
+		mApplication.flushSentFolder();
+		Log.i(TAG, "Campaign " + campaign.getId() + " wave "
+				+ campaign.getWaves() + ": " + waveProcessed + " contacts in "
+				+ duration + " ms, " + campaign.getWaveRate()
+				+ " messages per second, " + campaign.getProcessed() + " of "
+				+ campaign.getTotal() + " processed, ETA "
+				+ campaign.getEta() + " ms.");
+		return stop;
+	}
+
+	/**
+	 * Move the campaign checkpoint back after the last sent message of a
+	 * stopped wave. The skipped contacts after the checkpoint are processed
+	 * again when the campaign is resumed.
+	 * 
+	 * @param campaign
+	 *            The stopped campaign.
+	 * @param page
+	 *            The wave target contacts.
+	 * @param sent
+	 *            The wave messages which were sent.
+	 * @param waveDuplicates
+	 *            The wave contacts skipped as duplicates.
+	 * @param checkpoint
+	 *            The ID of the last contact which received a message, or the
+	 *            previous checkpoint if no message was sent.
+	 * @param processed
+	 *            The number of processed contacts before the wave.
+	 * @param skipped
+	 *            The number of skipped contacts before the wave.
+	 * @param duplicates
+	 *            The number of duplicate contacts before the wave.
+	 */
+	private void rewind(Campaign campaign, List<GpsContact> page,
+			List<OutboxMessage> sent, List<GpsContact> waveDuplicates,
+			long checkpoint, int processed, int skipped, int duplicates) {
+		Set<String> phones = new HashSet<String>();
+		for (OutboxMessage message : sent) {
+			phones.add(message.getPhoneNumber());
+		}
+		Set<Long> duplicateIds = new HashSet<Long>();
+		for (GpsContact contact : waveDuplicates) {
+			duplicateIds.add(contact.getId());
+		}
+		for (GpsContact contact : page) {
+			if (contact.getId() > checkpoint) {
+				break;
+			}
+			processed++;
+			if (duplicateIds.contains(contact.getId())) {
+				duplicates++;
+			} else if (!phones.contains(contact.getPhone())) {
+				skipped++;
+			}
+		}
+		campaign.setLastContactId(checkpoint);
+		campaign.setProcessed(processed);
+		campaign.setSkipped(skipped);
+		campaign.setDuplicates(duplicates);
+	}
+
+	/**
+	 * Find the ID of the wave contact with a phone number.
+	 */
+	private long findContactId(List<GpsContact> page, String phoneNumber) {
+		for (GpsContact contact : page) {
+			if (contact.getPhone().equals(phoneNumber)) {
+				return contact.getId();
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Wait for a bulk token from the rate limiter, checking periodically if
+	 * the campaign was stopped.
+	 * 
+	 * @param campaignId
+	 *            The campaign ID.
+	 * @param limiter
+	 *            The SMS rate limiter.
+	 * @return The requested state if the campaign was stopped, otherwise
+	 *         null.
+	 */
+	private Integer acquirePermit(long campaignId, SmsRateLimiter limiter) {
+		Integer stop;
+		while ((stop = takeStopRequest(campaignId)) == null) {
+			if (limiter.acquire(SmsRateLimiter.DEFAULT_SIM, 500,
+					SmsRateLimiter.PRIORITY_BULK)) {
+				break;
+			}
+		}
+		return stop;
+	}
+
+	/**
+	 * Wait the pause between two waves. The wait is interrupted if the
+	 * campaign is stopped.
+	 * 
+	 * @param campaignId
+	 *            The campaign ID.
+	 * @return False if the campaign was stopped during the pause.
+	 */
+	private synchronized boolean waitWavePause(long campaignId) {
+		long end = SystemClock.elapsedRealtime() + WAVE_PAUSE;
+		long delay;
+		while (!mStopRequests.containsKey(campaignId)
+				&& (delay = end - SystemClock.elapsedRealtime()) > 0) {
+			try {
+				wait(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return !mStopRequests.containsKey(campaignId);
+	}
+
+	/**
+	 * Add to the campaign running time the time passed from the previous
+	 * update.
+	 */
+	private void updateElapsed(Campaign campaign) {
+		long now = SystemClock.elapsedRealtime();
+		campaign.setElapsed(campaign.getElapsed() + now - mMark);
+		mMark = now;
+	}
+
+	/**
+	 * Inform the listener about the campaign progress.
+	 */
+	private void notifyProgress(Campaign campaign) {
+		Listener listener = mListener;
+		if (listener != null) {
+			listener.onCampaignProgress(campaign);
+		}
+	}
+}
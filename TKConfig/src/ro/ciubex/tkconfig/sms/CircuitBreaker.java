@@ -0,0 +1,136 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.sms;
+
+import ro.ciubex.tkconfig.models.GpsContact;
+
+/**
+ * Circuit breaker for the GPS trackers. The consecutive failures are counted
+ * on each GPS contact; after a number of failures the breaker opens and the
+ * tracker is skipped for a cool-down period. When the cool-down expires one
+ * probe message is allowed: a delivered probe closes the breaker, a failed
+ * probe opens it again for a longer period.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class CircuitBreaker {
+	public static final int STATE_CLOSED = 0;
+	public static final int STATE_OPEN = 1;
+	public static final int STATE_HALF_OPEN = 2;
+	public static final int FAILURE_THRESHOLD = 3;
+	public static final long COOL_DOWN = 30 * 60 * 1000L;
+	private static final int MAX_COOL_DOWN_SHIFT = 5;
+
+	/**
+	 * Obtain the breaker state of a GPS contact.
+	 * 
+	 * @param contact
+	 *            The GPS contact.
+	 * @param now
+	 *            The current time in milliseconds.
+	 * @return The breaker state.
+	 */
+	public static int getState(GpsContact contact, long now) {
+		synchronized (contact) {
+			if (contact.getFailures() < FAILURE_THRESHOLD) {
+				return STATE_CLOSED;
+			}
+			return now < contact.getOpenUntil() ? STATE_OPEN : STATE_HALF_OPEN;
+		}
+	}
+
+	/**
+	 * Check if a message could be sent to a GPS contact. If the breaker is
+	 * half open the message is allowed as a probe, and the breaker is opened
+	 * again until the probe result is known.
+	 * 
+	 * @param contact
+	 *            The GPS contact.
+	 * @param now
+	 *            The current time in milliseconds.
+	 * @return True if the message could be sent.
+	 */
+	public static boolean allowRequest(GpsContact contact, long now) {
+		synchronized (contact) {
+			switch (getState(contact, now)) {
+			case STATE_CLOSED:
+				return true;
+			case STATE_HALF_OPEN:
+				contact.setOpenUntil(now + getCoolDown(contact.getFailures()));
+				return true;
+			default:
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Record a successful message, which closes the breaker.
+	 * 
+	 * @param contact
+	 *            The GPS contact.
+	 * @return True if the breaker state was changed.
+	 */
+	public static boolean onSuccess(GpsContact contact) {
+		synchronized (contact) {
+			if (contact.getFailures() == 0 && contact.getOpenUntil() == 0) {
+				return false;
+			}
+			contact.setFailures(0);
+			contact.setOpenUntil(0);
+			return true;
+		}
+	}
+
+	/**
+	 * Record a failed message. The breaker is opened when the failures reach
+	 * the threshold.
+	 * 
+	 * @param contact
+	 *            The GPS contact.
+	 * @param now
+	 *            The current time in milliseconds.
+	 * @return True if the breaker is open.
+	 */
+	public static boolean onFailure(GpsContact contact, long now) {
+		synchronized (contact) {
+			int failures = contact.getFailures() + 1;
+			contact.setFailures(failures);
+			if (failures >= FAILURE_THRESHOLD) {
+				contact.setOpenUntil(now + getCoolDown(failures));
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Obtain the cool-down period, doubled for each failed probe.
+	 * 
+	 * @param failures
+	 *            The number of consecutive failures.
+	 * @return The cool-down period in milliseconds.
+	 */
+	private static long getCoolDown(int failures) {
+		int shift = Math.min(Math.max(0, failures - FAILURE_THRESHOLD),
+				MAX_COOL_DOWN_SHIFT);
+		return COOL_DOWN << shift;
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.sms;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import ro.ciubex.tkconfig.R;
+import ro.ciubex.tkconfig.models.History;
+import ro.ciubex.tkconfig.storage.HistoryStore;
+import android.content.Context;
+
+/**
+ * Aggregate the sent and delivery reports of the history events into latency
+ * histograms, per tracker and per carrier. The sent latency is measured from
+ * the moment the message was handed to the system until the sent report,
+ * the delivery latency from the sent report until the delivery report. The
+ * report receives the history events from a store scan, so only the
+ * histograms are kept in memory.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class DeliveryReport implements HistoryStore.Listener {
+	private static final String UNKNOWN_CARRIER = "unknown";
+
+	private final Map<String, Latencies> mTrackers = new TreeMap<String, Latencies>();
+	private final Map<String, Latencies> mCarriers = new TreeMap<String, Latencies>();
+	private final Latencies mTotal = new Latencies();
+
+	/**
+	 * Add the reports of an history event.
+	 * 
+	 * @param history
+	 *            The history event.
+	 */
+	@Override
+	public void onHistory(History history) {
+		String carrier = history.getCarrier();
+		if (carrier == null || carrier.length() == 0) {
+			carrier = UNKNOWN_CARRIER;
+		}
+		mTotal.add(history);
+		get(mTrackers, history.getPhoneNumber()).add(history);
+		get(mCarriers, carrier).add(history);
+	}
+
+	private Latencies get(Map<String, Latencies> map, String key) {
+		Latencies latencies = map.get(key);
+		if (latencies == null) {
+			latencies = new Latencies();
+			map.put(key, latencies);
+		}
+		return latencies;
+	}
+
+	/**
+	 * Obtain the latencies of all history events.
+	 * 
+	 * @return The total latencies.
+	 */
+	public Latencies getTotal() {
+		return mTotal;
+	}
+
+	/**
+	 * Obtain the latencies for each tracker phone number.
+	 * 
+	 * @return The latencies per tracker.
+	 */
+	public Map<String, Latencies> getTrackers() {
+		return mTrackers;
+	}
+
+	/**
+	 * Obtain the latencies for each carrier.
+	 * 
+	 * @return The latencies per carrier.
+	 */
+	public Map<String, Latencies> getCarriers() {
+		return mCarriers;
+	}
+
+	/**
+	 * Format the report as text.
+	 * 
+	 * @param context
+	 *            The context used to obtain the labels.
+	 * @return The formatted report.
+	 */
+	public String format(Context context) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(context.getString(R.string.delivery_report_all)).append('\n');
+		mTotal.appendTo(sb, context);
+		sb.append("\n\n").append(
+				context.getString(R.string.delivery_report_carriers));
+		for (Map.Entry<String, Latencies> entry : mCarriers.entrySet()) {
+			sb.append("\n").append(entry.getKey()).append(":\n");
+			entry.getValue().appendTo(sb, context);
+		}
+		sb.append("\n\n").append(
+				context.getString(R.string.delivery_report_trackers));
+		for (Map.Entry<String, Latencies> entry : mTrackers.entrySet()) {
+			sb.append("\n").append(entry.getKey()).append(":\n");
+			entry.getValue().appendTo(sb, context);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * The sent and delivery latencies of a group of history events.
+	 */
+	public static class Latencies {
+		private final LatencyHistogram mSent = new LatencyHistogram();
+		private final LatencyHistogram mDelivered = new LatencyHistogram();
+		private int mSendFailed;
+		private int mDeliveryFailed;
+
+		void add(History history) {
+			if (history.getSentTime() > 0) {
+				if (history.getSentResult() == SmsStatusReceiver.RESULT_OK) {
+					mSent.add(history.getSentTime() - history.getDateTime());
+				} else {
+					mSendFailed++;
+				}
+			}
+			if (history.getDeliveredTime() > 0) {
+				if (SmsStatusReceiver.isDelivered(history.getDeliveryStatus())) {
+					mDelivered.add(history.getDeliveredTime()
+							- history.getSentTime());
+				} else {
+					mDeliveryFailed++;
+				}
+			}
+		}
+
+		public LatencyHistogram getSent() {
+			return mSent;
+		}
+
+		public LatencyHistogram getDelivered() {
+			return mDelivered;
+		}
+
+		public int getSendFailed() {
+			return mSendFailed;
+		}
+
+		public int getDeliveryFailed() {
+			return mDeliveryFailed;
+		}
+
+		void appendTo(StringBuilder sb, Context context) {
+			sb.append(' ')
+					.append(context.getString(R.string.delivery_report_sent))
+					.append(' ');
+			mSent.appendTo(sb);
+			sb.append("\n ")
+					.append(context
+							.getString(R.string.delivery_report_delivered))
+					.append(' ');
+			mDelivered.appendTo(sb);
+			if (mSendFailed > 0 || mDeliveryFailed > 0) {
+				sb.append("\n ").append(
+						context.getString(R.string.delivery_report_failed,
+								mSendFailed, mDeliveryFailed));
+			}
+		}
+	}
+}
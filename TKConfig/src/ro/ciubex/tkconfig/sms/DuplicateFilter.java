@@ -0,0 +1,235 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.sms;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ro.ciubex.tkconfig.models.Utilities;
+import android.util.Log;
+
+/**
+ * Time windowed index of the sent commands, used to suppress the same command
+ * sent again to the same tracker. The entries are kept in the order they were
+ * sent, so the expired entries are removed from the head. The commands are
+ * indexed by a 64 bit hash of the phone number and the command, and the index
+ * holds at most the configured capacity, sized by the number of contacts.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class DuplicateFilter {
+	private final static String TAG = DuplicateFilter.class.getName();
+	public static final int MIN_ENTRIES = 2048;
+	public static final int ENTRIES_PER_CONTACT = 4;
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final LinkedHashMap<Long, Long> mSent = new LinkedHashMap<Long, Long>() {
+		private static final long serialVersionUID = -3184052261707526358L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+			if (size() > mCapacity) {
+				onEvicted();
+				return true;
+			}
+			return false;
+		}
+	};
+	private long mWindow;
+	private int mCapacity;
+	private long mSuppressed;
+	private long mEvicted;
+
+	/**
+	 * Create the filter.
+	 * 
+	 * @param window
+	 *            The suppression window in milliseconds, 0 to disable.
+	 * @param contacts
+	 *            The number of contacts, used to size the index.
+	 */
+	public DuplicateFilter(long window, int contacts) {
+		mWindow = window;
+		mCapacity = getCapacity(contacts);
+	}
+
+	/**
+	 * Obtain the index capacity needed for a number of contacts.
+	 * 
+	 * @param contacts
+	 *            The number of contacts.
+	 * @return The index capacity.
+	 */
+	private static int getCapacity(int contacts) {
+		return Math.max(MIN_ENTRIES, contacts * ENTRIES_PER_CONTACT);
+	}
+
+	/**
+	 * Size the index for a number of contacts. The index is not shrunk here,
+	 * the exceeding entries are removed on the next sent command.
+	 * 
+	 * @param contacts
+	 *            The number of contacts.
+	 */
+	public synchronized void setContacts(int contacts) {
+		mCapacity = getCapacity(contacts);
+	}
+
+	/**
+	 * Change the suppression window.
+	 * 
+	 * @param window
+	 *            The suppression window in milliseconds, 0 to disable.
+	 */
+	public synchronized void setWindow(long window) {
+		mWindow = window;
+		if (window <= 0) {
+			mSent.clear();
+		}
+	}
+
+	/**
+	 * Check if a command was already sent to a phone number within the
+	 * window. If not, the command is recorded as sent now.
+	 * 
+	 * @param phoneNumber
+	 *            The phone number.
+	 * @param message
+	 *            The rendered command.
+	 * @param now
+	 *            The current time in milliseconds.
+	 * @return True if the command should be suppressed.
+	 */
+	public synchronized boolean suppress(String phoneNumber, String message,
+			long now) {
+		if (mWindow <= 0) {
+			return false;
+		}
+		expire(now);
+		Long key = getKey(phoneNumber, message);
+		if (mSent.containsKey(key)) {
+			mSuppressed++;
+			return true;
+		}
+		mSent.put(key, now);
+		return false;
+	}
+
+	/**
+	 * Remove a command from the index, e.g. when it could not be sent, so it
+	 * could be sent again.
+	 * 
+	 * @param phoneNumber
+	 *            The phone number.
+	 * @param message
+	 *            The rendered command.
+	 */
+	public synchronized void forget(String phoneNumber, String message) {
+		mSent.remove(getKey(phoneNumber, message));
+	}
+
+	/**
+	 * Remove the entries older than the window.
+	 * 
+	 * @param now
+	 *            The current time in milliseconds.
+	 */
+	private void expire(long now) {
+		long limit = now - mWindow;
+		Iterator<Long> it = mSent.values().iterator();
+		while (it.hasNext() && it.next() <= limit) {
+			it.remove();
+		}
+	}
+
+	/**
+	 * Called when an entry is removed because the index is full. The expired
+	 * entries are already removed, so the entry is still inside the window
+	 * and a duplicate of it will not be suppressed.
+	 */
+	private void onEvicted() {
+		if (mEvicted++ == 0) {
+			Log.w(TAG, "The duplicates index is full, capacity: " + mCapacity
+					+ ", commands inside the window are evicted.");
+		}
+	}
+
+	/**
+	 * Compute the FNV-1a hash of the normalized phone number and the command.
+	 * 
+	 * @param phoneNumber
+	 *            The phone number.
+	 * @param message
+	 *            The rendered command.
+	 * @return The index key.
+	 */
+	private static Long getKey(String phoneNumber, String message) {
+		long hash = hash(FNV_OFFSET_BASIS,
+				Utilities.normalizePhoneNumber(phoneNumber));
+		hash = (hash ^ '\n') * FNV_PRIME;
+		return Long.valueOf(hash(hash, message));
+	}
+
+	private static long hash(long hash, String text) {
+		for (int i = 0, n = text != null ? text.length() : 0; i < n; i++) {
+			hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * Obtain the number of suppressed commands.
+	 * 
+	 * @return The number of suppressed commands.
+	 */
+	public synchronized long getSuppressed() {
+		return mSuppressed;
+	}
+
+	/**
+	 * Obtain the number of commands removed from the index inside the window,
+	 * because the index was full.
+	 * 
+	 * @return The number of evicted commands.
+	 */
+	public synchronized long getEvicted() {
+		return mEvicted;
+	}
+
+	/**
+	 * Obtain the number of commands in the index.
+	 * 
+	 * @return The number of indexed commands.
+	 */
+	public synchronized int getSize() {
+		return mSent.size();
+	}
+
+	/**
+	 * Obtain the index capacity.
+	 * 
+	 * @return The maximum number of indexed commands.
+	 */
+	public synchronized int getCapacity() {
+		return mCapacity;
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.sms;
+
+/**
+ * Histogram of the SMS latencies, with fixed buckets from one second up to
+ * thirty minutes. Besides the buckets are kept the exact count, minimum,
+ * maximum and sum, the percentiles are estimated by the bucket upper bounds.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class LatencyHistogram {
+	private static final long[] BOUNDS = { 1000, 2000, 5000, 10000, 30000,
+			60000, 120000, 300000, 600000, 1800000 };
+	private static final String[] LABELS = { "<1s", "<2s", "<5s", "<10s",
+			"<30s", "<1m", "<2m", "<5m", "<10m", "<30m", ">=30m" };
+
+	private final int[] mBuckets = new int[BOUNDS.length + 1];
+	private int mCount;
+	private long mSum;
+	private long mMin = Long.MAX_VALUE;
+	private long mMax;
+
+	/**
+	 * Add a latency to the histogram. The negative values are ignored.
+	 * 
+	 * @param latency
+	 *            The latency in milliseconds.
+	 */
+	public void add(long latency) {
+		if (latency < 0) {
+			return;
+		}
+		int i = 0;
+		while (i < BOUNDS.length && latency >= BOUNDS[i]) {
+			i++;
+		}
+		mBuckets[i]++;
+		mCount++;
+		mSum += latency;
+		mMin = Math.min(mMin, latency);
+		mMax = Math.max(mMax, latency);
+	}
+
+	public int getCount() {
+		return mCount;
+	}
+
+	public long getMin() {
+		return mCount > 0 ? mMin : 0;
+	}
+
+	public long getMax() {
+		return mMax;
+	}
+
+	public long getMean() {
+		return mCount > 0 ? mSum / mCount : 0;
+	}
+
+	/**
+	 * Estimate a percentile as the upper bound of the bucket which contains
+	 * it, limited by the maximum value.
+	 * 
+	 * @param percent
+	 *            The percentile, between 0 and 100.
+	 * @return The estimated latency in milliseconds.
+	 */
+	public long getPercentile(int percent) {
+		if (mCount == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(mCount * percent / 100.0));
+		long seen = 0;
+		for (int i = 0; i < mBuckets.length; i++) {
+			seen += mBuckets[i];
+			if (seen >= rank) {
+				return i < BOUNDS.length ? Math.min(BOUNDS[i], mMax) : mMax;
+			}
+		}
+		return mMax;
+	}
+
+	/**
+	 * Append the histogram summary and the not empty buckets.
+	 * 
+	 * @param sb
+	 *            The string builder.
+	 */
+	public void appendTo(StringBuilder sb) {
+		sb.append(mCount).append(" msgs, mean ").append(format(getMean()))
+				.append(", p50 ").append(format(getPercentile(50)))
+				.append(", p95 ").append(format(getPercentile(95)))
+				.append(", max ").append(format(mMax));
+		if (mCount > 0) {
+			sb.append("\n  ");
+			for (int i = 0; i < mBuckets.length; i++) {
+				if (mBuckets[i] > 0) {
+					sb.append(LABELS[i]).append(':').append(mBuckets[i])
+							.append(' ');
+				}
+			}
+		}
+	}
+
+	private static String format(long latency) {
+		if (latency < 1000) {
+			return latency + "ms";
+		}
+		return (latency / 100) / 10.0 + "s";
+	}
+}
@@ -0,0 +1,231 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.sms;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import ro.ciubex.tkconfig.models.OutboxMessage;
+import android.telephony.SmsManager;
+
+/**
+ * An in-memory transport which does not send the messages. The sent and
+ * delivery reports are simulated on a background thread, after a configurable
+ * latency and with a configurable failure rate. It is used to benchmark and
+ * load-test the send pipeline without a radio.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class LoopbackSmsTransport implements SmsTransport {
+	public static final int STATUS_DELIVERED = 0;
+	public static final int STATUS_FAILED = 0x40;
+
+	private final ReportListener mListener;
+	private final long mSentLatency;
+	private final long mDeliveryLatency;
+	private final float mFailureRate;
+	private final float mDeliveryFailureRate;
+	private final Random mRandom;
+	private final ScheduledExecutorService mExecutor;
+	private int mHandedOff;
+	private int mSegments;
+	private int mSent;
+	private int mFailed;
+	private int mDelivered;
+	private int mUndelivered;
+
+	/**
+	 * Create a transport without latency and without failures.
+	 * 
+	 * @param listener
+	 *            The listener of the simulated reports.
+	 */
+	public LoopbackSmsTransport(ReportListener listener) {
+		this(listener, 0, 0, 0f, 0f, System.nanoTime());
+	}
+
+	/**
+	 * Create a transport with simulated latency and failures.
+	 * 
+	 * @param listener
+	 *            The listener of the simulated reports.
+	 * @param sentLatency
+	 *            The average delay in milliseconds of the sent report.
+	 * @param deliveryLatency
+	 *            The average delay in milliseconds of the delivery report,
+	 *            after the sent report.
+	 * @param failureRate
+	 *            The probability of a failed sent report, from 0 to 1.
+	 * @param deliveryFailureRate
+	 *            The probability of a failed delivery report, from 0 to 1.
+	 * @param seed
+	 *            The seed of the random generator, to repeat a scenario.
+	 */
+	public LoopbackSmsTransport(ReportListener listener, long sentLatency,
+			long deliveryLatency, float failureRate, float deliveryFailureRate,
+			long seed) {
+		mListener = listener;
+		mSentLatency = Math.max(0, sentLatency);
+		mDeliveryLatency = Math.max(0, deliveryLatency);
+		mFailureRate = failureRate;
+		mDeliveryFailureRate = deliveryFailureRate;
+		mRandom = new Random(seed);
+		mExecutor = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	@Override
+	public String getName() {
+		return "Loopback";
+	}
+
+	@Override
+	public boolean isSimulated() {
+		return true;
+	}
+
+	@Override
+	public void send(OutboxMessage message, long historyId) {
+		final long outboxId = message.getId();
+		final long reportHistoryId = historyId;
+		final boolean sent;
+		final boolean delivered;
+		final long sentDelay;
+		final long deliveryDelay;
+		synchronized (this) {
+			mHandedOff++;
+			mSegments += SmsEncoder.encode(message.getMessage()).getSegments();
+			sent = mRandom.nextFloat() >= mFailureRate;
+			delivered = mRandom.nextFloat() >= mDeliveryFailureRate;
+			sentDelay = jitter(mSentLatency);
+			deliveryDelay = sentDelay + jitter(mDeliveryLatency);
+		}
+		mExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (LoopbackSmsTransport.this) {
+					if (sent) {
+						mSent++;
+					} else {
+						mFailed++;
+					}
+				}
+				mListener.onSmsSent(outboxId, reportHistoryId,
+						SmsRateLimiter.DEFAULT_SIM, sent ? SmsStatusReceiver.RESULT_OK
+								: SmsManager.RESULT_ERROR_GENERIC_FAILURE);
+			}
+		}, sentDelay, TimeUnit.MILLISECONDS);
+		if (sent) {
+			mExecutor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (LoopbackSmsTransport.this) {
+						if (delivered) {
+							mDelivered++;
+						} else {
+							mUndelivered++;
+						}
+					}
+					mListener.onSmsDelivered(outboxId, reportHistoryId,
+							delivered ? STATUS_DELIVERED : STATUS_FAILED);
+				}
+			}, deliveryDelay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Obtain a random delay around the average latency, from the half to one
+	 * and a half of the latency.
+	 * 
+	 * @param latency
+	 *            The average latency.
+	 * @return The delay in milliseconds.
+	 */
+	private long jitter(long latency) {
+		if (latency < 2) {
+			return latency;
+		}
+		return latency / 2 + (long) (mRandom.nextDouble() * latency);
+	}
+
+	/**
+	 * Check if all the handed messages have their final report.
+	 * 
+	 * @return True if there are no pending reports.
+	 */
+	public synchronized boolean isIdle() {
+		return mFailed + mDelivered + mUndelivered == mHandedOff;
+	}
+
+	/**
+	 * Wait until all the handed messages have their final report.
+	 * 
+	 * @param timeout
+	 *            The maximum time to wait, in milliseconds.
+	 * @return True if there are no pending reports.
+	 */
+	public boolean awaitIdle(long timeout) {
+		long end = System.currentTimeMillis() + timeout;
+		while (!isIdle()) {
+			if (System.currentTimeMillis() >= end) {
+				return false;
+			}
+			try {
+				Thread.sleep(5);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stop the reports thread. The pending reports are dropped.
+	 */
+	public void shutdown() {
+		mExecutor.shutdownNow();
+	}
+
+	public synchronized int getHandedOff() {
+		return mHandedOff;
+	}
+
+	public synchronized int getSegments() {
+		return mSegments;
+	}
+
+	public synchronized int getSent() {
+		return mSent;
+	}
+
+	public synchronized int getFailed() {
+		return mFailed;
+	}
+
+	public synchronized int getDelivered() {
+		return mDelivered;
+	}
+
+	public synchronized int getUndelivered() {
+		return mUndelivered;
+	}
+}
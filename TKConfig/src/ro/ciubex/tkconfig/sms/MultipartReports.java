@@ -0,0 +1,77 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.sms;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collect the final reports of the parts of a multipart message. A message is
+ * reported as successful only after all its parts were successful, and as
+ * failed on the first failed part; the reports of the remaining parts are
+ * then ignored.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class MultipartReports {
+	private static final int RECEIVED = 0;
+	private static final int FAILED = 1;
+
+	private final Map<String, int[]> mReports = new HashMap<String, int[]>();
+
+	/**
+	 * Record the final report of a message part.
+	 * 
+	 * @param action
+	 *            The report action, sent or delivered.
+	 * @param historyId
+	 *            The history event ID of the message.
+	 * @param parts
+	 *            The number of message parts.
+	 * @param success
+	 *            True if the part was sent or delivered.
+	 * @return True if the report of the whole message should be processed:
+	 *         all the parts were successful or this is the first failed part.
+	 */
+	public synchronized boolean onPartReport(String action, long historyId,
+			int parts, boolean success) {
+		if (parts < 2) {
+			return true;
+		}
+		String key = action + ':' + historyId;
+		int[] report = mReports.get(key);
+		if (report == null) {
+			report = new int[2];
+			mReports.put(key, report);
+		}
+		report[RECEIVED]++;
+		boolean result;
+		if (!success) {
+			result = report[FAILED] == 0;
+			report[FAILED]++;
+		} else {
+			result = report[RECEIVED] == parts && report[FAILED] == 0;
+		}
+		if (report[RECEIVED] >= parts) {
+			mReports.remove(key);
+		}
+		return result;
+	}
+}
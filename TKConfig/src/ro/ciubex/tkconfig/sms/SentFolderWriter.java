@@ -0,0 +1,166 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.sms;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Buffered writer for the Sent folder of the Messaging application. The sent
+ * messages are collected in memory and written with a single bulk insert on a
+ * background thread, when the buffer is full or after a short window, so a
+ * broadcast to many trackers needs only a few provider transactions.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class SentFolderWriter {
+	private final static String TAG = SentFolderWriter.class.getName();
+	public static final Uri SENT_URI = Uri.parse("content://sms/sent");
+	public static final long DEFAULT_WINDOW = 1000;
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	private final ContentResolver mContentResolver;
+	private final Handler mHandler;
+	private final long mWindow;
+	private final int mBatchSize;
+	private final Object mWriteLock = new Object();
+	private List<ContentValues> mBuffer = new ArrayList<ContentValues>();
+	private boolean mFlushScheduled;
+	private long mMessages;
+	private long mRoundTrips;
+
+	private final Runnable mFlushTask = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	public SentFolderWriter(ContentResolver contentResolver) {
+		this(contentResolver, DEFAULT_WINDOW, DEFAULT_BATCH_SIZE);
+	}
+
+	public SentFolderWriter(ContentResolver contentResolver, long window,
+			int batchSize) {
+		mContentResolver = contentResolver;
+		mWindow = window;
+		mBatchSize = Math.max(1, batchSize);
+		HandlerThread thread = new HandlerThread(TAG,
+				Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		mHandler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Add a sent message to the buffer. The buffer is written in background
+	 * when it is full or when the window expires.
+	 * 
+	 * @param phoneNumber
+	 *            The phone number were was sent the message.
+	 * @param message
+	 *            The sent message.
+	 */
+	public synchronized void add(String phoneNumber, String message) {
+		ContentValues values = new ContentValues();
+		values.put("address", phoneNumber);
+		values.put("body", message);
+		mBuffer.add(values);
+		if (mBuffer.size() >= mBatchSize) {
+			mHandler.removeCallbacks(mFlushTask);
+			mHandler.post(mFlushTask);
+			mFlushScheduled = true;
+		} else if (!mFlushScheduled) {
+			mHandler.postDelayed(mFlushTask, mWindow);
+			mFlushScheduled = true;
+		}
+	}
+
+	/**
+	 * Schedule the buffered messages to be written now, on the background
+	 * thread. This should be used from the main thread, e.g. when the
+	 * application is closed.
+	 */
+	public synchronized void flushAsync() {
+		if (!mBuffer.isEmpty()) {
+			mHandler.removeCallbacks(mFlushTask);
+			mHandler.post(mFlushTask);
+			mFlushScheduled = true;
+		}
+	}
+
+	/**
+	 * Write all buffered messages with a single bulk insert. When this method
+	 * returns all messages added before the call are written.
+	 * 
+	 * @return The number of written messages.
+	 */
+	public int flush() {
+		synchronized (mWriteLock) {
+			List<ContentValues> batch;
+			synchronized (this) {
+				mHandler.removeCallbacks(mFlushTask);
+				mFlushScheduled = false;
+				if (mBuffer.isEmpty()) {
+					return 0;
+				}
+				batch = mBuffer;
+				mBuffer = new ArrayList<ContentValues>();
+			}
+			int count = 0;
+			try {
+				count = mContentResolver.bulkInsert(SENT_URI,
+						batch.toArray(new ContentValues[batch.size()]));
+			} catch (Exception e) {
+				Log.e(TAG, "Save messages to the send folder: " + e.getMessage(), e);
+			}
+			synchronized (this) {
+				mMessages += batch.size();
+				mRoundTrips++;
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Obtain the number of messages passed to the provider.
+	 * 
+	 * @return The number of messages.
+	 */
+	public synchronized long getMessages() {
+		return mMessages;
+	}
+
+	/**
+	 * Obtain the number of provider transactions.
+	 * 
+	 * @return The number of bulk inserts.
+	 */
+	public synchronized long getRoundTrips() {
+		return mRoundTrips;
+	}
+}
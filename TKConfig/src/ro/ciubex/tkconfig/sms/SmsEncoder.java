@@ -0,0 +1,161 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.sms;
+
+/**
+ * Classify a rendered SMS message and compute the exact number of segments
+ * needed to send it. A message which contains only characters from the GSM
+ * 03.38 default alphabet is sent with the 7-bit encoding, 160 characters in a
+ * single SMS or 153 in each segment of a multipart SMS; the characters from
+ * the extension table use two septets. Any other character forces the UCS-2
+ * encoding, 70 characters in a single SMS or 67 in each segment.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class SmsEncoder {
+	public static final int ENCODING_GSM7 = 1;
+	public static final int ENCODING_UCS2 = 3;
+
+	private static final int GSM7_SINGLE = 160;
+	private static final int GSM7_SEGMENT = 153;
+	private static final int UCS2_SINGLE = 70;
+	private static final int UCS2_SEGMENT = 67;
+
+	private static final String GSM7_BASIC = "@\u00A3$\u00A5\u00E8\u00E9\u00F9\u00EC\u00F2\u00C7\n\u00D8"
+			+ "\u00F8\r\u00C5\u00E5\u0394_\u03A6\u0393\u039B\u03A9\u03A0"
+			+ "\u03A8\u03A3\u0398\u039E\u00C6\u00E6\u00DF\u00C9 !\"#\u00A4%"
+			+ "&'()*+,-./0123456789:;<=>?\u00A1ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+			+ "\u00C4\u00D6\u00D1\u00DC\u00A7\u00BFabcdefghijklmnopqrstuvwx"
+			+ "yz\u00E4\u00F6\u00F1\u00FC\u00E0";
+	private static final String GSM7_EXTENSION = "\f^{}\\[~]|\u20AC";
+
+	/**
+	 * The result of a message classification.
+	 */
+	public static class Encoding {
+		private final int mEncoding;
+		private final int mLength;
+		private final int mSegments;
+
+		Encoding(int encoding, int length, int segments) {
+			mEncoding = encoding;
+			mLength = length;
+			mSegments = segments;
+		}
+
+		/**
+		 * Obtain the message encoding: {@link SmsEncoder#ENCODING_GSM7} or
+		 * {@link SmsEncoder#ENCODING_UCS2}.
+		 */
+		public int getEncoding() {
+			return mEncoding;
+		}
+
+		/**
+		 * Obtain the message length in septets for GSM-7 or in UTF-16 code
+		 * units for UCS-2.
+		 */
+		public int getLength() {
+			return mLength;
+		}
+
+		/**
+		 * Obtain the number of SMS segments.
+		 */
+		public int getSegments() {
+			return mSegments;
+		}
+
+		public boolean isMultipart() {
+			return mSegments > 1;
+		}
+
+		public boolean isGsm7() {
+			return mEncoding == ENCODING_GSM7;
+		}
+	}
+
+	/**
+	 * Classify a message and compute the number of segments.
+	 * 
+	 * @param message
+	 *            The rendered message.
+	 * @return The message encoding.
+	 */
+	public static Encoding encode(CharSequence message) {
+		int length = message.length();
+		int septets = 0;
+		char c;
+		for (int i = 0; i < length; i++) {
+			c = message.charAt(i);
+			if (GSM7_BASIC.indexOf(c) > -1) {
+				septets++;
+			} else if (GSM7_EXTENSION.indexOf(c) > -1) {
+				septets += 2;
+			} else {
+				return new Encoding(ENCODING_UCS2, length, countUcs2Segments(message));
+			}
+		}
+		int segments = septets <= GSM7_SINGLE ? 1 : countGsm7Segments(message);
+		return new Encoding(ENCODING_GSM7, septets, Math.max(1, segments));
+	}
+
+	/**
+	 * Count the GSM-7 segments. An extension character is never split
+	 * between two segments, so a segment could hold only 152 septets.
+	 */
+	private static int countGsm7Segments(CharSequence message) {
+		int segments = 1;
+		int used = 0;
+		int size;
+		for (int i = 0; i < message.length(); i++) {
+			size = GSM7_EXTENSION.indexOf(message.charAt(i)) > -1 ? 2 : 1;
+			if (used + size > GSM7_SEGMENT) {
+				segments++;
+				used = 0;
+			}
+			used += size;
+		}
+		return segments;
+	}
+
+	/**
+	 * Count the UCS-2 segments. A surrogate pair is never split between two
+	 * segments.
+	 */
+	private static int countUcs2Segments(CharSequence message) {
+		int length = message.length();
+		if (length <= UCS2_SINGLE) {
+			return 1;
+		}
+		int segments = 1;
+		int used = 0;
+		int size;
+		for (int i = 0; i < length; i += size) {
+			size = Character.isHighSurrogate(message.charAt(i)) && i + 1 < length ? 2 : 1;
+			if (used + size > UCS2_SEGMENT) {
+				segments++;
+				used = 0;
+			}
+			used += size;
+		}
+		return segments;
+	}
+}
@@ -0,0 +1,161 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.sms;
+
+import java.util.ArrayList;
+
+import ro.ciubex.tkconfig.models.OutboxMessage;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.telephony.SmsManager;
+import android.util.Log;
+
+/**
+ * The transport which sends the messages through the system SMS manager. The
+ * reports are delivered by the system to the {@link SmsStatusReceiver}.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class SmsManagerTransport implements SmsTransport {
+	private final static String TAG = SmsManagerTransport.class.getName();
+
+	private final Context mContext;
+	private final SmsManager mSmsManager;
+
+	public SmsManagerTransport(Context context) {
+		mContext = context;
+		mSmsManager = SmsManager.getDefault();
+	}
+
+	@Override
+	public String getName() {
+		return "SmsManager";
+	}
+
+	@Override
+	public boolean isSimulated() {
+		return false;
+	}
+
+	@Override
+	public void send(OutboxMessage message, long historyId) {
+		String phoneNumber = message.getPhoneNumber();
+		String text = message.getMessage();
+		if (SmsEncoder.encode(text).isMultipart()) {
+			sendMultipartSMS(message, historyId);
+		} else {
+			mSmsManager.sendTextMessage(phoneNumber, null, text,
+					getReportIntent(SmsStatusReceiver.ACTION_SMS_SENT, message,
+							historyId, 0, 1),
+					getReportIntent(SmsStatusReceiver.ACTION_SMS_DELIVERED,
+							message, historyId, 0, 1));
+		}
+	}
+
+	/**
+	 * Send a message which does not fit into a single SMS. Each part has its
+	 * own report intents, the message is reported by the
+	 * {@link SmsStatusReceiver} only after all the parts were reported, so a
+	 * failed part is not hidden by the result of the last part.
+	 * 
+	 * @param message
+	 *            The outbox message.
+	 * @param historyId
+	 *            The history event ID of the message.
+	 */
+	private void sendMultipartSMS(OutboxMessage message, long historyId) {
+		String phoneNumber = message.getPhoneNumber();
+		ArrayList<String> parts = mSmsManager.divideMessage(message
+				.getMessage());
+		int size = parts.size();
+		ArrayList<PendingIntent> sentIntents = new ArrayList<PendingIntent>(size);
+		ArrayList<PendingIntent> deliveryIntents = new ArrayList<PendingIntent>(
+				size);
+		for (int i = 0; i < size; i++) {
+			sentIntents.add(getReportIntent(SmsStatusReceiver.ACTION_SMS_SENT,
+					message, historyId, i, size));
+			deliveryIntents.add(getReportIntent(
+					SmsStatusReceiver.ACTION_SMS_DELIVERED, message, historyId,
+					i, size));
+		}
+		Log.i(TAG, "Send to: " + phoneNumber + " a multipart SMS of " + size
+				+ " parts.");
+		mSmsManager.sendMultipartTextMessage(phoneNumber, null, parts,
+				sentIntents, deliveryIntents);
+	}
+
+	/**
+	 * Prepare an unique report intent for a message. The request code is the
+	 * history event ID, which is new for each sending attempt, and the action
+	 * is different for the sent and the delivery reports, so each attempt has
+	 * its own pending intents and a retry does not reuse the extras or the
+	 * consumed intent of the previous attempt. The delivery intent is not
+	 * one-shot, because the network can send intermediate reports before the
+	 * final report. The intent data contains the part index, so the parts of
+	 * a multipart message have distinct intents.
+	 * 
+	 * @param action
+	 *            The report action.
+	 * @param message
+	 *            The outbox message.
+	 * @param historyId
+	 *            The history event ID of the message.
+	 * @param part
+	 *            The index of the message part.
+	 * @param parts
+	 *            The number of message parts.
+	 * @return The report pending intent.
+	 */
+	private PendingIntent getReportIntent(String action, OutboxMessage message,
+			long historyId, int part, int parts) {
+		Intent intent = new Intent(action);
+		intent.setClass(mContext, SmsStatusReceiver.class);
+		intent.setData(Uri.parse("tkconfig://sms/" + historyId + "/" + part));
+		intent.putExtra(SmsStatusReceiver.EXTRA_PART, part);
+		intent.putExtra(SmsStatusReceiver.EXTRA_PARTS, parts);
+		intent.putExtra(SmsStatusReceiver.EXTRA_OUTBOX_ID, message.getId());
+		intent.putExtra(SmsStatusReceiver.EXTRA_HISTORY_ID, historyId);
+		intent.putExtra(SmsStatusReceiver.EXTRA_SIM, SmsRateLimiter.DEFAULT_SIM);
+		return PendingIntent.getBroadcast(mContext,
+				getRequestCode(message, historyId), intent,
+				SmsStatusReceiver.ACTION_SMS_SENT.equals(action) ? PendingIntent.FLAG_ONE_SHOT
+						| PendingIntent.FLAG_UPDATE_CURRENT
+						: PendingIntent.FLAG_UPDATE_CURRENT);
+	}
+
+	/**
+	 * Obtain the request code of the report intents for a sending attempt.
+	 * If the history event was not stored, the outbox message ID and the
+	 * number of retries are used.
+	 * 
+	 * @param message
+	 *            The outbox message.
+	 * @param historyId
+	 *            The history event ID of the message.
+	 * @return The request code.
+	 */
+	private static int getRequestCode(OutboxMessage message, long historyId) {
+		long key = historyId > 0 ? historyId : -(message.getId() * 31 + message
+				.getRetries());
+		return (int) (key ^ (key >>> 32));
+	}
+}
@@ -0,0 +1,383 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.sms;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Token bucket rate limiter for the outgoing SMS. There is a global bucket
+ * and a bucket for each SIM, a message is sent only when both buckets have a
+ * token. The buckets are refilled continuously with the configured rate and
+ * can hold at most the configured burst of messages.
+ * <p>
+ * The limiter adapts to the system SMS usage monitor: when a message is
+ * rejected because the limit was exceeded the rate is halved and the sending
+ * is paused, after that each successfully sent message increases the rate
+ * back, in small steps, up to the configured rate.
+ * <p>
+ * The waiting senders are served in two priority lanes: an urgent sender
+ * takes the next token before the bulk senders, but after a number of
+ * consecutive urgent tokens a waiting bulk sender gets one, so the bulk
+ * traffic is never starved.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class SmsRateLimiter {
+	/**
+	 * The SmsManager result code used when the SMS limit was exceeded. It is
+	 * not part of the public API on the older platforms.
+	 */
+	public static final int RESULT_ERROR_LIMIT_EXCEEDED = 5;
+	public static final String DEFAULT_SIM = "default";
+	public static final long BACKOFF_PAUSE = 60000;
+	public static final int PRIORITY_BULK = 0;
+	public static final int PRIORITY_URGENT = 1;
+	/**
+	 * The maximum number of consecutive urgent tokens while a bulk sender is
+	 * waiting.
+	 */
+	public static final int URGENT_BURST = 4;
+	private static final long YIELD_WAIT = 100;
+	private static final double MIN_FACTOR = 1.0 / 16;
+	private static final double FACTOR_STEP = 1.0 / 32;
+
+	private final Bucket mGlobal = new Bucket();
+	private final Map<String, Bucket> mSimBuckets = new HashMap<String, Bucket>();
+	private int mBurst;
+	private double mSimPerMinute;
+	private double mFactor = 1.0;
+	private long mPausedUntil;
+	private long mLimitExceeded;
+	private long mThrottledTime;
+	private int mUrgentWaiting;
+	private int mBulkWaiting;
+	private int mUrgentStreak;
+	private long mUrgentTokens;
+	private long mBulkTokens;
+
+	public SmsRateLimiter(int burst, double perMinute, double simPerMinute) {
+		configure(burst, perMinute, simPerMinute);
+	}
+
+	/**
+	 * Change the limiter configuration. A zero rate means no limit. The
+	 * buckets are first refilled with the previous rate, so the tokens earned
+	 * until now are kept.
+	 * 
+	 * @param burst
+	 *            The maximum number of messages which could be sent at once.
+	 * @param perMinute
+	 *            The global number of messages per minute.
+	 * @param simPerMinute
+	 *            The number of messages per minute for each SIM.
+	 */
+	public synchronized void configure(int burst, double perMinute,
+			double simPerMinute) {
+		mBurst = Math.max(1, burst);
+		mSimPerMinute = simPerMinute;
+		long now = now();
+		mGlobal.configure(mBurst, perMinute, now, mFactor);
+		for (Bucket bucket : mSimBuckets.values()) {
+			bucket.configure(mBurst, simPerMinute, now, mFactor);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Take a bulk token for a SIM if one is available now.
+	 * 
+	 * @param sim
+	 *            The SIM key.
+	 * @return Zero if the token was taken, otherwise the number of
+	 *         milliseconds until a token will be available.
+	 */
+	public long tryAcquire(String sim) {
+		return tryAcquire(sim, PRIORITY_BULK);
+	}
+
+	/**
+	 * Take a token for a SIM if one is available now and it is the turn of
+	 * the priority lane.
+	 * 
+	 * @param sim
+	 *            The SIM key.
+	 * @param priority
+	 *            The priority lane, PRIORITY_URGENT or PRIORITY_BULK.
+	 * @return Zero if the token was taken, otherwise the number of
+	 *         milliseconds until a token will be available.
+	 */
+	public synchronized long tryAcquire(String sim, int priority) {
+		long now = now();
+		if (mPausedUntil > now) {
+			return mPausedUntil - now;
+		}
+		if (!isTurnOf(priority)) {
+			return YIELD_WAIT;
+		}
+		Bucket simBucket = getSimBucket(sim, now);
+		long wait = Math.max(mGlobal.waitTime(now, mFactor),
+				simBucket.waitTime(now, mFactor));
+		if (wait == 0) {
+			mGlobal.take();
+			simBucket.take();
+			onGranted(priority);
+		}
+		return wait;
+	}
+
+	/**
+	 * Check if the next token belongs to a priority lane. The urgent lane
+	 * goes first, unless it took already URGENT_BURST consecutive tokens
+	 * while a bulk sender was waiting.
+	 * 
+	 * @param priority
+	 *            The priority lane.
+	 * @return True if the lane could take the next token.
+	 */
+	private boolean isTurnOf(int priority) {
+		boolean bulkTurn = mBulkWaiting > 0 && mUrgentStreak >= URGENT_BURST;
+		if (priority == PRIORITY_URGENT) {
+			return !bulkTurn;
+		}
+		return mUrgentWaiting == 0 || bulkTurn;
+	}
+
+	private void onGranted(int priority) {
+		if (priority == PRIORITY_URGENT) {
+			mUrgentTokens++;
+			mUrgentStreak = mBulkWaiting > 0 ? mUrgentStreak + 1 : 0;
+		} else {
+			mBulkTokens++;
+			mUrgentStreak = 0;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Wait for a bulk token for a SIM, but not longer than the provided time.
+	 * 
+	 * @param sim
+	 *            The SIM key.
+	 * @param maxWait
+	 *            The maximum number of milliseconds to wait.
+	 * @return True if the token was taken.
+	 */
+	public boolean acquire(String sim, long maxWait) {
+		return acquire(sim, maxWait, PRIORITY_BULK);
+	}
+
+	/**
+	 * Wait for a token for a SIM, but not longer than the provided time. The
+	 * caller could check for cancellation between two calls.
+	 * 
+	 * @param sim
+	 *            The SIM key.
+	 * @param maxWait
+	 *            The maximum number of milliseconds to wait.
+	 * @param priority
+	 *            The priority lane, PRIORITY_URGENT or PRIORITY_BULK.
+	 * @return True if the token was taken.
+	 */
+	public synchronized boolean acquire(String sim, long maxWait, int priority) {
+		long deadline = now() + maxWait;
+		long wait, remaining;
+		setWaiting(priority, 1);
+		try {
+			while ((wait = tryAcquire(sim, priority)) > 0) {
+				remaining = deadline - now();
+				if (remaining <= 0) {
+					return false;
+				}
+				wait = Math.min(wait, remaining);
+				mThrottledTime += wait;
+				try {
+					wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			setWaiting(priority, -1);
+		}
+	}
+
+	private void setWaiting(int priority, int delta) {
+		if (priority == PRIORITY_URGENT) {
+			mUrgentWaiting += delta;
+		} else {
+			mBulkWaiting += delta;
+		}
+		if (delta < 0) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Take a token without waiting, even if the buckets are empty. This is
+	 * used for the messages sent on the user request, the following messages
+	 * will wait longer.
+	 * 
+	 * @param sim
+	 *            The SIM key.
+	 */
+	public synchronized void consume(String sim) {
+		long now = now();
+		Bucket simBucket = getSimBucket(sim, now);
+		mGlobal.waitTime(now, mFactor);
+		simBucket.waitTime(now, mFactor);
+		mGlobal.take();
+		simBucket.take();
+	}
+
+	/**
+	 * Adapt the rate to the result reported by the system for a sent message.
+	 * 
+	 * @param sim
+	 *            The SIM key.
+	 * @param resultCode
+	 *            The result code of the sent message.
+	 */
+	public synchronized void onSendResult(String sim, int resultCode) {
+		if (resultCode == RESULT_ERROR_LIMIT_EXCEEDED) {
+			long now = now();
+			mLimitExceeded++;
+			mFactor = Math.max(MIN_FACTOR, mFactor / 2);
+			mPausedUntil = now + BACKOFF_PAUSE;
+			mGlobal.drain(now);
+			getSimBucket(sim, now).drain(now);
+		} else if (mFactor < 1.0) {
+			mFactor = Math.min(1.0, mFactor + FACTOR_STEP);
+			notifyAll();
+		}
+	}
+
+	private Bucket getSimBucket(String sim, long now) {
+		Bucket bucket = mSimBuckets.get(sim);
+		if (bucket == null) {
+			bucket = new Bucket();
+			bucket.configure(mBurst, mSimPerMinute, now, mFactor);
+			mSimBuckets.put(sim, bucket);
+		}
+		return bucket;
+	}
+
+	/**
+	 * Obtain the current rate factor, 1 means the configured rate.
+	 * 
+	 * @return The current rate factor.
+	 */
+	public synchronized double getFactor() {
+		return mFactor;
+	}
+
+	/**
+	 * Obtain how many times the system reported that the SMS limit was
+	 * exceeded.
+	 * 
+	 * @return The number of rejected messages.
+	 */
+	public synchronized long getLimitExceeded() {
+		return mLimitExceeded;
+	}
+
+	/**
+	 * Obtain the number of tokens taken by the urgent lane.
+	 * 
+	 * @return The number of urgent tokens.
+	 */
+	public synchronized long getUrgentTokens() {
+		return mUrgentTokens;
+	}
+
+	/**
+	 * Obtain the number of tokens taken by the bulk lane.
+	 * 
+	 * @return The number of bulk tokens.
+	 */
+	public synchronized long getBulkTokens() {
+		return mBulkTokens;
+	}
+
+	/**
+	 * Obtain the total time spent waiting for tokens.
+	 * 
+	 * @return The throttled time in milliseconds.
+	 */
+	public synchronized long getThrottledTime() {
+		return mThrottledTime;
+	}
+
+	private static long now() {
+		return System.nanoTime() / 1000000;
+	}
+
+	/**
+	 * A token bucket.
+	 */
+	private static class Bucket {
+		private double mCapacity;
+		private double mPerMillisecond;
+		private double mTokens;
+		private long mLastRefill;
+		private boolean mConfigured;
+
+		void configure(int capacity, double perMinute, long now,
+				double factor) {
+			if (mConfigured) {
+				waitTime(now, factor);
+			}
+			mCapacity = capacity;
+			mPerMillisecond = perMinute / 60000;
+			mTokens = mConfigured ? Math.min(mTokens, capacity) : capacity;
+			mLastRefill = now;
+			mConfigured = true;
+		}
+
+		/**
+		 * Refill the bucket and compute the time until a token is available.
+		 */
+		long waitTime(long now, double factor) {
+			if (mPerMillisecond <= 0) {
+				return 0;
+			}
+			double rate = mPerMillisecond * factor;
+			mTokens = Math.min(mCapacity, mTokens + (now - mLastRefill) * rate);
+			mLastRefill = now;
+			if (mTokens >= 1) {
+				return 0;
+			}
+			return (long) Math.ceil((1 - mTokens) / rate);
+		}
+
+		void take() {
+			if (mPerMillisecond > 0) {
+				mTokens--;
+			}
+		}
+
+		void drain(long now) {
+			mTokens = 0;
+			mLastRefill = now;
+		}
+	}
+}
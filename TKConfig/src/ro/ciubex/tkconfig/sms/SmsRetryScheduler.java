@@ -0,0 +1,117 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.sms;
+
+import java.util.Random;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.telephony.SmsManager;
+
+/**
+ * Scheduler for the retries of the failed messages. The retries are delayed
+ * with an exponential backoff and a random jitter, so the messages failed at
+ * the same time, e.g. while the radio was off, are not retried together.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class SmsRetryScheduler {
+	private final static String TAG = SmsRetryScheduler.class.getName();
+	public static final int MAX_RETRIES = 3;
+	public static final long BASE_DELAY = 30 * 1000L;
+	public static final long MAX_DELAY = 30 * 60 * 1000L;
+
+	/**
+	 * The retry executor, invoked on the scheduler thread.
+	 */
+	public interface Executor {
+		public void retrySMS(long outboxId);
+	}
+
+	private final Executor mExecutor;
+	private final Handler mHandler;
+	private final Random mRandom = new Random();
+
+	public SmsRetryScheduler(Executor executor) {
+		mExecutor = executor;
+		HandlerThread thread = new HandlerThread(TAG,
+				Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		mHandler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Check if a sent result code is a transient failure which could be
+	 * retried.
+	 * 
+	 * @param resultCode
+	 *            The sent result code.
+	 * @return True if the message could be sent again.
+	 */
+	public static boolean isRetryable(int resultCode) {
+		switch (resultCode) {
+		case SmsManager.RESULT_ERROR_GENERIC_FAILURE:
+		case SmsManager.RESULT_ERROR_RADIO_OFF:
+		case SmsManager.RESULT_ERROR_NO_SERVICE:
+		case SmsRateLimiter.RESULT_ERROR_LIMIT_EXCEEDED:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Schedule a retry of an outbox message.
+	 * 
+	 * @param outboxId
+	 *            The outbox message ID.
+	 * @param retry
+	 *            The retry number, starting from 1.
+	 * @return The delay of the retry, in milliseconds.
+	 */
+	public long schedule(final long outboxId, int retry) {
+		long delay = getDelay(retry);
+		mHandler.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				mExecutor.retrySMS(outboxId);
+			}
+		}, delay);
+		return delay;
+	}
+
+	/**
+	 * Compute the delay of a retry: the base delay is doubled for each retry,
+	 * up to the maximum delay, and a random value from zero to the half of the
+	 * delay is subtracted.
+	 * 
+	 * @param retry
+	 *            The retry number, starting from 1.
+	 * @return The delay in milliseconds.
+	 */
+	long getDelay(int retry) {
+		int shift = Math.min(Math.max(0, retry - 1), 16);
+		long delay = Math.min(BASE_DELAY << shift, MAX_DELAY);
+		synchronized (mRandom) {
+			return delay - (long) (mRandom.nextDouble() * delay / 2);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.sms;
+
+import ro.ciubex.tkconfig.TKConfigApplication;
+import android.app.Activity;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.telephony.SmsMessage;
+import android.util.Log;
+
+/**
+ * Receiver for the sent and delivery reports of the SMS. Each sent message
+ * has its own report intents, identified by the outbox message ID and the
+ * history event ID. Each part of a multipart message has its own report, the
+ * message is reported after all its parts.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class SmsStatusReceiver extends BroadcastReceiver {
+	private final static String TAG = SmsStatusReceiver.class.getName();
+	public static final String ACTION_SMS_SENT = "ro.ciubex.tkconfig.SMS_SENT";
+	public static final String ACTION_SMS_DELIVERED = "ro.ciubex.tkconfig.SMS_DELIVERED";
+	public static final String EXTRA_OUTBOX_ID = "outboxId";
+	public static final String EXTRA_HISTORY_ID = "historyId";
+	public static final String EXTRA_SIM = "sim";
+	public static final String EXTRA_PART = "part";
+	public static final String EXTRA_PARTS = "parts";
+	public static final int RESULT_OK = Activity.RESULT_OK;
+	public static final int STATUS_UNKNOWN = -1;
+	public static final int DELIVERY_DELIVERED = 0;
+	public static final int DELIVERY_PENDING = 1;
+	public static final int DELIVERY_FAILED = 2;
+	private static final MultipartReports PARTS = new MultipartReports();
+
+	/**
+	 * Called when a status report is received.
+	 * 
+	 * @param context
+	 *            The context in which the receiver is running.
+	 * @param intent
+	 *            The report intent.
+	 */
+	@Override
+	public void onReceive(Context context, Intent intent) {
+		TKConfigApplication application = (TKConfigApplication) context
+				.getApplicationContext();
+		long outboxId = intent.getLongExtra(EXTRA_OUTBOX_ID, -1);
+		long historyId = intent.getLongExtra(EXTRA_HISTORY_ID, -1);
+		int parts = intent.getIntExtra(EXTRA_PARTS, 1);
+		String action = intent.getAction();
+		if (ACTION_SMS_SENT.equals(action)) {
+			int resultCode = getResultCode();
+			if (PARTS.onPartReport(action, historyId, parts,
+					resultCode == RESULT_OK)) {
+				application.onSmsSent(outboxId, historyId,
+						intent.getStringExtra(EXTRA_SIM), resultCode);
+			}
+		} else if (ACTION_SMS_DELIVERED.equals(action)) {
+			int status = getDeliveryStatus(intent);
+			int state = getDeliveryState(status);
+			if (state == DELIVERY_PENDING
+					|| PARTS.onPartReport(action, historyId, parts,
+							state == DELIVERY_DELIVERED)) {
+				application.onSmsDelivered(outboxId, historyId, status);
+			}
+		}
+	}
+
+	/**
+	 * Obtain the status from the delivery report PDU.
+	 * 
+	 * @param intent
+	 *            The delivery report intent.
+	 * @return The delivery status or -1 if it could not be read.
+	 */
+	private int getDeliveryStatus(Intent intent) {
+		byte[] pdu = intent.getByteArrayExtra("pdu");
+		if (pdu != null) {
+			try {
+				SmsMessage message = SmsMessage.createFromPdu(pdu);
+				if (message != null) {
+					return message.getStatus();
+				}
+			} catch (RuntimeException e) {
+				Log.e(TAG, "getDeliveryStatus: " + e.getMessage(), e);
+			}
+		}
+		return STATUS_UNKNOWN;
+	}
+
+	/**
+	 * Classify a delivery status. For GSM the values below 0x20 mean that the
+	 * message was received, the values from 0x20 to 0x3F are temporary errors
+	 * while the network is still trying to deliver the message, and the
+	 * values from 0x40 are final failures. A status which could not be read
+	 * is considered pending, a final report could follow.
+	 * 
+	 * @param status
+	 *            The delivery status.
+	 * @return DELIVERY_DELIVERED, DELIVERY_PENDING or DELIVERY_FAILED.
+	 */
+	public static int getDeliveryState(int status) {
+		if (status == STATUS_UNKNOWN || (status >= 0x20 && status < 0x40)) {
+			return DELIVERY_PENDING;
+		}
+		return status >= 0 && status < 0x20 ? DELIVERY_DELIVERED
+				: DELIVERY_FAILED;
+	}
+
+	/**
+	 * Check if a delivery status means that the message was delivered.
+	 * 
+	 * @param status
+	 *            The delivery status.
+	 * @return True if the message was delivered.
+	 */
+	public static boolean isDelivered(int status) {
+		return getDeliveryState(status) == DELIVERY_DELIVERED;
+	}
+}
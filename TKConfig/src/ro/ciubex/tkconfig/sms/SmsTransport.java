@@ -0,0 +1,69 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.sms;
+
+import ro.ciubex.tkconfig.models.OutboxMessage;
+
+/**
+ * The transport used to hand the outbox messages to the network. The sent
+ * and delivery results are reported asynchronously to a
+ * {@link ReportListener}.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public interface SmsTransport {
+
+	/**
+	 * The listener of the sent and delivery reports.
+	 */
+	public interface ReportListener {
+		public void onSmsSent(long outboxId, long historyId, String sim,
+				int resultCode);
+
+		public void onSmsDelivered(long outboxId, long historyId, int status);
+	}
+
+	/**
+	 * Obtain the transport name.
+	 * 
+	 * @return The transport name.
+	 */
+	public String getName();
+
+	/**
+	 * Check if the messages are really sent or only simulated.
+	 * 
+	 * @return True if the messages does not leave the device.
+	 */
+	public boolean isSimulated();
+
+	/**
+	 * Hand a message to the transport. The method returns after the hand-off,
+	 * the results are reported later.
+	 * 
+	 * @param message
+	 *            The outbox message to be sent.
+	 * @param historyId
+	 *            The history event ID of the message.
+	 * @throws RuntimeException
+	 *             If the message could not be handed to the transport.
+	 */
+	public void send(OutboxMessage message, long historyId);
+}
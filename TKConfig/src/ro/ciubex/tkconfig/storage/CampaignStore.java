@@ -0,0 +1,117 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.storage;
+
+import java.util.List;
+
+import ro.ciubex.tkconfig.models.Campaign;
+import ro.ciubex.tkconfig.models.GpsContact;
+
+/**
+ * Define the operations used to persist the campaigns and their target
+ * contacts. The campaign progress is stored as a checkpoint, the ID of the
+ * last processed target contact, so a campaign can be resumed after the
+ * application is restarted.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public interface CampaignStore {
+
+	/**
+	 * Store a new campaign with the selected GPS contacts as targets.
+	 * 
+	 * @param campaign
+	 *            The campaign to be stored, its ID and number of targets are
+	 *            updated.
+	 * @return The store ID of the campaign or -1 if it was not stored.
+	 */
+	public long create(Campaign campaign);
+
+	/**
+	 * Load a page of target contacts, using the contact ID to find the page
+	 * start. The removed GPS contacts are not loaded.
+	 * 
+	 * @param campaignId
+	 *            The campaign ID.
+	 * @param afterContactId
+	 *            The ID of the last processed contact or -1 for the first
+	 *            page.
+	 * @param limit
+	 *            The maximum number of contacts to load.
+	 * @return The list of target contacts.
+	 */
+	public List<GpsContact> loadTargets(long campaignId, long afterContactId,
+			int limit);
+
+	/**
+	 * Store the campaign state and progress.
+	 * 
+	 * @param campaign
+	 *            The campaign.
+	 * @return True if the campaign was stored.
+	 */
+	public boolean checkpoint(Campaign campaign);
+
+	/**
+	 * Run a work and store the campaign progress in the same transaction, so
+	 * the progress is stored only if the work was completed.
+	 * 
+	 * @param campaign
+	 *            The campaign.
+	 * @param work
+	 *            The work to be done in the transaction, e.g. to queue the
+	 *            wave messages on the outbox.
+	 */
+	public void checkpoint(Campaign campaign, Runnable work);
+
+	/**
+	 * Find a campaign by its ID.
+	 * 
+	 * @param id
+	 *            The campaign ID.
+	 * @return The campaign or null if it was not found.
+	 */
+	public Campaign find(long id);
+
+	/**
+	 * Load the campaigns with a state, in the order they were created.
+	 * 
+	 * @param state
+	 *            The campaign state.
+	 * @return The list of campaigns.
+	 */
+	public List<Campaign> load(int state);
+
+	/**
+	 * Load all campaigns, the newest first.
+	 * 
+	 * @return The list of campaigns.
+	 */
+	public List<Campaign> loadAll();
+
+	/**
+	 * Remove a campaign and its target contacts.
+	 * 
+	 * @param id
+	 *            The campaign ID.
+	 * @return True if the campaign was removed.
+	 */
+	public boolean remove(long id);
+}
@@ -0,0 +1,300 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import ro.ciubex.tkconfig.models.Command;
+import ro.ciubex.tkconfig.models.ParameterSchema;
+import android.content.res.AssetManager;
+import android.util.Log;
+import android.util.Xml;
+
+/**
+ * Catalog of the command packs shipped on the application assets. Each
+ * tracker model has its own pack, stored as a XML file on the commands assets
+ * folder. The models index is obtained from the file names, without parsing
+ * the packs, and only the pack of the requested model is parsed. The pack is
+ * streamed, each command is given to the listener as soon as it is parsed.
+ * <p>
+ * A pack can declare the parameters schemas of its tracker model with
+ * &lt;param&gt; elements placed before the commands, or the schemas of a
+ * single command with &lt;param&gt; elements inside the command, e.g.
+ * &lt;param name="speed" type="integer" min="1" max="255"/&gt;. These
+ * schemas replace the default schemas of the parameters.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class CommandCatalog {
+	private final static String TAG = CommandCatalog.class.getName();
+	public static final String FOLDER = "commands";
+	private static final String EXTENSION = ".xml";
+	private static final String TAG_COMMAND = "command";
+	private static final String ATTR_NAME = "name";
+	private static final String ATTR_TEMPLATE = "template";
+	private static final String ATTR_PRIORITY = "priority";
+	private static final String PRIORITY_URGENT = "urgent";
+	private static final String TAG_PARAM = "param";
+	private static final String ATTR_TYPE = "type";
+	private static final String ATTR_MIN = "min";
+	private static final String ATTR_MAX = "max";
+	private static final String ATTR_WIDTH = "width";
+	private static final String TYPE_INTEGER = "integer";
+	private static final String TYPE_TOKEN = "token";
+	private static final String TYPE_PHONE = "phone";
+	private static final String TYPE_IP_ADDRESS = "ip-address";
+
+	/**
+	 * The listener should implement this interface
+	 */
+	public interface Listener {
+		public void onCommand(Command command);
+	}
+
+	private final AssetManager mAssets;
+	private List<String> mModels;
+	private String mSchemasModel;
+	private Map<String, ParameterSchema> mSchemas;
+
+	public CommandCatalog(AssetManager assets) {
+		mAssets = assets;
+	}
+
+	/**
+	 * Obtain the tracker models with command packs. The index is built only
+	 * once, from the assets file names.
+	 * 
+	 * @return The sorted list of tracker models.
+	 */
+	public synchronized List<String> getModels() {
+		if (mModels == null) {
+			List<String> models = new ArrayList<String>();
+			try {
+				String[] files = mAssets.list(FOLDER);
+				if (files != null) {
+					for (String file : files) {
+						if (file.endsWith(EXTENSION)) {
+							models.add(file.substring(0, file.length()
+									- EXTENSION.length()));
+						}
+					}
+				}
+			} catch (IOException e) {
+				Log.e(TAG, "Exception: " + e.getMessage(), e);
+			}
+			Collections.sort(models);
+			mModels = Collections.unmodifiableList(models);
+		}
+		return mModels;
+	}
+
+	/**
+	 * Check if there is a command pack for a tracker model.
+	 * 
+	 * @param model
+	 *            The tracker model.
+	 * @return True if the model has a command pack.
+	 */
+	public boolean hasModel(String model) {
+		return getModels().contains(model);
+	}
+
+	/**
+	 * Obtain the schema declared by the pack of a tracker model for a command
+	 * parameter. The schemas of the last used model are kept, so the pack is
+	 * parsed again only when the model is changed.
+	 * 
+	 * @param model
+	 *            The tracker model.
+	 * @param commandName
+	 *            The command name.
+	 * @param parameter
+	 *            The parameter name.
+	 * @return The declared schema or null if the pack does not declare a
+	 *         schema for the parameter.
+	 */
+	public synchronized ParameterSchema getSchema(String model,
+			String commandName, String parameter) {
+		if (!model.equals(mSchemasModel)) {
+			mSchemas = null;
+			if (hasModel(model)) {
+				try {
+					load(model, null);
+				} catch (IOException e) {
+					Log.e(TAG, "Exception: " + e.getMessage(), e);
+				} catch (XmlPullParserException e) {
+					Log.e(TAG, "Exception: " + e.getMessage(), e);
+				}
+			}
+			mSchemasModel = model;
+		}
+		if (mSchemas == null) {
+			return null;
+		}
+		ParameterSchema schema = mSchemas.get(getSchemaKey(commandName,
+				parameter));
+		return schema != null ? schema : mSchemas.get(parameter);
+	}
+
+	/**
+	 * Prepare the key of a command parameter schema, the model schemas are
+	 * stored by the parameter name.
+	 */
+	private static String getSchemaKey(String commandName, String parameter) {
+		return commandName + '?' + parameter;
+	}
+
+	/**
+	 * Parse the command pack of a tracker model. The parameters schemas
+	 * declared by the pack are set on the parsed commands.
+	 * 
+	 * @param model
+	 *            The tracker model.
+	 * @param listener
+	 *            The listener which receive the parsed commands, could be
+	 *            null if only the schemas are needed.
+	 * @return The number of parsed commands.
+	 * @throws IOException
+	 *             If the pack can not be read.
+	 * @throws XmlPullParserException
+	 *             If the pack is not valid.
+	 */
+	public synchronized int load(String model, Listener listener)
+			throws IOException, XmlPullParserException {
+		long start = System.nanoTime();
+		int count = 0;
+		InputStream in = mAssets.open(FOLDER + '/' + model + EXTENSION);
+		try {
+			XmlPullParser parser = Xml.newPullParser();
+			parser.setInput(in, "UTF-8");
+			Map<String, ParameterSchema> schemas = new HashMap<String, ParameterSchema>();
+			String name, template;
+			Command command = null;
+			StringBuilder description = new StringBuilder();
+			ParameterSchema schema;
+			int event = parser.getEventType();
+			while (event != XmlPullParser.END_DOCUMENT) {
+				if (event == XmlPullParser.START_TAG
+						&& TAG_COMMAND.equals(parser.getName())) {
+					name = parser.getAttributeValue(null, ATTR_NAME);
+					template = parser.getAttributeValue(null, ATTR_TEMPLATE);
+					if (name != null && template != null) {
+						command = new Command(name, template, null);
+						command.setUrgent(PRIORITY_URGENT.equals(parser
+								.getAttributeValue(null, ATTR_PRIORITY)));
+						description.setLength(0);
+					}
+				} else if (event == XmlPullParser.START_TAG
+						&& TAG_PARAM.equals(parser.getName())) {
+					name = parser.getAttributeValue(null, ATTR_NAME);
+					schema = parseSchema(parser);
+					if (name != null && schema != null) {
+						schemas.put(command != null ? getSchemaKey(
+								command.getName(), name) : name, schema);
+					}
+				} else if (event == XmlPullParser.TEXT && command != null) {
+					description.append(parser.getText());
+				} else if (event == XmlPullParser.END_TAG
+						&& TAG_COMMAND.equals(parser.getName())
+						&& command != null) {
+					command.setDescription(description.toString().trim());
+					for (String parameter : command.getParameters()) {
+						schema = schemas.get(getSchemaKey(command.getName(),
+								parameter));
+						if (schema == null) {
+							schema = schemas.get(parameter);
+						}
+						if (schema != null) {
+							command.setParameterSchema(parameter, schema);
+						}
+					}
+					if (listener != null) {
+						listener.onCommand(command);
+					}
+					command = null;
+					count++;
+				}
+				event = parser.next();
+			}
+			mSchemasModel = model;
+			mSchemas = schemas;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				Log.e(TAG, "Exception: " + e.getMessage(), e);
+			}
+		}
+		Log.d(TAG, "Command pack " + model + " loaded in "
+				+ (System.nanoTime() - start) / 1000 + " us: " + count
+				+ " commands.");
+		return count;
+	}
+
+	/**
+	 * Create the schema declared by a param element.
+	 * 
+	 * @param parser
+	 *            The parser positioned on the param element.
+	 * @return The schema or null if the schema type is not known.
+	 */
+	private ParameterSchema parseSchema(XmlPullParser parser) {
+		String type = parser.getAttributeValue(null, ATTR_TYPE);
+		int min = parseInt(parser.getAttributeValue(null, ATTR_MIN), 0);
+		int max = parseInt(parser.getAttributeValue(null, ATTR_MAX),
+				Integer.MAX_VALUE);
+		int width = parseInt(parser.getAttributeValue(null, ATTR_WIDTH), 0);
+		if (TYPE_INTEGER.equals(type)) {
+			return width > 0 ? ParameterSchema.fixedInteger(width, min, max)
+					: ParameterSchema.integer(min, max);
+		} else if (TYPE_TOKEN.equals(type)) {
+			return ParameterSchema.token(max);
+		} else if (TYPE_PHONE.equals(type)) {
+			return ParameterSchema.phone();
+		} else if (TYPE_IP_ADDRESS.equals(type)) {
+			return ParameterSchema.ipAddress();
+		}
+		Log.w(TAG, "Unknown parameter schema type: " + type);
+		return null;
+	}
+
+	/**
+	 * Parse an integer attribute value.
+	 */
+	private static int parseInt(String value, int defaultValue) {
+		if (value != null) {
+			try {
+				return Integer.parseInt(value.trim());
+			} catch (NumberFormatException e) {
+				Log.w(TAG, "Invalid number: " + value);
+			}
+		}
+		return defaultValue;
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.storage;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+/**
+ * This is the SQLite helper used to create and upgrade the application
+ * database.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class DatabaseHelper extends SQLiteOpenHelper {
+	private final static String TAG = DatabaseHelper.class.getName();
+	private static final String DATABASE_NAME = "tkconfig.db";
+	private static final int DATABASE_VERSION = 7;
+
+	public DatabaseHelper(Context context) {
+		super(context, DATABASE_NAME, null, DATABASE_VERSION);
+	}
+
+	/**
+	 * Called when the database is created for the first time.
+	 * 
+	 * @param db
+	 *            The database.
+	 */
+	@Override
+	public void onCreate(SQLiteDatabase db) {
+		SQLiteHistoryStore.createTables(db);
+		SQLiteGpsContactStore.createTables(db);
+		SQLiteOutboxStore.createTables(db);
+		SQLiteCampaignStore.createTables(db);
+	}
+
+	/**
+	 * Called when the database needs to be upgraded.
+	 * 
+	 * @param db
+	 *            The database.
+	 * @param oldVersion
+	 *            The old database version.
+	 * @param newVersion
+	 *            The new database version.
+	 */
+	@Override
+	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		Log.i(TAG, "Upgrade database from " + oldVersion + " to " + newVersion);
+		if (oldVersion < 2) {
+			SQLiteGpsContactStore.createTables(db);
+		}
+		if (oldVersion < 3) {
+			SQLiteOutboxStore.createTables(db);
+		}
+		if (oldVersion < 4) {
+			SQLiteHistoryStore.addReportColumns(db);
+		}
+		// the tables created above have already the new columns
+		if (oldVersion >= 2 && oldVersion < 5) {
+			SQLiteGpsContactStore.addFailuresColumns(db);
+		}
+		if (oldVersion >= 3 && oldVersion < 5) {
+			SQLiteOutboxStore.addRetriesColumn(db);
+		}
+		if (oldVersion < 6) {
+			SQLiteCampaignStore.createTables(db);
+		}
+		if (oldVersion == 6) {
+			SQLiteCampaignStore.addDuplicatesColumn(db);
+		}
+	}
+
+	/**
+	 * Obtain the database size in bytes, computed from the number of pages.
+	 * 
+	 * @return The database size in bytes.
+	 */
+	public long getDatabaseSize() {
+		SQLiteDatabase db = getReadableDatabase();
+		return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+				* DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+	}
+
+	/**
+	 * Obtain the size in bytes of the unused database pages, which could be
+	 * reclaimed by a vacuum.
+	 * 
+	 * @return The free size in bytes.
+	 */
+	public long getFreeSize() {
+		SQLiteDatabase db = getReadableDatabase();
+		return DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null)
+				* DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+	}
+
+	/**
+	 * Rebuild the database file to release the unused pages.
+	 */
+	public void vacuum() {
+		getWritableDatabase().execSQL("VACUUM");
+	}
+}
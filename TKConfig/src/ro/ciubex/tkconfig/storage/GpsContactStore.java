@@ -0,0 +1,138 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.storage;
+
+import java.util.Collection;
+import java.util.List;
+
+import ro.ciubex.tkconfig.models.GpsContact;
+
+/**
+ * Define the operations used to persist the GPS contacts (the trackers). The
+ * store keeps a single contact for each normalized phone number.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public interface GpsContactStore {
+
+	/**
+	 * Insert or update a GPS contact. A new contact with the phone number of
+	 * an existing contact updates the existing contact.
+	 * 
+	 * @param contact
+	 *            The GPS contact to be stored.
+	 * @return The store ID of the contact or -1 if it was not stored.
+	 */
+	public long upsert(GpsContact contact);
+
+	/**
+	 * Insert or update a list of GPS contacts in a single transaction.
+	 * 
+	 * @param contacts
+	 *            The GPS contacts to be stored.
+	 */
+	public void upsertAll(Collection<GpsContact> contacts);
+
+	/**
+	 * Remove a GPS contact from the store.
+	 * 
+	 * @param contact
+	 *            The GPS contact to be removed.
+	 * @return True if the contact was removed.
+	 */
+	public boolean remove(GpsContact contact);
+
+	/**
+	 * Store the circuit breaker state of a GPS contact.
+	 * 
+	 * @param contact
+	 *            The GPS contact.
+	 * @return True if the state was stored.
+	 */
+	public boolean updateFailures(GpsContact contact);
+
+	/**
+	 * Find a GPS contact by phone number, using the normalized phone index.
+	 * 
+	 * @param phoneNumber
+	 *            The phone number.
+	 * @return The GPS contact or null if there is no contact with the phone
+	 *         number.
+	 */
+	public GpsContact findByPhone(String phoneNumber);
+
+	/**
+	 * Obtain the number of selected GPS contacts.
+	 * 
+	 * @return The number of selected GPS contacts.
+	 */
+	public int countSelected();
+
+	/**
+	 * Load only the selected GPS contacts.
+	 * 
+	 * @return The list of selected GPS contacts.
+	 */
+	public List<GpsContact> loadSelected();
+
+	/**
+	 * Load a page of selected GPS contacts, in the order they were added. The
+	 * page starts after the contact with the provided ID, so the selection can
+	 * be streamed without loading all contacts.
+	 * 
+	 * @param afterId
+	 *            The ID of the last contact from the previous page or -1 for
+	 *            the first page.
+	 * @param limit
+	 *            The maximum number of contacts to load.
+	 * @return The list of selected GPS contacts.
+	 */
+	public List<GpsContact> loadSelected(long afterId, int limit);
+
+	/**
+	 * Obtain the IDs of the selected GPS contacts, used to take a snapshot of
+	 * the selection when a sending is started.
+	 * 
+	 * @return The IDs of the selected GPS contacts, in the order they were
+	 *         added.
+	 */
+	public long[] loadSelectedIds();
+
+	/**
+	 * Load the GPS contacts with the IDs from a range of an array. The
+	 * contacts removed meanwhile are not returned.
+	 * 
+	 * @param ids
+	 *            The IDs of the GPS contacts.
+	 * @param start
+	 *            The start position on the IDs array, inclusive.
+	 * @param end
+	 *            The end position on the IDs array, exclusive.
+	 * @return The list of GPS contacts.
+	 */
+	public List<GpsContact> load(long[] ids, int start, int end);
+
+	/**
+	 * Load all GPS contacts, in the order they were added.
+	 * 
+	 * @return The list of GPS contacts.
+	 */
+	public List<GpsContact> loadAll();
+}
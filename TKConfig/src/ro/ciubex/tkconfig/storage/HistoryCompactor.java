@@ -0,0 +1,180 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.storage;
+
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Background compactor of the history store. It applies the retention policy
+ * and rebuilds the database file when enough space could be reclaimed. The
+ * number of evicted events and the reclaimed bytes are recorded on the
+ * application preferences.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class HistoryCompactor {
+	private final static String TAG = HistoryCompactor.class.getName();
+	public static final long DEFAULT_DELAY = 2000;
+	public static final long VACUUM_THRESHOLD = 256 * 1024;
+
+	public static final String KEY_LAST_COMPACTION = "historyLastCompaction";
+	public static final String KEY_LAST_EVICTED = "historyLastEvicted";
+	public static final String KEY_LAST_RECLAIMED = "historyLastReclaimed";
+	public static final String KEY_TOTAL_EVICTED = "historyTotalEvicted";
+	public static final String KEY_TOTAL_RECLAIMED = "historyTotalReclaimed";
+
+	private final HistoryStore mStore;
+	private final DatabaseHelper mDatabaseHelper;
+	private final PersistenceScheduler mPersistenceScheduler;
+	private final Handler mHandler;
+	private HistoryRetentionPolicy mPolicy;
+	private boolean mForceVacuum;
+
+	private final Runnable mCompactTask = new Runnable() {
+		@Override
+		public void run() {
+			HistoryRetentionPolicy policy;
+			boolean forceVacuum;
+			synchronized (HistoryCompactor.this) {
+				policy = mPolicy;
+				forceVacuum = mForceVacuum;
+				mForceVacuum = false;
+			}
+			compact(policy, forceVacuum);
+		}
+	};
+
+	public HistoryCompactor(HistoryStore store, DatabaseHelper databaseHelper,
+			PersistenceScheduler persistenceScheduler) {
+		mStore = store;
+		mDatabaseHelper = databaseHelper;
+		mPersistenceScheduler = persistenceScheduler;
+		HandlerThread thread = new HandlerThread(TAG,
+				Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		mHandler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Schedule a compaction on the background thread. Multiple requests made
+	 * within the delay are coalesced in a single compaction.
+	 * 
+	 * @param policy
+	 *            The retention policy to be applied.
+	 * @param forceVacuum
+	 *            True if the database should be rebuilt even if the free space
+	 *            is below the threshold.
+	 */
+	public void schedule(HistoryRetentionPolicy policy, boolean forceVacuum) {
+		synchronized (this) {
+			mPolicy = policy;
+			mForceVacuum |= forceVacuum;
+		}
+		mHandler.removeCallbacks(mCompactTask);
+		mHandler.postDelayed(mCompactTask, forceVacuum ? 0 : DEFAULT_DELAY);
+	}
+
+	/**
+	 * Apply the retention policy and reclaim the free space. This method
+	 * should be invoked from a background thread.
+	 * 
+	 * @param policy
+	 *            The retention policy to be applied.
+	 * @param forceVacuum
+	 *            True if the database should be rebuilt even if the free space
+	 *            is below the threshold.
+	 */
+	public void compact(HistoryRetentionPolicy policy, boolean forceVacuum) {
+		int evicted = 0;
+		long reclaimed = 0;
+		try {
+			long sizeBefore = mDatabaseHelper.getDatabaseSize();
+			evicted = mStore.evict(policy, System.currentTimeMillis());
+			long freeSize = mDatabaseHelper.getFreeSize();
+			if (freeSize >= VACUUM_THRESHOLD || (forceVacuum && freeSize > 0)) {
+				mDatabaseHelper.vacuum();
+				reclaimed = Math.max(0,
+						sizeBefore - mDatabaseHelper.getDatabaseSize());
+			}
+		} catch (SQLiteException e) {
+			Log.e(TAG, "compact: " + e.getMessage(), e);
+		}
+		if (evicted > 0 || reclaimed > 0) {
+			PersistenceScheduler.Batch editor = mPersistenceScheduler.edit();
+			editor.putLong(KEY_LAST_COMPACTION, System.currentTimeMillis());
+			editor.putInt(KEY_LAST_EVICTED, evicted);
+			editor.putLong(KEY_LAST_RECLAIMED, reclaimed);
+			editor.putLong(KEY_TOTAL_EVICTED, getTotalEvicted() + evicted);
+			editor.putLong(KEY_TOTAL_RECLAIMED, getTotalReclaimed() + reclaimed);
+			editor.commit();
+			Log.i(TAG, "Evicted " + evicted + " history events, reclaimed "
+					+ reclaimed + " bytes with " + policy);
+		}
+	}
+
+	/**
+	 * Obtain the time of the last compaction which changed the store.
+	 * 
+	 * @return The last compaction time, or zero if none.
+	 */
+	public long getLastCompaction() {
+		return mPersistenceScheduler.getLong(KEY_LAST_COMPACTION, 0L);
+	}
+
+	/**
+	 * Obtain the number of history events evicted by the last compaction.
+	 * 
+	 * @return The number of evicted events.
+	 */
+	public int getLastEvicted() {
+		return mPersistenceScheduler.getInt(KEY_LAST_EVICTED, 0);
+	}
+
+	/**
+	 * Obtain the number of bytes reclaimed by the last compaction.
+	 * 
+	 * @return The number of reclaimed bytes.
+	 */
+	public long getLastReclaimed() {
+		return mPersistenceScheduler.getLong(KEY_LAST_RECLAIMED, 0L);
+	}
+
+	/**
+	 * Obtain the total number of evicted history events.
+	 * 
+	 * @return The total number of evicted events.
+	 */
+	public long getTotalEvicted() {
+		return mPersistenceScheduler.getLong(KEY_TOTAL_EVICTED, 0L);
+	}
+
+	/**
+	 * Obtain the total number of reclaimed bytes.
+	 * 
+	 * @return The total number of reclaimed bytes.
+	 */
+	public long getTotalReclaimed() {
+		return mPersistenceScheduler.getLong(KEY_TOTAL_RECLAIMED, 0L);
+	}
+}
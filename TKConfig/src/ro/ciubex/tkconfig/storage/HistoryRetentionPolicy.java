@@ -0,0 +1,96 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.storage;
+
+/**
+ * The retention rules applied on the history store. A zero value means that
+ * the corresponding rule is disabled.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class HistoryRetentionPolicy {
+	private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+	private final int mMaxEntries;
+	private final int mMaxAgeDays;
+	private final int mMaxEntriesPerPhone;
+
+	public HistoryRetentionPolicy(int maxEntries, int maxAgeDays,
+			int maxEntriesPerPhone) {
+		mMaxEntries = Math.max(0, maxEntries);
+		mMaxAgeDays = Math.max(0, maxAgeDays);
+		mMaxEntriesPerPhone = Math.max(0, maxEntriesPerPhone);
+	}
+
+	/**
+	 * Obtain the maximum number of history events to be kept.
+	 * 
+	 * @return The maximum number of events, or zero for no limit.
+	 */
+	public int getMaxEntries() {
+		return mMaxEntries;
+	}
+
+	/**
+	 * Obtain the maximum age in days of the history events.
+	 * 
+	 * @return The maximum age in days, or zero for no limit.
+	 */
+	public int getMaxAgeDays() {
+		return mMaxAgeDays;
+	}
+
+	/**
+	 * Obtain the maximum number of history events kept for one tracker phone
+	 * number.
+	 * 
+	 * @return The maximum number of events per tracker, or zero for no limit.
+	 */
+	public int getMaxEntriesPerPhone() {
+		return mMaxEntriesPerPhone;
+	}
+
+	/**
+	 * Obtain the oldest date time allowed by this policy.
+	 * 
+	 * @param now
+	 *            The current time in milliseconds.
+	 * @return The oldest allowed date time, or zero if the age is not limited.
+	 */
+	public long getOldestDateTime(long now) {
+		return mMaxAgeDays > 0 ? now - mMaxAgeDays * DAY_MILLIS : 0;
+	}
+
+	/**
+	 * Check if at least one retention rule is enabled.
+	 * 
+	 * @return True if this policy could evict history events.
+	 */
+	public boolean isEnabled() {
+		return mMaxEntries > 0 || mMaxAgeDays > 0 || mMaxEntriesPerPhone > 0;
+	}
+
+	@Override
+	public String toString() {
+		return "HistoryRetentionPolicy [maxEntries=" + mMaxEntries
+				+ ", maxAgeDays=" + mMaxAgeDays + ", maxEntriesPerPhone="
+				+ mMaxEntriesPerPhone + "]";
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.storage;
+
+import java.util.List;
+
+import ro.ciubex.tkconfig.models.History;
+
+/**
+ * Define the operations used to persist the history events.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public interface HistoryStore {
+
+	/**
+	 * The listener of a store scan, which receives the history events one by
+	 * one.
+	 */
+	public interface Listener {
+		public void onHistory(History history);
+	}
+
+	/**
+	 * Append an history event to the store.
+	 * 
+	 * @param history
+	 *            The history event to be stored.
+	 * @return The store ID of the history event or -1 if it was not stored.
+	 */
+	public long add(History history);
+
+	/**
+	 * Append a list of history events using a single transaction.
+	 * 
+	 * @param histories
+	 *            The history events to be stored.
+	 */
+	public void addAll(List<History> histories);
+
+	/**
+	 * Store the sent report of an history event.
+	 * 
+	 * @param id
+	 *            The store ID of the history event.
+	 * @param sentTime
+	 *            The time when the sent report was received.
+	 * @param sentResult
+	 *            The result code of the sent report.
+	 * @return True if the history event was updated.
+	 */
+	public boolean updateSent(long id, long sentTime, int sentResult);
+
+	/**
+	 * Store the status of an intermediate delivery report, when the network
+	 * is still trying to deliver the message. The delivery time is not set,
+	 * it is set by the final report.
+	 * 
+	 * @param id
+	 *            The store ID of the history event.
+	 * @param deliveryStatus
+	 *            The status of the delivery report.
+	 * @return True if the history event was updated.
+	 */
+	public boolean updateDeliveryStatus(long id, int deliveryStatus);
+
+	/**
+	 * Store the delivery report of an history event.
+	 * 
+	 * @param id
+	 *            The store ID of the history event.
+	 * @param deliveredTime
+	 *            The time when the delivery report was received.
+	 * @param deliveryStatus
+	 *            The status of the delivery report.
+	 * @return True if the history event was updated.
+	 */
+	public boolean updateDelivered(long id, long deliveredTime,
+			int deliveryStatus);
+
+	/**
+	 * Remove an history event from the store.
+	 * 
+	 * @param history
+	 *            The history event to be removed.
+	 * @return True if the history event was removed.
+	 */
+	public boolean remove(History history);
+
+	/**
+	 * Remove all history events from the store.
+	 */
+	public void clear();
+
+	/**
+	 * Remove the history events which are not allowed by the retention
+	 * policy.
+	 * 
+	 * @param policy
+	 *            The retention policy to be applied.
+	 * @param now
+	 *            The current time in milliseconds.
+	 * @return The number of removed history events.
+	 */
+	public int evict(HistoryRetentionPolicy policy, long now);
+
+	/**
+	 * Obtain the number of stored history events.
+	 * 
+	 * @return The number of history events.
+	 */
+	public int count();
+
+	/**
+	 * Load a page of history events ordered by the date time.
+	 * 
+	 * @param offset
+	 *            The position of the first history event.
+	 * @param limit
+	 *            The maximum number of history events to load.
+	 * @return The list of history events.
+	 */
+	public List<History> load(int offset, int limit);
+
+	/**
+	 * Load the page of history events which follows an history event, by the
+	 * date time and the store ID, without skipping the previous rows.
+	 * 
+	 * @param last
+	 *            The last history event of the previous page.
+	 * @param limit
+	 *            The maximum number of history events to load.
+	 * @return The list of history events ordered by the date time.
+	 */
+	public List<History> loadAfter(History last, int limit);
+
+	/**
+	 * Load the page of history events which precedes an history event, by
+	 * the date time and the store ID, without skipping the previous rows.
+	 * 
+	 * @param first
+	 *            The first history event of the next page.
+	 * @param limit
+	 *            The maximum number of history events to load.
+	 * @return The list of history events ordered by the date time.
+	 */
+	public List<History> loadBefore(History first, int limit);
+
+	/**
+	 * Read the history events with a sent report with a cursor, the events
+	 * are given to the listener and are not kept in memory.
+	 * 
+	 * @param listener
+	 *            The listener which receives the history events.
+	 * @return The number of read history events.
+	 */
+	public int scanReported(Listener listener);
+
+	/**
+	 * Load all history events ordered by the date time.
+	 * 
+	 * @return The list of history events.
+	 */
+	public List<History> loadAll();
+}
@@ -0,0 +1,131 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.storage;
+
+import java.util.List;
+
+import ro.ciubex.tkconfig.models.OutboxMessage;
+
+/**
+ * Define the operations used to persist the SMS outbox. The messages are
+ * stored before they are sent, so a send interrupted by the process death can
+ * be resumed without sending again the messages which already went out.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public interface OutboxStore {
+
+	/**
+	 * Store a list of queued messages in a single transaction.
+	 * 
+	 * @param messages
+	 *            The messages to be stored.
+	 */
+	public void enqueueAll(List<OutboxMessage> messages);
+
+	/**
+	 * Store the current state and the result code of a message.
+	 * 
+	 * @param message
+	 *            The message with the new state.
+	 * @return True if the message state was stored.
+	 */
+	public boolean updateState(OutboxMessage message);
+
+	/**
+	 * Store the state and the result code of a message, using its ID.
+	 * 
+	 * @param id
+	 *            The outbox message ID.
+	 * @param state
+	 *            The new message state.
+	 * @param resultCode
+	 *            The result code reported by the system.
+	 * @return True if the message state was stored.
+	 */
+	public boolean updateState(long id, int state, int resultCode);
+
+	/**
+	 * Queue again a failed message, to be retried.
+	 * 
+	 * @param id
+	 *            The outbox message ID.
+	 * @param retries
+	 *            The number of retries, including this one.
+	 * @param resultCode
+	 *            The result code of the failed attempt.
+	 * @return True if the message was queued.
+	 */
+	public boolean queueRetry(long id, int retries, int resultCode);
+
+	/**
+	 * Find a message by its ID.
+	 * 
+	 * @param id
+	 *            The outbox message ID.
+	 * @return The outbox message or null if it was not found.
+	 */
+	public OutboxMessage find(long id);
+
+	/**
+	 * Mark as failed the messages which were handed to the SMS manager but
+	 * were not confirmed as sent, because the process was stopped. These
+	 * messages could already be sent, so they are not sent again.
+	 * 
+	 * @return The number of interrupted messages.
+	 */
+	public int failInterrupted();
+
+	/**
+	 * Remove the messages which reached a final state before a time.
+	 * 
+	 * @param before
+	 *            The time in milliseconds.
+	 * @return The number of removed messages.
+	 */
+	public int purgeFinished(long before);
+
+	/**
+	 * Remove a message.
+	 * 
+	 * @param id
+	 *            The outbox message ID.
+	 * @return True if the message was removed.
+	 */
+	public boolean remove(long id);
+
+	/**
+	 * Obtain the number of messages with a state.
+	 * 
+	 * @param state
+	 *            The message state.
+	 * @return The number of messages.
+	 */
+	public int count(int state);
+
+	/**
+	 * Load the messages with a state, in the order they were queued.
+	 * 
+	 * @param state
+	 *            The message state.
+	 * @return The list of messages.
+	 */
+	public List<OutboxMessage> load(int state);
+}
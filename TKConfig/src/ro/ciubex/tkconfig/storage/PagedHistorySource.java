@@ -0,0 +1,212 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.storage;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ro.ciubex.tkconfig.models.History;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+/**
+ * Paged read access to the history store. Only fixed-size pages around the
+ * accessed positions are kept in memory, the least recently used pages are
+ * evicted and the next page in the scroll direction is prefetched on a
+ * background thread. A page next to a cached page is loaded by the key of
+ * the neighbour page edge, only a jump far from the cached pages reads the
+ * page by its offset.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class PagedHistorySource {
+	private final static String TAG = PagedHistorySource.class.getName();
+	public static final int DEFAULT_PAGE_SIZE = 50;
+	public static final int DEFAULT_MAX_PAGES = 5;
+
+	private final HistoryStore mStore;
+	private final int mPageSize;
+	private final Map<Integer, List<History>> mPages;
+	private final Set<Integer> mLoading = new HashSet<Integer>();
+	private final HandlerThread mThread;
+	private final Handler mHandler;
+	private int mCount = -1;
+	private int mLastPosition;
+	private int mGeneration;
+
+	public PagedHistorySource(HistoryStore store) {
+		this(store, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+	}
+
+	public PagedHistorySource(HistoryStore store, int pageSize,
+			final int maxPages) {
+		mStore = store;
+		mPageSize = pageSize;
+		mPages = new LinkedHashMap<Integer, List<History>>(maxPages + 1,
+				0.75f, true) {
+			private static final long serialVersionUID = -2751097263389470522L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Integer, List<History>> eldest) {
+				return size() > maxPages;
+			}
+		};
+		mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		mThread.start();
+		mHandler = new Handler(mThread.getLooper());
+	}
+
+	/**
+	 * Obtain the number of history events. The value is read once from the
+	 * store and cached until the source is invalidated.
+	 * 
+	 * @return The number of history events.
+	 */
+	public synchronized int getCount() {
+		if (mCount < 0) {
+			mCount = mStore.count();
+		}
+		return mCount;
+	}
+
+	/**
+	 * Obtain the history event from the specified position. If the page is
+	 * not cached it is loaded, and the next page in the scroll direction is
+	 * prefetched when the position is close to the page edge.
+	 * 
+	 * @param position
+	 *            The position of the history event.
+	 * @return The history event or null if the position is not valid.
+	 */
+	public History get(int position) {
+		if (position < 0 || position >= getCount()) {
+			return null;
+		}
+		int page = position / mPageSize;
+		int index = position % mPageSize;
+		List<History> items = getPage(page);
+		prefetch(page, index, position >= mLastPosition);
+		mLastPosition = position;
+		return index < items.size() ? items.get(index) : null;
+	}
+
+	/**
+	 * Drop all cached pages and the cached count. Should be invoked after the
+	 * history store was changed.
+	 */
+	public void invalidate() {
+		synchronized (this) {
+			mPages.clear();
+			mLoading.clear();
+			mCount = -1;
+			mGeneration++;
+		}
+		mHandler.removeCallbacksAndMessages(null);
+	}
+
+	/**
+	 * Stop the prefetch thread and release the cached pages.
+	 */
+	public void close() {
+		invalidate();
+		mThread.quit();
+	}
+
+	/**
+	 * Obtain a page from the cache or load it from the store.
+	 * 
+	 * @param page
+	 *            The page number.
+	 * @return The history events from the page.
+	 */
+	private List<History> getPage(int page) {
+		int generation;
+		List<History> previous;
+		List<History> next;
+		synchronized (this) {
+			List<History> items = mPages.get(page);
+			if (items != null) {
+				return items;
+			}
+			generation = mGeneration;
+			previous = page > 0 ? mPages.get(page - 1) : null;
+			next = mPages.get(page + 1);
+		}
+		List<History> items;
+		if (previous != null && previous.size() == mPageSize) {
+			items = mStore.loadAfter(previous.get(mPageSize - 1), mPageSize);
+		} else if (next != null && !next.isEmpty()) {
+			items = mStore.loadBefore(next.get(0), mPageSize);
+		} else {
+			items = mStore.load(page * mPageSize, mPageSize);
+		}
+		synchronized (this) {
+			if (generation == mGeneration) {
+				mPages.put(page, items);
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * Prefetch the neighbour page in the scroll direction when the accessed
+	 * index passed half of the current page.
+	 * 
+	 * @param page
+	 *            The current page number.
+	 * @param index
+	 *            The index within the current page.
+	 * @param forward
+	 *            True if the list is scrolled forward.
+	 */
+	private void prefetch(int page, int index, boolean forward) {
+		final int next;
+		if (forward) {
+			if (index < mPageSize / 2 || (page + 1) * mPageSize >= getCount()) {
+				return;
+			}
+			next = page + 1;
+		} else {
+			if (index >= mPageSize / 2 || page == 0) {
+				return;
+			}
+			next = page - 1;
+		}
+		synchronized (this) {
+			if (mPages.containsKey(next) || !mLoading.add(next)) {
+				return;
+			}
+		}
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				getPage(next);
+				synchronized (PagedHistorySource.this) {
+					mLoading.remove(next);
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,201 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.storage;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.SharedPreferences;
+
+/**
+ * In-memory registry of the command parameters values. The values are stored
+ * on a dedicated preferences file, loaded once and written behind by a
+ * persistence scheduler, so opening and sending a command does not read or
+ * write the preferences. The values are namespaced per tracker model and
+ * command, the last value used on a tracker model is also kept as default for
+ * the other commands with the same parameter.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class ParameterRegistry {
+	public static final String PREFERENCES_NAME = "command_parameters";
+	private static final char SEPARATOR = '/';
+
+	private final PersistenceScheduler mScheduler;
+	private Map<String, String> mValues;
+
+	public ParameterRegistry(SharedPreferences preferences) {
+		mScheduler = new PersistenceScheduler(preferences);
+	}
+
+	/**
+	 * Load all the values from the preferences file, only on first call.
+	 */
+	private synchronized Map<String, String> getValues() {
+		if (mValues == null) {
+			Map<String, String> values = new HashMap<String, String>();
+			for (Map.Entry<String, ?> entry : mScheduler.getPreferences()
+					.getAll().entrySet()) {
+				if (entry.getValue() instanceof String) {
+					values.put(entry.getKey(), (String) entry.getValue());
+				}
+			}
+			mValues = values;
+		}
+		return mValues;
+	}
+
+	/**
+	 * Build the registry key. The separator and the colon, used by the
+	 * preferences backup, are replaced from the names.
+	 */
+	private static String key(String model, String command, String parameter) {
+		StringBuilder sb = new StringBuilder();
+		append(sb, model);
+		sb.append(SEPARATOR);
+		if (command != null) {
+			append(sb, command);
+		}
+		sb.append(SEPARATOR);
+		append(sb, parameter);
+		return sb.toString();
+	}
+
+	private static void append(StringBuilder sb, String name) {
+		char c;
+		for (int i = 0; i < name.length(); i++) {
+			c = name.charAt(i);
+			sb.append(c == SEPARATOR || c == ':' ? '_' : c);
+		}
+	}
+
+	/**
+	 * Obtain the value of a command parameter.
+	 * 
+	 * @param model
+	 *            The tracker model.
+	 * @param command
+	 *            The command name.
+	 * @param parameter
+	 *            The parameter name.
+	 * @return The value used last time for the command, the value used last
+	 *         time on the tracker model or null if there is no value.
+	 */
+	public synchronized String get(String model, String command,
+			String parameter) {
+		Map<String, String> values = getValues();
+		String value = values.get(key(model, command, parameter));
+		if (value == null) {
+			value = values.get(key(model, null, parameter));
+		}
+		return value;
+	}
+
+	/**
+	 * Store the value of a command parameter. The value is written on the
+	 * preferences file after a short delay, together with the other changes.
+	 * 
+	 * @param model
+	 *            The tracker model.
+	 * @param command
+	 *            The command name.
+	 * @param parameter
+	 *            The parameter name.
+	 * @param value
+	 *            The parameter value.
+	 */
+	public synchronized void put(String model, String command,
+			String parameter, String value) {
+		PersistenceScheduler.Batch batch = mScheduler.edit();
+		put(batch, key(model, command, parameter), value);
+		put(batch, key(model, null, parameter), value);
+		batch.commit();
+	}
+
+	/**
+	 * Store the default value of a parameter on several tracker models, e.g.
+	 * a value stored by the older application versions, which was used by
+	 * all the tracker models.
+	 * 
+	 * @param models
+	 *            The tracker models.
+	 * @param parameter
+	 *            The parameter name.
+	 * @param value
+	 *            The parameter value.
+	 */
+	public synchronized void putDefault(Collection<String> models,
+			String parameter, String value) {
+		PersistenceScheduler.Batch batch = mScheduler.edit();
+		for (String model : models) {
+			put(batch, key(model, null, parameter), value);
+		}
+		batch.commit();
+	}
+
+	private void put(PersistenceScheduler.Batch batch, String key, String value) {
+		Map<String, String> values = getValues();
+		if (!value.equals(values.get(key))) {
+			values.put(key, value);
+			batch.putString(key, value);
+		}
+	}
+
+	/**
+	 * Obtain a copy of all the stored values, used by the preferences backup.
+	 * 
+	 * @return The values indexed by the registry keys.
+	 */
+	public synchronized Map<String, String> getAll() {
+		return new HashMap<String, String>(getValues());
+	}
+
+	/**
+	 * Replace all the stored values, used by the preferences restore.
+	 * 
+	 * @param restored
+	 *            The values indexed by the registry keys.
+	 */
+	public synchronized void restore(Map<String, String> restored) {
+		Map<String, String> values = getValues();
+		PersistenceScheduler.Batch batch = mScheduler.edit();
+		for (String key : values.keySet()) {
+			if (!restored.containsKey(key)) {
+				batch.remove(key);
+			}
+		}
+		for (Map.Entry<String, String> entry : restored.entrySet()) {
+			batch.putString(entry.getKey(), entry.getValue());
+		}
+		values.clear();
+		values.putAll(restored);
+		batch.commit();
+	}
+
+	/**
+	 * Write the scheduled changes on the preferences file.
+	 * 
+	 * @return True if the changes were successfully written.
+	 */
+	public boolean flush() {
+		return mScheduler.flush();
+	}
+}
@@ -0,0 +1,340 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Write-behind scheduler for the application preferences. The changes are
+ * collected in memory and all changes made within a short window are written
+ * with a single commit on a background thread. Until the changes are written,
+ * the getters of this class return the pending values.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class PersistenceScheduler {
+	private final static String TAG = PersistenceScheduler.class.getName();
+	public static final long DEFAULT_WINDOW = 250;
+	private static final Object REMOVED = new Object();
+
+	private final SharedPreferences mPreferences;
+	private final Handler mHandler;
+	private final long mWindow;
+	private final Object mCommitLock = new Object();
+	private Map<String, Object> mPending = new HashMap<String, Object>();
+	private Map<String, Object> mInFlight;
+	private boolean mFlushScheduled;
+	private long mRequestedCommits;
+	private long mPerformedCommits;
+	private long mMutations;
+
+	private final Runnable mFlushTask = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	public PersistenceScheduler(SharedPreferences preferences) {
+		this(preferences, DEFAULT_WINDOW);
+	}
+
+	public PersistenceScheduler(SharedPreferences preferences, long window) {
+		mPreferences = preferences;
+		mWindow = window;
+		HandlerThread thread = new HandlerThread(TAG,
+				Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		mHandler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Obtain the preferences managed by this scheduler.
+	 * 
+	 * @return The shared preferences.
+	 */
+	public SharedPreferences getPreferences() {
+		return mPreferences;
+	}
+
+	/**
+	 * Start a new batch of changes. The changes are scheduled to be written
+	 * when the batch is committed.
+	 * 
+	 * @return A new batch.
+	 */
+	public Batch edit() {
+		return new Batch();
+	}
+
+	/**
+	 * Schedule a string value to be stored.
+	 */
+	public void putString(String key, String value) {
+		edit().putString(key, value).commit();
+	}
+
+	/**
+	 * Schedule a boolean value to be stored.
+	 */
+	public void putBoolean(String key, boolean value) {
+		edit().putBoolean(key, value).commit();
+	}
+
+	/**
+	 * Schedule a preference to be removed.
+	 */
+	public void remove(String key) {
+		edit().remove(key).commit();
+	}
+
+	/**
+	 * Merge the batch changes into the pending changes and schedule the
+	 * background flush, if is not already scheduled.
+	 * 
+	 * @param changes
+	 *            The batch changes.
+	 */
+	private synchronized void enqueue(Map<String, Object> changes) {
+		if (changes.isEmpty()) {
+			return;
+		}
+		mPending.putAll(changes);
+		mMutations += changes.size();
+		mRequestedCommits++;
+		if (!mFlushScheduled) {
+			mFlushScheduled = true;
+			mHandler.postDelayed(mFlushTask, mWindow);
+		}
+	}
+
+	/**
+	 * Obtain a not yet written value for a key.
+	 * 
+	 * @param key
+	 *            The preference key.
+	 * @return The pending value, REMOVED if the key should be removed or null
+	 *         if there is no pending change for the key.
+	 */
+	private synchronized Object getPendingValue(String key) {
+		Object value = mPending.get(key);
+		if (value == null && mInFlight != null) {
+			value = mInFlight.get(key);
+		}
+		return value;
+	}
+
+	public String getString(String key, String defValue) {
+		Object value = getPendingValue(key);
+		if (value == null) {
+			return mPreferences.getString(key, defValue);
+		}
+		return value == REMOVED ? defValue : (String) value;
+	}
+
+	public int getInt(String key, int defValue) {
+		Object value = getPendingValue(key);
+		if (value == null) {
+			return mPreferences.getInt(key, defValue);
+		}
+		return value == REMOVED ? defValue : (Integer) value;
+	}
+
+	public long getLong(String key, long defValue) {
+		Object value = getPendingValue(key);
+		if (value == null) {
+			return mPreferences.getLong(key, defValue);
+		}
+		return value == REMOVED ? defValue : (Long) value;
+	}
+
+	public boolean getBoolean(String key, boolean defValue) {
+		Object value = getPendingValue(key);
+		if (value == null) {
+			return mPreferences.getBoolean(key, defValue);
+		}
+		return value == REMOVED ? defValue : (Boolean) value;
+	}
+
+	public boolean contains(String key) {
+		Object value = getPendingValue(key);
+		if (value == null) {
+			return mPreferences.contains(key);
+		}
+		return value != REMOVED;
+	}
+
+	/**
+	 * Run a task on the persistence thread, after the tasks already queued.
+	 * 
+	 * @param task
+	 *            The task to be executed.
+	 */
+	public void post(Runnable task) {
+		mHandler.post(task);
+	}
+
+	/**
+	 * Write all pending changes with a single commit. This is the durability
+	 * barrier: when this method returns all changes scheduled before the call
+	 * are stored. It can be called from any thread.
+	 * 
+	 * @return True if the changes were successfully written.
+	 */
+	public boolean flush() {
+		boolean result = true;
+		synchronized (mCommitLock) {
+			Map<String, Object> batch;
+			synchronized (this) {
+				mHandler.removeCallbacks(mFlushTask);
+				mFlushScheduled = false;
+				if (mPending.isEmpty()) {
+					return true;
+				}
+				batch = mPending;
+				mPending = new HashMap<String, Object>();
+				mInFlight = batch;
+			}
+			try {
+				result = write(batch);
+			} finally {
+				synchronized (this) {
+					mInFlight = null;
+					mPerformedCommits++;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Write a batch of changes using one preferences editor.
+	 * 
+	 * @param batch
+	 *            The changes to be written.
+	 * @return True if the commit succeeded.
+	 */
+	private boolean write(Map<String, Object> batch) {
+		SharedPreferences.Editor editor = mPreferences.edit();
+		Object value;
+		for (Map.Entry<String, Object> entry : batch.entrySet()) {
+			value = entry.getValue();
+			if (value == REMOVED) {
+				editor.remove(entry.getKey());
+			} else if (value instanceof String) {
+				editor.putString(entry.getKey(), (String) value);
+			} else if (value instanceof Integer) {
+				editor.putInt(entry.getKey(), (Integer) value);
+			} else if (value instanceof Long) {
+				editor.putLong(entry.getKey(), (Long) value);
+			} else if (value instanceof Boolean) {
+				editor.putBoolean(entry.getKey(), (Boolean) value);
+			}
+		}
+		boolean result = editor.commit();
+		if (!result) {
+			Log.e(TAG, "Failed to write " + batch.size() + " preferences.");
+		}
+		return result;
+	}
+
+	/**
+	 * Obtain the number of commits requested by the application.
+	 * 
+	 * @return The number of requested commits.
+	 */
+	public synchronized long getRequestedCommits() {
+		return mRequestedCommits;
+	}
+
+	/**
+	 * Obtain the number of commits actually performed on the preferences.
+	 * 
+	 * @return The number of performed commits.
+	 */
+	public synchronized long getPerformedCommits() {
+		return mPerformedCommits;
+	}
+
+	/**
+	 * Obtain the number of requested commits which were merged into another
+	 * commit.
+	 * 
+	 * @return The number of coalesced commits.
+	 */
+	public synchronized long getCoalescedCommits() {
+		return mRequestedCommits - mPerformedCommits;
+	}
+
+	/**
+	 * Obtain the number of scheduled preference changes.
+	 * 
+	 * @return The number of scheduled changes.
+	 */
+	public synchronized long getMutations() {
+		return mMutations;
+	}
+
+	/**
+	 * A set of preference changes which are scheduled together.
+	 */
+	public class Batch {
+		private final Map<String, Object> mChanges = new HashMap<String, Object>();
+
+		public Batch putString(String key, String value) {
+			mChanges.put(key, value != null ? value : REMOVED);
+			return this;
+		}
+
+		public Batch putInt(String key, int value) {
+			mChanges.put(key, Integer.valueOf(value));
+			return this;
+		}
+
+		public Batch putLong(String key, long value) {
+			mChanges.put(key, Long.valueOf(value));
+			return this;
+		}
+
+		public Batch putBoolean(String key, boolean value) {
+			mChanges.put(key, Boolean.valueOf(value));
+			return this;
+		}
+
+		public Batch remove(String key) {
+			mChanges.put(key, REMOVED);
+			return this;
+		}
+
+		/**
+		 * Schedule the batch changes to be written.
+		 */
+		public void commit() {
+			enqueue(mChanges);
+		}
+	}
+}
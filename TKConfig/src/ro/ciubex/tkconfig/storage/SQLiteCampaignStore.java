@@ -0,0 +1,400 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ro.ciubex.tkconfig.models.Campaign;
+import ro.ciubex.tkconfig.models.GpsContact;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+/**
+ * SQLite implementation of the campaigns store. The target contacts of a
+ * campaign are stored as a list of GPS contact IDs, copied from the selected
+ * contacts when the campaign is created, so a later change of the selection
+ * does not change the campaign.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class SQLiteCampaignStore implements CampaignStore {
+	private final static String TAG = SQLiteCampaignStore.class.getName();
+
+	static final String TABLE_CAMPAIGNS = "campaigns";
+	static final String TABLE_CAMPAIGN_TARGETS = "campaign_targets";
+	static final String COLUMN_ID = "_id";
+	static final String COLUMN_NAME = "name";
+	static final String COLUMN_COMMAND = "command";
+	static final String COLUMN_STATE = "state";
+	static final String COLUMN_TOTAL = "total";
+	static final String COLUMN_PROCESSED = "processed";
+	static final String COLUMN_SENT = "sent";
+	static final String COLUMN_SKIPPED = "skipped";
+	static final String COLUMN_DUPLICATES = "duplicates";
+	static final String COLUMN_LAST_CONTACT_ID = "last_contact_id";
+	static final String COLUMN_WAVES = "waves";
+	static final String COLUMN_ELAPSED = "elapsed";
+	static final String COLUMN_WAVE_RATE = "wave_rate";
+	static final String COLUMN_CREATED = "created";
+	static final String COLUMN_UPDATED = "updated";
+	static final String COLUMN_CAMPAIGN_ID = "campaign_id";
+	static final String COLUMN_CONTACT_ID = "contact_id";
+
+	private static final String[] COLUMNS = { COLUMN_ID, COLUMN_NAME,
+			COLUMN_COMMAND, COLUMN_STATE, COLUMN_TOTAL, COLUMN_PROCESSED,
+			COLUMN_SENT, COLUMN_SKIPPED, COLUMN_LAST_CONTACT_ID, COLUMN_WAVES,
+			COLUMN_ELAPSED, COLUMN_WAVE_RATE, COLUMN_CREATED, COLUMN_UPDATED,
+			COLUMN_DUPLICATES };
+
+	/**
+	 * The GPS contacts columns, in the order used by
+	 * {@link SQLiteGpsContactStore#fromCursor(Cursor)}.
+	 */
+	private static final String TARGET_COLUMNS = "g."
+			+ SQLiteGpsContactStore.COLUMN_ID + ", g."
+			+ SQLiteGpsContactStore.COLUMN_NAME + ", g."
+			+ SQLiteGpsContactStore.COLUMN_PHONE + ", g."
+			+ SQLiteGpsContactStore.COLUMN_PASSWORD + ", g."
+			+ SQLiteGpsContactStore.COLUMN_SELECTED + ", g."
+			+ SQLiteGpsContactStore.COLUMN_FAILURES + ", g."
+			+ SQLiteGpsContactStore.COLUMN_OPEN_UNTIL;
+
+	private DatabaseHelper mDatabaseHelper;
+
+	public SQLiteCampaignStore(DatabaseHelper databaseHelper) {
+		mDatabaseHelper = databaseHelper;
+	}
+
+	/**
+	 * Create the campaigns and the campaign targets tables.
+	 * 
+	 * @param db
+	 *            The database where should be created the tables.
+	 */
+	static void createTables(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE_CAMPAIGNS + " (" + COLUMN_ID
+				+ " INTEGER PRIMARY KEY AUTOINCREMENT, " + COLUMN_NAME
+				+ " TEXT, " + COLUMN_COMMAND + " TEXT NOT NULL, "
+				+ COLUMN_STATE + " INTEGER NOT NULL, " + COLUMN_TOTAL
+				+ " INTEGER NOT NULL DEFAULT 0, " + COLUMN_PROCESSED
+				+ " INTEGER NOT NULL DEFAULT 0, " + COLUMN_SENT
+				+ " INTEGER NOT NULL DEFAULT 0, " + COLUMN_SKIPPED
+				+ " INTEGER NOT NULL DEFAULT 0, " + COLUMN_LAST_CONTACT_ID
+				+ " INTEGER NOT NULL DEFAULT -1, " + COLUMN_WAVES
+				+ " INTEGER NOT NULL DEFAULT 0, " + COLUMN_ELAPSED
+				+ " INTEGER NOT NULL DEFAULT 0, " + COLUMN_WAVE_RATE
+				+ " REAL NOT NULL DEFAULT 0, " + COLUMN_CREATED
+				+ " INTEGER NOT NULL, " + COLUMN_UPDATED
+				+ " INTEGER NOT NULL, " + COLUMN_DUPLICATES
+				+ " INTEGER NOT NULL DEFAULT 0)");
+		db.execSQL("CREATE TABLE " + TABLE_CAMPAIGN_TARGETS + " ("
+				+ COLUMN_CAMPAIGN_ID + " INTEGER NOT NULL, "
+				+ COLUMN_CONTACT_ID + " INTEGER NOT NULL, PRIMARY KEY ("
+				+ COLUMN_CAMPAIGN_ID + ", " + COLUMN_CONTACT_ID + "))");
+	}
+
+	/**
+	 * Add the duplicates column to a campaigns table created by an older
+	 * database version.
+	 * 
+	 * @param db
+	 *            The database where is the campaigns table.
+	 */
+	static void addDuplicatesColumn(SQLiteDatabase db) {
+		db.execSQL("ALTER TABLE " + TABLE_CAMPAIGNS + " ADD COLUMN "
+				+ COLUMN_DUPLICATES + " INTEGER NOT NULL DEFAULT 0");
+	}
+
+	/**
+	 * Store a new campaign and copy the IDs of the selected GPS contacts as
+	 * its targets, in a single transaction.
+	 * 
+	 * @param campaign
+	 *            The campaign to be stored.
+	 * @return The store ID of the campaign or -1 if it was not stored.
+	 */
+	@Override
+	public long create(Campaign campaign) {
+		long id = -1;
+		try {
+			SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+			db.beginTransaction();
+			try {
+				id = db.insertOrThrow(TABLE_CAMPAIGNS, null,
+						toContentValues(campaign));
+				db.execSQL("INSERT INTO " + TABLE_CAMPAIGN_TARGETS + " ("
+						+ COLUMN_CAMPAIGN_ID + ", " + COLUMN_CONTACT_ID
+						+ ") SELECT ?, " + SQLiteGpsContactStore.COLUMN_ID
+						+ " FROM " + SQLiteGpsContactStore.TABLE_GPS_CONTACTS
+						+ " WHERE " + SQLiteGpsContactStore.COLUMN_SELECTED
+						+ " = 1", new Object[] { Long.valueOf(id) });
+				int total = (int) DatabaseUtils.longForQuery(db,
+						"SELECT COUNT(*) FROM " + TABLE_CAMPAIGN_TARGETS
+								+ " WHERE " + COLUMN_CAMPAIGN_ID + " = ?",
+						new String[] { String.valueOf(id) });
+				ContentValues values = new ContentValues();
+				values.put(COLUMN_TOTAL, total);
+				db.update(TABLE_CAMPAIGNS, values, COLUMN_ID + " = ?",
+						new String[] { String.valueOf(id) });
+				db.setTransactionSuccessful();
+				campaign.setId(id);
+				campaign.setTotal(total);
+			} finally {
+				db.endTransaction();
+			}
+		} catch (SQLiteException e) {
+			Log.e(TAG, "create: " + e.getMessage(), e);
+			id = -1;
+		}
+		return id;
+	}
+
+	/**
+	 * Load a page of target contacts, joined with the GPS contacts table.
+	 * 
+	 * @param campaignId
+	 *            The campaign ID.
+	 * @param afterContactId
+	 *            The ID of the last processed contact or -1 for the first
+	 *            page.
+	 * @param limit
+	 *            The maximum number of contacts to load.
+	 * @return The list of target contacts.
+	 */
+	@Override
+	public List<GpsContact> loadTargets(long campaignId, long afterContactId,
+			int limit) {
+		List<GpsContact> contacts = new ArrayList<GpsContact>();
+		Cursor cursor = null;
+		try {
+			cursor = mDatabaseHelper.getReadableDatabase().rawQuery(
+					"SELECT " + TARGET_COLUMNS + " FROM "
+							+ TABLE_CAMPAIGN_TARGETS + " t JOIN "
+							+ SQLiteGpsContactStore.TABLE_GPS_CONTACTS
+							+ " g ON g." + SQLiteGpsContactStore.COLUMN_ID
+							+ " = t." + COLUMN_CONTACT_ID + " WHERE t."
+							+ COLUMN_CAMPAIGN_ID + " = ? AND t."
+							+ COLUMN_CONTACT_ID + " > ? ORDER BY t."
+							+ COLUMN_CONTACT_ID + " LIMIT " + limit,
+					new String[] { String.valueOf(campaignId),
+							String.valueOf(afterContactId) });
+			while (cursor.moveToNext()) {
+				contacts.add(SQLiteGpsContactStore.fromCursor(cursor));
+			}
+		} catch (SQLiteException e) {
+			Log.e(TAG, "loadTargets: " + e.getMessage(), e);
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+		return contacts;
+	}
+
+	/**
+	 * Store the campaign state and progress.
+	 * 
+	 * @param campaign
+	 *            The campaign.
+	 * @return True if the campaign was stored.
+	 */
+	@Override
+	public boolean checkpoint(Campaign campaign) {
+		int count = 0;
+		try {
+			count = checkpoint(mDatabaseHelper.getWritableDatabase(), campaign);
+		} catch (SQLiteException e) {
+			Log.e(TAG, "checkpoint: " + e.getMessage(), e);
+		}
+		return count > 0;
+	}
+
+	/**
+	 * Run a work and store the campaign progress in the same transaction. The
+	 * work can use other stores of the same database, their transactions are
+	 * nested into this one.
+	 * 
+	 * @param campaign
+	 *            The campaign.
+	 * @param work
+	 *            The work to be done in the transaction.
+	 */
+	@Override
+	public void checkpoint(Campaign campaign, Runnable work) {
+		SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+		db.beginTransaction();
+		try {
+			work.run();
+			checkpoint(db, campaign);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	private int checkpoint(SQLiteDatabase db, Campaign campaign) {
+		campaign.setUpdated(System.currentTimeMillis());
+		return db.update(TABLE_CAMPAIGNS, toContentValues(campaign), COLUMN_ID
+				+ " = ?", new String[] { String.valueOf(campaign.getId()) });
+	}
+
+	/**
+	 * Find a campaign by its ID.
+	 * 
+	 * @param id
+	 *            The campaign ID.
+	 * @return The campaign or null if it was not found.
+	 */
+	@Override
+	public Campaign find(long id) {
+		List<Campaign> result = query(COLUMN_ID + " = ?",
+				new String[] { String.valueOf(id) }, null);
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+	/**
+	 * Load the campaigns with a state, in the order they were created.
+	 * 
+	 * @param state
+	 *            The campaign state.
+	 * @return The list of campaigns.
+	 */
+	@Override
+	public List<Campaign> load(int state) {
+		return query(COLUMN_STATE + " = ?",
+				new String[] { String.valueOf(state) }, COLUMN_ID);
+	}
+
+	/**
+	 * Load all campaigns, the newest first.
+	 * 
+	 * @return The list of campaigns.
+	 */
+	@Override
+	public List<Campaign> loadAll() {
+		return query(null, null, COLUMN_ID + " DESC");
+	}
+
+	/**
+	 * Remove a campaign and its target contacts, in a single transaction.
+	 * 
+	 * @param id
+	 *            The campaign ID.
+	 * @return True if the campaign was removed.
+	 */
+	@Override
+	public boolean remove(long id) {
+		int count = 0;
+		try {
+			SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+			String[] args = new String[] { String.valueOf(id) };
+			db.beginTransaction();
+			try {
+				db.delete(TABLE_CAMPAIGN_TARGETS, COLUMN_CAMPAIGN_ID + " = ?",
+						args);
+				count = db.delete(TABLE_CAMPAIGNS, COLUMN_ID + " = ?", args);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		} catch (SQLiteException e) {
+			Log.e(TAG, "remove: " + e.getMessage(), e);
+		}
+		return count > 0;
+	}
+
+	private List<Campaign> query(String selection, String[] selectionArgs,
+			String orderBy) {
+		List<Campaign> campaigns = new ArrayList<Campaign>();
+		Cursor cursor = null;
+		try {
+			cursor = mDatabaseHelper.getReadableDatabase().query(
+					TABLE_CAMPAIGNS, COLUMNS, selection, selectionArgs, null,
+					null, orderBy);
+			while (cursor.moveToNext()) {
+				campaigns.add(fromCursor(cursor));
+			}
+		} catch (SQLiteException e) {
+			Log.e(TAG, "query: " + e.getMessage(), e);
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+		return campaigns;
+	}
+
+	/**
+	 * Build a campaign from the current cursor row.
+	 * 
+	 * @param cursor
+	 *            The cursor positioned on a campaigns row.
+	 * @return The campaign.
+	 */
+	private static Campaign fromCursor(Cursor cursor) {
+		Campaign campaign = new Campaign(cursor.getString(1),
+				cursor.getString(2));
+		campaign.setId(cursor.getLong(0));
+		campaign.setState(cursor.getInt(3));
+		campaign.setTotal(cursor.getInt(4));
+		campaign.setProcessed(cursor.getInt(5));
+		campaign.setSent(cursor.getInt(6));
+		campaign.setSkipped(cursor.getInt(7));
+		campaign.setLastContactId(cursor.getLong(8));
+		campaign.setWaves(cursor.getInt(9));
+		campaign.setElapsed(cursor.getLong(10));
+		campaign.setWaveRate(cursor.getFloat(11));
+		campaign.setCreated(cursor.getLong(12));
+		campaign.setUpdated(cursor.getLong(13));
+		campaign.setDuplicates(cursor.getInt(14));
+		return campaign;
+	}
+
+	/**
+	 * Prepare the content values for a campaign.
+	 * 
+	 * @param campaign
+	 *            The campaign.
+	 * @return The content values used to store the campaign.
+	 */
+	private ContentValues toContentValues(Campaign campaign) {
+		ContentValues values = new ContentValues();
+		values.put(COLUMN_NAME, campaign.getName());
+		values.put(COLUMN_COMMAND, campaign.getCommand());
+		values.put(COLUMN_STATE, campaign.getState());
+		values.put(COLUMN_TOTAL, campaign.getTotal());
+		values.put(COLUMN_PROCESSED, campaign.getProcessed());
+		values.put(COLUMN_SENT, campaign.getSent());
+		values.put(COLUMN_SKIPPED, campaign.getSkipped());
+		values.put(COLUMN_DUPLICATES, campaign.getDuplicates());
+		values.put(COLUMN_LAST_CONTACT_ID, campaign.getLastContactId());
+		values.put(COLUMN_WAVES, campaign.getWaves());
+		values.put(COLUMN_ELAPSED, campaign.getElapsed());
+		values.put(COLUMN_WAVE_RATE, campaign.getWaveRate());
+		values.put(COLUMN_CREATED, campaign.getCreated());
+		values.put(COLUMN_UPDATED, campaign.getUpdated());
+		return values;
+	}
+}
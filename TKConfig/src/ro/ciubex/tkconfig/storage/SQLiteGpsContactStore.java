@@ -0,0 +1,418 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import ro.ciubex.tkconfig.models.GpsContact;
+import ro.ciubex.tkconfig.models.Utilities;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+/**
+ * SQLite implementation of the GPS contacts store. The contacts are indexed by
+ * the normalized phone number, which is unique, and by the selected flag.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class SQLiteGpsContactStore implements GpsContactStore {
+	private final static String TAG = SQLiteGpsContactStore.class.getName();
+
+	static final String TABLE_GPS_CONTACTS = "gps_contacts";
+	static final String COLUMN_ID = "_id";
+	static final String COLUMN_NAME = "name";
+	static final String COLUMN_PHONE = "phone";
+	static final String COLUMN_NORMALIZED_PHONE = "normalized_phone";
+	static final String COLUMN_PASSWORD = "password";
+	static final String COLUMN_SELECTED = "selected";
+	static final String COLUMN_FAILURES = "failures";
+	static final String COLUMN_OPEN_UNTIL = "open_until";
+
+	private static final String[] COLUMNS = { COLUMN_ID, COLUMN_NAME,
+			COLUMN_PHONE, COLUMN_PASSWORD, COLUMN_SELECTED, COLUMN_FAILURES,
+			COLUMN_OPEN_UNTIL };
+
+	private DatabaseHelper mDatabaseHelper;
+
+	public SQLiteGpsContactStore(DatabaseHelper databaseHelper) {
+		mDatabaseHelper = databaseHelper;
+	}
+
+	/**
+	 * Create the GPS contacts table and its indexes.
+	 * 
+	 * @param db
+	 *            The database where should be created the table.
+	 */
+	static void createTables(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE_GPS_CONTACTS + " (" + COLUMN_ID
+				+ " INTEGER PRIMARY KEY AUTOINCREMENT, " + COLUMN_NAME
+				+ " TEXT, " + COLUMN_PHONE + " TEXT, "
+				+ COLUMN_NORMALIZED_PHONE + " TEXT NOT NULL, "
+				+ COLUMN_PASSWORD + " TEXT, " + COLUMN_SELECTED
+				+ " INTEGER NOT NULL DEFAULT 0, " + COLUMN_FAILURES
+				+ " INTEGER NOT NULL DEFAULT 0, " + COLUMN_OPEN_UNTIL
+				+ " INTEGER NOT NULL DEFAULT 0)");
+		db.execSQL("CREATE UNIQUE INDEX idx_gps_contacts_phone ON "
+				+ TABLE_GPS_CONTACTS + " (" + COLUMN_NORMALIZED_PHONE + ")");
+		db.execSQL("CREATE INDEX idx_gps_contacts_selected ON "
+				+ TABLE_GPS_CONTACTS + " (" + COLUMN_SELECTED + ")");
+	}
+
+	/**
+	 * Add the circuit breaker columns to a GPS contacts table created by an
+	 * older database version.
+	 * 
+	 * @param db
+	 *            The database where is the GPS contacts table.
+	 */
+	static void addFailuresColumns(SQLiteDatabase db) {
+		db.execSQL("ALTER TABLE " + TABLE_GPS_CONTACTS + " ADD COLUMN "
+				+ COLUMN_FAILURES + " INTEGER NOT NULL DEFAULT 0");
+		db.execSQL("ALTER TABLE " + TABLE_GPS_CONTACTS + " ADD COLUMN "
+				+ COLUMN_OPEN_UNTIL + " INTEGER NOT NULL DEFAULT 0");
+	}
+
+	/**
+	 * Insert or update a GPS contact. A stored contact is updated by its ID,
+	 * a new contact is updated by the normalized phone number and inserted if
+	 * there is no contact with the same phone number.
+	 * 
+	 * @param contact
+	 *            The GPS contact to be stored.
+	 * @return The store ID of the contact or -1 if it was not stored.
+	 */
+	@Override
+	public long upsert(GpsContact contact) {
+		try {
+			return upsert(mDatabaseHelper.getWritableDatabase(), contact);
+		} catch (SQLiteException e) {
+			Log.e(TAG, "upsert: " + e.getMessage(), e);
+		}
+		return -1;
+	}
+
+	/**
+	 * Insert or update a list of GPS contacts in a single transaction.
+	 * 
+	 * @param contacts
+	 *            The GPS contacts to be stored.
+	 */
+	@Override
+	public void upsertAll(Collection<GpsContact> contacts) {
+		SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+		db.beginTransaction();
+		try {
+			for (GpsContact contact : contacts) {
+				try {
+					upsert(db, contact);
+				} catch (SQLiteException e) {
+					Log.e(TAG, "upsertAll: " + e.getMessage(), e);
+				}
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	private long upsert(SQLiteDatabase db, GpsContact contact) {
+		ContentValues values = toContentValues(contact);
+		String normalizedPhone = Utilities.normalizePhoneNumber(contact
+				.getPhone());
+		long id = contact.getId();
+		int count = 0;
+		if (id > -1) {
+			count = db.update(TABLE_GPS_CONTACTS, values, COLUMN_ID + " = ?",
+					new String[] { String.valueOf(id) });
+		}
+		if (count == 0) {
+			id = findId(db, normalizedPhone);
+			if (id > -1) {
+				db.update(TABLE_GPS_CONTACTS, values, COLUMN_ID + " = ?",
+						new String[] { String.valueOf(id) });
+			} else {
+				id = db.insertOrThrow(TABLE_GPS_CONTACTS, null, values);
+			}
+		}
+		contact.setId(id);
+		contact.setModified(false);
+		return id;
+	}
+
+	/**
+	 * Find the ID of the contact with the specified normalized phone number.
+	 */
+	private long findId(SQLiteDatabase db, String normalizedPhone) {
+		Cursor cursor = db.query(TABLE_GPS_CONTACTS,
+				new String[] { COLUMN_ID }, COLUMN_NORMALIZED_PHONE + " = ?",
+				new String[] { normalizedPhone }, null, null, null);
+		try {
+			return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Remove a GPS contact from the store, by its ID or by its phone number
+	 * if the contact was not stored.
+	 * 
+	 * @param contact
+	 *            The GPS contact to be removed.
+	 * @return True if the contact was removed.
+	 */
+	@Override
+	public boolean remove(GpsContact contact) {
+		int count = 0;
+		try {
+			SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+			if (contact.getId() > -1) {
+				count = db.delete(TABLE_GPS_CONTACTS, COLUMN_ID + " = ?",
+						new String[] { String.valueOf(contact.getId()) });
+			} else {
+				count = db.delete(TABLE_GPS_CONTACTS, COLUMN_NORMALIZED_PHONE
+						+ " = ?", new String[] { Utilities
+						.normalizePhoneNumber(contact.getPhone()) });
+			}
+		} catch (SQLiteException e) {
+			Log.e(TAG, "remove: " + e.getMessage(), e);
+		}
+		return count > 0;
+	}
+
+	/**
+	 * Store only the circuit breaker columns of a stored GPS contact.
+	 * 
+	 * @param contact
+	 *            The GPS contact.
+	 * @return True if the state was stored.
+	 */
+	@Override
+	public boolean updateFailures(GpsContact contact) {
+		int count = 0;
+		ContentValues values = new ContentValues();
+		values.put(COLUMN_FAILURES, contact.getFailures());
+		values.put(COLUMN_OPEN_UNTIL, contact.getOpenUntil());
+		try {
+			count = mDatabaseHelper.getWritableDatabase().update(
+					TABLE_GPS_CONTACTS, values, COLUMN_ID + " = ?",
+					new String[] { String.valueOf(contact.getId()) });
+		} catch (SQLiteException e) {
+			Log.e(TAG, "updateFailures: " + e.getMessage(), e);
+		}
+		return count > 0;
+	}
+
+	/**
+	 * Find a GPS contact by phone number, using the normalized phone index.
+	 * 
+	 * @param phoneNumber
+	 *            The phone number.
+	 * @return The GPS contact or null if there is no contact with the phone
+	 *         number.
+	 */
+	@Override
+	public GpsContact findByPhone(String phoneNumber) {
+		List<GpsContact> result = query(COLUMN_NORMALIZED_PHONE + " = ?",
+				new String[] { Utilities.normalizePhoneNumber(phoneNumber) });
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+	/**
+	 * Obtain the number of selected GPS contacts.
+	 * 
+	 * @return The number of selected GPS contacts.
+	 */
+	@Override
+	public int countSelected() {
+		int count = 0;
+		try {
+			count = (int) DatabaseUtils.longForQuery(
+					mDatabaseHelper.getReadableDatabase(), "SELECT COUNT(*) FROM "
+							+ TABLE_GPS_CONTACTS + " WHERE " + COLUMN_SELECTED
+							+ " = 1", null);
+		} catch (SQLiteException e) {
+			Log.e(TAG, "countSelected: " + e.getMessage(), e);
+		}
+		return count;
+	}
+
+	/**
+	 * Load only the selected GPS contacts.
+	 * 
+	 * @return The list of selected GPS contacts.
+	 */
+	@Override
+	public List<GpsContact> loadSelected() {
+		return query(COLUMN_SELECTED + " = 1", null);
+	}
+
+	/**
+	 * Load a page of selected GPS contacts, using the primary key to find the
+	 * page start.
+	 * 
+	 * @param afterId
+	 *            The ID of the last contact from the previous page or -1 for
+	 *            the first page.
+	 * @param limit
+	 *            The maximum number of contacts to load.
+	 * @return The list of selected GPS contacts.
+	 */
+	@Override
+	public List<GpsContact> loadSelected(long afterId, int limit) {
+		return query(COLUMN_SELECTED + " = 1 AND " + COLUMN_ID + " > ?",
+				new String[] { String.valueOf(afterId) }, String.valueOf(limit));
+	}
+
+	/**
+	 * Obtain the IDs of the selected GPS contacts.
+	 * 
+	 * @return The IDs of the selected GPS contacts.
+	 */
+	@Override
+	public long[] loadSelectedIds() {
+		long[] ids = new long[0];
+		Cursor cursor = null;
+		try {
+			cursor = mDatabaseHelper.getReadableDatabase().rawQuery(
+					"SELECT " + COLUMN_ID + " FROM " + TABLE_GPS_CONTACTS
+							+ " WHERE " + COLUMN_SELECTED + " = 1 ORDER BY "
+							+ COLUMN_ID, null);
+			ids = new long[cursor.getCount()];
+			int i = 0;
+			while (cursor.moveToNext() && i < ids.length) {
+				ids[i++] = cursor.getLong(0);
+			}
+		} catch (SQLiteException e) {
+			Log.e(TAG, "loadSelectedIds: " + e.getMessage(), e);
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Load the GPS contacts with the IDs from a range of an array, with a
+	 * single IN query. The range should not exceed the SQLite parameters
+	 * limit.
+	 * 
+	 * @param ids
+	 *            The IDs of the GPS contacts.
+	 * @param start
+	 *            The start position on the IDs array, inclusive.
+	 * @param end
+	 *            The end position on the IDs array, exclusive.
+	 * @return The list of GPS contacts.
+	 */
+	@Override
+	public List<GpsContact> load(long[] ids, int start, int end) {
+		if (start >= end) {
+			return new ArrayList<GpsContact>();
+		}
+		StringBuilder selection = new StringBuilder(COLUMN_ID).append(" IN (");
+		String[] args = new String[end - start];
+		for (int i = start; i < end; i++) {
+			selection.append(i > start ? ",?" : "?");
+			args[i - start] = String.valueOf(ids[i]);
+		}
+		selection.append(')');
+		return query(selection.toString(), args);
+	}
+
+	/**
+	 * Load all GPS contacts, in the order they were added.
+	 * 
+	 * @return The list of GPS contacts.
+	 */
+	@Override
+	public List<GpsContact> loadAll() {
+		return query(null, null);
+	}
+
+	private List<GpsContact> query(String selection, String[] selectionArgs) {
+		return query(selection, selectionArgs, null);
+	}
+
+	private List<GpsContact> query(String selection, String[] selectionArgs,
+			String limit) {
+		List<GpsContact> contacts = new ArrayList<GpsContact>();
+		Cursor cursor = null;
+		try {
+			cursor = mDatabaseHelper.getReadableDatabase().query(
+					TABLE_GPS_CONTACTS, COLUMNS, selection, selectionArgs,
+					null, null, COLUMN_ID, limit);
+			while (cursor.moveToNext()) {
+				contacts.add(fromCursor(cursor));
+			}
+		} catch (SQLiteException e) {
+			Log.e(TAG, "query: " + e.getMessage(), e);
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+		return contacts;
+	}
+
+	/**
+	 * Create a GPS contact from the current cursor row.
+	 * 
+	 * @param cursor
+	 *            The cursor positioned on a row with the store columns.
+	 * @return The GPS contact.
+	 */
+	static GpsContact fromCursor(Cursor cursor) {
+		GpsContact contact = new GpsContact(cursor.getString(1),
+				cursor.getString(2), cursor.getString(3),
+				cursor.getInt(4) == 1);
+		contact.setId(cursor.getLong(0));
+		contact.setFailures(cursor.getInt(5));
+		contact.setOpenUntil(cursor.getLong(6));
+		contact.setModified(false);
+		return contact;
+	}
+
+	/**
+	 * Prepare the content values for a GPS contact.
+	 * 
+	 * @param contact
+	 *            The GPS contact.
+	 * @return The content values used to store the contact.
+	 */
+	private ContentValues toContentValues(GpsContact contact) {
+		ContentValues values = new ContentValues();
+		values.put(COLUMN_NAME, contact.getName());
+		values.put(COLUMN_PHONE, contact.getPhone());
+		values.put(COLUMN_NORMALIZED_PHONE,
+				Utilities.normalizePhoneNumber(contact.getPhone()));
+		values.put(COLUMN_PASSWORD, contact.getPassword());
+		values.put(COLUMN_SELECTED, contact.isSelected() ? 1 : 0);
+		return values;
+	}
+}
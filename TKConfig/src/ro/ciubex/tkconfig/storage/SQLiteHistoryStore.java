@@ -0,0 +1,544 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ro.ciubex.tkconfig.models.History;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * SQLite implementation of the history store. Each history event is a row,
+ * appended with a single indexed insert.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class SQLiteHistoryStore implements HistoryStore {
+	private final static String TAG = SQLiteHistoryStore.class.getName();
+
+	static final String TABLE_HISTORY = "history";
+	static final String COLUMN_ID = "_id";
+	static final String COLUMN_DATE_TIME = "date_time";
+	static final String COLUMN_PHONE = "phone";
+	static final String COLUMN_COMMAND = "command";
+	static final String COLUMN_CARRIER = "carrier";
+	static final String COLUMN_SENT_TIME = "sent_time";
+	static final String COLUMN_SENT_RESULT = "sent_result";
+	static final String COLUMN_DELIVERED_TIME = "delivered_time";
+	static final String COLUMN_DELIVERY_STATUS = "delivery_status";
+
+	private static final String[] COLUMNS = { COLUMN_ID, COLUMN_DATE_TIME,
+			COLUMN_PHONE, COLUMN_COMMAND, COLUMN_CARRIER, COLUMN_SENT_TIME,
+			COLUMN_SENT_RESULT, COLUMN_DELIVERED_TIME, COLUMN_DELIVERY_STATUS };
+	private static final String ORDER_ASCENDING = COLUMN_DATE_TIME + ", "
+			+ COLUMN_ID;
+	private static final String ORDER_DESCENDING = COLUMN_DATE_TIME
+			+ " DESC, " + COLUMN_ID + " DESC";
+
+	private DatabaseHelper mDatabaseHelper;
+
+	public SQLiteHistoryStore(DatabaseHelper databaseHelper) {
+		mDatabaseHelper = databaseHelper;
+	}
+
+	/**
+	 * Create the history table and its indexes.
+	 * 
+	 * @param db
+	 *            The database where should be created the table.
+	 */
+	static void createTables(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE_HISTORY + " (" + COLUMN_ID
+				+ " INTEGER PRIMARY KEY AUTOINCREMENT, " + COLUMN_DATE_TIME
+				+ " INTEGER NOT NULL, " + COLUMN_PHONE + " TEXT, "
+				+ COLUMN_COMMAND + " TEXT, " + COLUMN_CARRIER + " TEXT, "
+				+ COLUMN_SENT_TIME + " INTEGER NOT NULL DEFAULT 0, "
+				+ COLUMN_SENT_RESULT + " INTEGER NOT NULL DEFAULT 0, "
+				+ COLUMN_DELIVERED_TIME + " INTEGER NOT NULL DEFAULT 0, "
+				+ COLUMN_DELIVERY_STATUS + " INTEGER NOT NULL DEFAULT -1)");
+		db.execSQL("CREATE INDEX idx_history_date_time ON " + TABLE_HISTORY
+				+ " (" + COLUMN_DATE_TIME + ")");
+		db.execSQL("CREATE INDEX idx_history_phone ON " + TABLE_HISTORY + " ("
+				+ COLUMN_PHONE + ")");
+	}
+
+	/**
+	 * Add the delivery report columns to an history table created by an
+	 * older database version.
+	 * 
+	 * @param db
+	 *            The database where is the history table.
+	 */
+	static void addReportColumns(SQLiteDatabase db) {
+		db.execSQL("ALTER TABLE " + TABLE_HISTORY + " ADD COLUMN "
+				+ COLUMN_CARRIER + " TEXT");
+		db.execSQL("ALTER TABLE " + TABLE_HISTORY + " ADD COLUMN "
+				+ COLUMN_SENT_TIME + " INTEGER NOT NULL DEFAULT 0");
+		db.execSQL("ALTER TABLE " + TABLE_HISTORY + " ADD COLUMN "
+				+ COLUMN_SENT_RESULT + " INTEGER NOT NULL DEFAULT 0");
+		db.execSQL("ALTER TABLE " + TABLE_HISTORY + " ADD COLUMN "
+				+ COLUMN_DELIVERED_TIME + " INTEGER NOT NULL DEFAULT 0");
+		db.execSQL("ALTER TABLE " + TABLE_HISTORY + " ADD COLUMN "
+				+ COLUMN_DELIVERY_STATUS + " INTEGER NOT NULL DEFAULT -1");
+	}
+
+	/**
+	 * Append an history event to the store.
+	 * 
+	 * @param history
+	 *            The history event to be stored.
+	 * @return The store ID of the history event or -1 if it was not stored.
+	 */
+	@Override
+	public long add(History history) {
+		long id = -1;
+		try {
+			id = mDatabaseHelper.getWritableDatabase().insert(TABLE_HISTORY,
+					null, toContentValues(history));
+			history.setId(id);
+		} catch (SQLiteException e) {
+			Log.e(TAG, "add: " + e.getMessage(), e);
+		}
+		return id;
+	}
+
+	/**
+	 * Append a list of history events using a single transaction and a
+	 * precompiled insert statement.
+	 * 
+	 * @param histories
+	 *            The history events to be stored.
+	 */
+	@Override
+	public void addAll(List<History> histories) {
+		SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+		SQLiteStatement statement = db.compileStatement("INSERT INTO "
+				+ TABLE_HISTORY + " (" + COLUMN_DATE_TIME + ", " + COLUMN_PHONE
+				+ ", " + COLUMN_COMMAND + ") VALUES (?, ?, ?)");
+		db.beginTransaction();
+		try {
+			for (History history : histories) {
+				statement.clearBindings();
+				statement.bindLong(1, history.getDateTime());
+				bindString(statement, 2, history.getPhoneNumber());
+				bindString(statement, 3, history.getSmsCommand());
+				history.setId(statement.executeInsert());
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			statement.close();
+		}
+	}
+
+	/**
+	 * Bind a string value to an insert statement, null values included.
+	 */
+	private void bindString(SQLiteStatement statement, int index, String value) {
+		if (value != null) {
+			statement.bindString(index, value);
+		} else {
+			statement.bindNull(index);
+		}
+	}
+
+	/**
+	 * Store the sent report of an history event.
+	 * 
+	 * @param id
+	 *            The store ID of the history event.
+	 * @param sentTime
+	 *            The time when the sent report was received.
+	 * @param sentResult
+	 *            The result code of the sent report.
+	 * @return True if the history event was updated.
+	 */
+	@Override
+	public boolean updateSent(long id, long sentTime, int sentResult) {
+		ContentValues values = new ContentValues();
+		values.put(COLUMN_SENT_TIME, sentTime);
+		values.put(COLUMN_SENT_RESULT, sentResult);
+		return update(id, values);
+	}
+
+	/**
+	 * Store the delivery report of an history event.
+	 * 
+	 * @param id
+	 *            The store ID of the history event.
+	 * @param deliveredTime
+	 *            The time when the delivery report was received.
+	 * @param deliveryStatus
+	 *            The status of the delivery report.
+	 * @return True if the history event was updated.
+	 */
+	@Override
+	public boolean updateDelivered(long id, long deliveredTime,
+			int deliveryStatus) {
+		ContentValues values = new ContentValues();
+		values.put(COLUMN_DELIVERED_TIME, deliveredTime);
+		values.put(COLUMN_DELIVERY_STATUS, deliveryStatus);
+		return update(id, values);
+	}
+
+	/**
+	 * Store the status of an intermediate delivery report.
+	 * 
+	 * @param id
+	 *            The store ID of the history event.
+	 * @param deliveryStatus
+	 *            The status of the delivery report.
+	 * @return True if the history event was updated.
+	 */
+	@Override
+	public boolean updateDeliveryStatus(long id, int deliveryStatus) {
+		ContentValues values = new ContentValues();
+		values.put(COLUMN_DELIVERY_STATUS, deliveryStatus);
+		return update(id, values);
+	}
+
+	private boolean update(long id, ContentValues values) {
+		int count = 0;
+		try {
+			count = mDatabaseHelper.getWritableDatabase().update(TABLE_HISTORY,
+					values, COLUMN_ID + " = ?",
+					new String[] { String.valueOf(id) });
+		} catch (SQLiteException e) {
+			Log.e(TAG, "update: " + e.getMessage(), e);
+		}
+		return count > 0;
+	}
+
+	/**
+	 * Remove an history event from the store.
+	 * 
+	 * @param history
+	 *            The history event to be removed.
+	 * @return True if the history event was removed.
+	 */
+	@Override
+	public boolean remove(History history) {
+		int count = 0;
+		try {
+			SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+			if (history.getId() > -1) {
+				count = db.delete(TABLE_HISTORY, COLUMN_ID + " = ?",
+						new String[] { String.valueOf(history.getId()) });
+			} else {
+				count = db.delete(TABLE_HISTORY, COLUMN_DATE_TIME + " = ?",
+						new String[] { String.valueOf(history.getDateTime()) });
+			}
+		} catch (SQLiteException e) {
+			Log.e(TAG, "remove: " + e.getMessage(), e);
+		}
+		return count > 0;
+	}
+
+	/**
+	 * Remove all history events from the store.
+	 */
+	@Override
+	public void clear() {
+		try {
+			mDatabaseHelper.getWritableDatabase().delete(TABLE_HISTORY, null,
+					null);
+		} catch (SQLiteException e) {
+			Log.e(TAG, "clear: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Remove the history events which are not allowed by the retention
+	 * policy. The events are removed in a single transaction: first the
+	 * events older than the maximum age, then the oldest events of each
+	 * tracker above the tracker cap and finally the oldest events above the
+	 * maximum number of events.
+	 * 
+	 * @param policy
+	 *            The retention policy to be applied.
+	 * @param now
+	 *            The current time in milliseconds.
+	 * @return The number of removed history events.
+	 */
+	@Override
+	public int evict(HistoryRetentionPolicy policy, long now) {
+		int count = 0;
+		if (!policy.isEnabled()) {
+			return count;
+		}
+		SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+		db.beginTransaction();
+		try {
+			if (policy.getMaxAgeDays() > 0) {
+				count += db.delete(TABLE_HISTORY, COLUMN_DATE_TIME + " < ?",
+						new String[] { String.valueOf(policy
+								.getOldestDateTime(now)) });
+			}
+			if (policy.getMaxEntriesPerPhone() > 0) {
+				count += evictPerPhone(db, policy.getMaxEntriesPerPhone());
+			}
+			if (policy.getMaxEntries() > 0) {
+				count += db.delete(TABLE_HISTORY, COLUMN_ID + " IN (SELECT "
+						+ COLUMN_ID + " FROM " + TABLE_HISTORY + " ORDER BY "
+						+ COLUMN_DATE_TIME + " DESC, " + COLUMN_ID
+						+ " DESC LIMIT -1 OFFSET " + policy.getMaxEntries()
+						+ ")", null);
+			}
+			db.setTransactionSuccessful();
+		} catch (SQLiteException e) {
+			Log.e(TAG, "evict: " + e.getMessage(), e);
+			count = 0;
+		} finally {
+			db.endTransaction();
+		}
+		return count;
+	}
+
+	/**
+	 * Remove the oldest history events of each phone number which has more
+	 * events than the specified cap.
+	 * 
+	 * @param db
+	 *            The database used for the transaction.
+	 * @param maxEntriesPerPhone
+	 *            The maximum number of events per phone number.
+	 * @return The number of removed history events.
+	 */
+	private int evictPerPhone(SQLiteDatabase db, int maxEntriesPerPhone) {
+		List<String> phones = new ArrayList<String>();
+		Cursor cursor = db.query(TABLE_HISTORY, new String[] { COLUMN_PHONE },
+				COLUMN_PHONE + " IS NOT NULL", null, COLUMN_PHONE, "COUNT(*) > "
+						+ maxEntriesPerPhone, null);
+		try {
+			while (cursor.moveToNext()) {
+				phones.add(cursor.getString(0));
+			}
+		} finally {
+			cursor.close();
+		}
+		int count = 0;
+		for (String phone : phones) {
+			count += db.delete(TABLE_HISTORY, COLUMN_ID + " IN (SELECT "
+					+ COLUMN_ID + " FROM " + TABLE_HISTORY + " WHERE "
+					+ COLUMN_PHONE + " = ? ORDER BY " + COLUMN_DATE_TIME
+					+ " DESC, " + COLUMN_ID + " DESC LIMIT -1 OFFSET "
+					+ maxEntriesPerPhone + ")", new String[] { phone });
+		}
+		return count;
+	}
+
+	/**
+	 * Obtain the number of stored history events.
+	 * 
+	 * @return The number of history events.
+	 */
+	@Override
+	public int count() {
+		int count = 0;
+		try {
+			count = (int) DatabaseUtils.queryNumEntries(
+					mDatabaseHelper.getReadableDatabase(), TABLE_HISTORY);
+		} catch (SQLiteException e) {
+			Log.e(TAG, "count: " + e.getMessage(), e);
+		}
+		return count;
+	}
+
+	/**
+	 * Load a page of history events ordered by the date time. The skipped
+	 * rows are still read by SQLite, so this should be used only when there
+	 * is no neighbour page, otherwise use {@link #loadAfter(History, int)}
+	 * or {@link #loadBefore(History, int)}.
+	 * 
+	 * @param offset
+	 *            The position of the first history event.
+	 * @param limit
+	 *            The maximum number of history events to load.
+	 * @return The list of history events.
+	 */
+	@Override
+	public List<History> load(int offset, int limit) {
+		return query(null, null, ORDER_ASCENDING, offset + "," + limit, limit);
+	}
+
+	/**
+	 * Load the page of history events which follows an history event. The
+	 * page is found with the date time index, from the key of the event.
+	 * 
+	 * @param last
+	 *            The last history event of the previous page.
+	 * @param limit
+	 *            The maximum number of history events to load.
+	 * @return The list of history events ordered by the date time.
+	 */
+	@Override
+	public List<History> loadAfter(History last, int limit) {
+		return query(COLUMN_DATE_TIME + " > ? OR (" + COLUMN_DATE_TIME
+				+ " = ? AND " + COLUMN_ID + " > ?)", getKeyArgs(last),
+				ORDER_ASCENDING, String.valueOf(limit), limit);
+	}
+
+	/**
+	 * Load the page of history events which precedes an history event. The
+	 * page is read in the reverse order from the key of the event and then
+	 * reversed.
+	 * 
+	 * @param first
+	 *            The first history event of the next page.
+	 * @param limit
+	 *            The maximum number of history events to load.
+	 * @return The list of history events ordered by the date time.
+	 */
+	@Override
+	public List<History> loadBefore(History first, int limit) {
+		List<History> histories = query(COLUMN_DATE_TIME + " < ? OR ("
+				+ COLUMN_DATE_TIME + " = ? AND " + COLUMN_ID + " < ?)",
+				getKeyArgs(first), ORDER_DESCENDING, String.valueOf(limit),
+				limit);
+		Collections.reverse(histories);
+		return histories;
+	}
+
+	/**
+	 * Prepare the selection arguments of a page key.
+	 */
+	private static String[] getKeyArgs(History history) {
+		String dateTime = String.valueOf(history.getDateTime());
+		return new String[] { dateTime, dateTime,
+				String.valueOf(history.getId()) };
+	}
+
+	/**
+	 * Read the history events with a sent report with a cursor, the events
+	 * are given to the listener and are not kept in memory.
+	 * 
+	 * @param listener
+	 *            The listener which receives the history events.
+	 * @return The number of read history events.
+	 */
+	@Override
+	public int scanReported(Listener listener) {
+		int count = 0;
+		Cursor cursor = null;
+		try {
+			cursor = mDatabaseHelper.getReadableDatabase().query(TABLE_HISTORY,
+					COLUMNS, COLUMN_SENT_TIME + " > 0", null, null, null, null);
+			while (cursor.moveToNext()) {
+				listener.onHistory(fromCursor(cursor));
+				count++;
+			}
+		} catch (SQLiteException e) {
+			Log.e(TAG, "scanReported: " + e.getMessage(), e);
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Load all history events ordered by the date time.
+	 * 
+	 * @return The list of history events.
+	 */
+	@Override
+	public List<History> loadAll() {
+		return query(null, null, ORDER_ASCENDING, null, 16);
+	}
+
+	/**
+	 * Query the history events.
+	 * 
+	 * @param selection
+	 *            The SQL where clause or null to load all events.
+	 * @param selectionArgs
+	 *            The where clause arguments, could be null.
+	 * @param orderBy
+	 *            The SQL order by clause.
+	 * @param limit
+	 *            The SQL limit clause or null to load all events.
+	 * @param capacity
+	 *            The initial capacity of the result list.
+	 * @return The list of history events.
+	 */
+	private List<History> query(String selection, String[] selectionArgs,
+			String orderBy, String limit, int capacity) {
+		List<History> histories = new ArrayList<History>(capacity);
+		Cursor cursor = null;
+		try {
+			cursor = mDatabaseHelper.getReadableDatabase().query(TABLE_HISTORY,
+					COLUMNS, selection, selectionArgs, null, null, orderBy,
+					limit);
+			while (cursor.moveToNext()) {
+				histories.add(fromCursor(cursor));
+			}
+		} catch (SQLiteException e) {
+			Log.e(TAG, "query: " + e.getMessage(), e);
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+		return histories;
+	}
+
+	/**
+	 * Build an history event from the current cursor row.
+	 * 
+	 * @param cursor
+	 *            The cursor positioned on a history row.
+	 * @return The history event.
+	 */
+	static History fromCursor(Cursor cursor) {
+		History history = new History(cursor.getLong(1), cursor.getString(2),
+				cursor.getString(3));
+		history.setId(cursor.getLong(0));
+		history.setCarrier(cursor.getString(4));
+		history.setSent(cursor.getLong(5), cursor.getInt(6));
+		history.setDelivered(cursor.getLong(7), cursor.getInt(8));
+		return history;
+	}
+
+	/**
+	 * Prepare the content values for an history event.
+	 * 
+	 * @param history
+	 *            The history event.
+	 * @return The content values used to insert the history.
+	 */
+	private ContentValues toContentValues(History history) {
+		ContentValues values = new ContentValues();
+		values.put(COLUMN_DATE_TIME, history.getDateTime());
+		values.put(COLUMN_PHONE, history.getPhoneNumber());
+		values.put(COLUMN_COMMAND, history.getSmsCommand());
+		values.put(COLUMN_CARRIER, history.getCarrier());
+		return values;
+	}
+}
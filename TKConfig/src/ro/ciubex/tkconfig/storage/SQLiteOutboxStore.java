@@ -0,0 +1,359 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ro.ciubex.tkconfig.models.OutboxMessage;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * SQLite implementation of the SMS outbox store. Each message is a row and
+ * the rows are indexed by the state, so the pending messages are found
+ * without a table scan.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class SQLiteOutboxStore implements OutboxStore {
+	private final static String TAG = SQLiteOutboxStore.class.getName();
+
+	static final String TABLE_OUTBOX = "outbox";
+	static final String COLUMN_ID = "_id";
+	static final String COLUMN_PHONE = "phone";
+	static final String COLUMN_MESSAGE = "message";
+	static final String COLUMN_STATE = "state";
+	static final String COLUMN_CREATED = "created";
+	static final String COLUMN_UPDATED = "updated";
+	static final String COLUMN_RESULT_CODE = "result_code";
+	static final String COLUMN_RETRIES = "retries";
+
+	private static final String[] COLUMNS = { COLUMN_ID, COLUMN_PHONE,
+			COLUMN_MESSAGE, COLUMN_STATE, COLUMN_CREATED, COLUMN_UPDATED,
+			COLUMN_RESULT_CODE, COLUMN_RETRIES };
+
+	private DatabaseHelper mDatabaseHelper;
+
+	public SQLiteOutboxStore(DatabaseHelper databaseHelper) {
+		mDatabaseHelper = databaseHelper;
+	}
+
+	/**
+	 * Create the outbox table and its indexes.
+	 * 
+	 * @param db
+	 *            The database where should be created the table.
+	 */
+	static void createTables(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE_OUTBOX + " (" + COLUMN_ID
+				+ " INTEGER PRIMARY KEY AUTOINCREMENT, " + COLUMN_PHONE
+				+ " TEXT NOT NULL, " + COLUMN_MESSAGE + " TEXT NOT NULL, "
+				+ COLUMN_STATE + " INTEGER NOT NULL, " + COLUMN_CREATED
+				+ " INTEGER NOT NULL, " + COLUMN_UPDATED + " INTEGER NOT NULL, "
+				+ COLUMN_RESULT_CODE + " INTEGER NOT NULL DEFAULT 0, "
+				+ COLUMN_RETRIES + " INTEGER NOT NULL DEFAULT 0)");
+		db.execSQL("CREATE INDEX idx_outbox_state ON " + TABLE_OUTBOX + " ("
+				+ COLUMN_STATE + ", " + COLUMN_ID + ")");
+	}
+
+	/**
+	 * Add the retries column to an outbox table created by an older database
+	 * version.
+	 * 
+	 * @param db
+	 *            The database where is the outbox table.
+	 */
+	static void addRetriesColumn(SQLiteDatabase db) {
+		db.execSQL("ALTER TABLE " + TABLE_OUTBOX + " ADD COLUMN "
+				+ COLUMN_RETRIES + " INTEGER NOT NULL DEFAULT 0");
+	}
+
+	/**
+	 * Store a list of queued messages in a single transaction, using a
+	 * precompiled insert statement.
+	 * 
+	 * @param messages
+	 *            The messages to be stored.
+	 */
+	@Override
+	public void enqueueAll(List<OutboxMessage> messages) {
+		SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+		SQLiteStatement statement = db.compileStatement("INSERT INTO "
+				+ TABLE_OUTBOX + " (" + COLUMN_PHONE + ", " + COLUMN_MESSAGE
+				+ ", " + COLUMN_STATE + ", " + COLUMN_CREATED + ", "
+				+ COLUMN_UPDATED + ") VALUES (?, ?, ?, ?, ?)");
+		db.beginTransaction();
+		try {
+			for (OutboxMessage message : messages) {
+				statement.clearBindings();
+				statement.bindString(1, message.getPhoneNumber());
+				statement.bindString(2, message.getMessage());
+				statement.bindLong(3, message.getState());
+				statement.bindLong(4, message.getCreated());
+				statement.bindLong(5, message.getUpdated());
+				message.setId(statement.executeInsert());
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			statement.close();
+		}
+	}
+
+	/**
+	 * Store the current state and the result code of a message.
+	 * 
+	 * @param message
+	 *            The message with the new state.
+	 * @return True if the message state was stored.
+	 */
+	@Override
+	public boolean updateState(OutboxMessage message) {
+		return updateState(message.getId(), message.getState(),
+				message.getResultCode(), message.getUpdated());
+	}
+
+	/**
+	 * Store the state and the result code of a message, using its ID.
+	 * 
+	 * @param id
+	 *            The outbox message ID.
+	 * @param state
+	 *            The new message state.
+	 * @param resultCode
+	 *            The result code reported by the system.
+	 * @return True if the message state was stored.
+	 */
+	@Override
+	public boolean updateState(long id, int state, int resultCode) {
+		return updateState(id, state, resultCode, System.currentTimeMillis());
+	}
+
+	private boolean updateState(long id, int state, int resultCode,
+			long updated) {
+		int count = 0;
+		ContentValues values = new ContentValues();
+		values.put(COLUMN_STATE, state);
+		values.put(COLUMN_UPDATED, updated);
+		values.put(COLUMN_RESULT_CODE, resultCode);
+		try {
+			count = mDatabaseHelper.getWritableDatabase().update(TABLE_OUTBOX,
+					values, COLUMN_ID + " = ?",
+					new String[] { String.valueOf(id) });
+		} catch (SQLiteException e) {
+			Log.e(TAG, "updateState: " + e.getMessage(), e);
+		}
+		return count > 0;
+	}
+
+	/**
+	 * Queue again a failed message and store its number of retries.
+	 * 
+	 * @param id
+	 *            The outbox message ID.
+	 * @param retries
+	 *            The number of retries, including this one.
+	 * @param resultCode
+	 *            The result code of the failed attempt.
+	 * @return True if the message was queued.
+	 */
+	@Override
+	public boolean queueRetry(long id, int retries, int resultCode) {
+		int count = 0;
+		ContentValues values = new ContentValues();
+		values.put(COLUMN_STATE, OutboxMessage.STATE_QUEUED);
+		values.put(COLUMN_UPDATED, System.currentTimeMillis());
+		values.put(COLUMN_RESULT_CODE, resultCode);
+		values.put(COLUMN_RETRIES, retries);
+		try {
+			count = mDatabaseHelper.getWritableDatabase().update(TABLE_OUTBOX,
+					values, COLUMN_ID + " = ?",
+					new String[] { String.valueOf(id) });
+		} catch (SQLiteException e) {
+			Log.e(TAG, "queueRetry: " + e.getMessage(), e);
+		}
+		return count > 0;
+	}
+
+	/**
+	 * Find a message by its ID.
+	 * 
+	 * @param id
+	 *            The outbox message ID.
+	 * @return The outbox message or null if it was not found.
+	 */
+	@Override
+	public OutboxMessage find(long id) {
+		OutboxMessage message = null;
+		Cursor cursor = null;
+		try {
+			cursor = mDatabaseHelper.getReadableDatabase().query(TABLE_OUTBOX,
+					COLUMNS, COLUMN_ID + " = ?",
+					new String[] { String.valueOf(id) }, null, null, null);
+			if (cursor.moveToFirst()) {
+				message = fromCursor(cursor);
+			}
+		} catch (SQLiteException e) {
+			Log.e(TAG, "find: " + e.getMessage(), e);
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+		return message;
+	}
+
+	/**
+	 * Mark as failed the messages which were handed to the SMS manager but
+	 * were not confirmed as sent.
+	 * 
+	 * @return The number of interrupted messages.
+	 */
+	@Override
+	public int failInterrupted() {
+		int count = 0;
+		ContentValues values = new ContentValues();
+		values.put(COLUMN_STATE, OutboxMessage.STATE_FAILED);
+		values.put(COLUMN_UPDATED, System.currentTimeMillis());
+		try {
+			count = mDatabaseHelper.getWritableDatabase().update(TABLE_OUTBOX,
+					values, COLUMN_STATE + " = ?",
+					new String[] { String.valueOf(OutboxMessage.STATE_SENDING) });
+		} catch (SQLiteException e) {
+			Log.e(TAG, "failInterrupted: " + e.getMessage(), e);
+		}
+		return count;
+	}
+
+	/**
+	 * Remove the messages which reached a final state before a time.
+	 * 
+	 * @param before
+	 *            The time in milliseconds.
+	 * @return The number of removed messages.
+	 */
+	@Override
+	public int purgeFinished(long before) {
+		int count = 0;
+		try {
+			count = mDatabaseHelper.getWritableDatabase().delete(
+					TABLE_OUTBOX,
+					COLUMN_STATE + " IN (" + OutboxMessage.STATE_SENT + ", "
+							+ OutboxMessage.STATE_DELIVERED + ", "
+							+ OutboxMessage.STATE_FAILED + ") AND "
+							+ COLUMN_UPDATED + " < ?",
+					new String[] { String.valueOf(before) });
+		} catch (SQLiteException e) {
+			Log.e(TAG, "purgeFinished: " + e.getMessage(), e);
+		}
+		return count;
+	}
+
+	/**
+	 * Remove a message.
+	 * 
+	 * @param id
+	 *            The outbox message ID.
+	 * @return True if the message was removed.
+	 */
+	@Override
+	public boolean remove(long id) {
+		int count = 0;
+		try {
+			count = mDatabaseHelper.getWritableDatabase().delete(TABLE_OUTBOX,
+					COLUMN_ID + " = ?", new String[] { String.valueOf(id) });
+		} catch (SQLiteException e) {
+			Log.e(TAG, "remove: " + e.getMessage(), e);
+		}
+		return count > 0;
+	}
+
+	/**
+	 * Obtain the number of messages with a state.
+	 * 
+	 * @param state
+	 *            The message state.
+	 * @return The number of messages.
+	 */
+	@Override
+	public int count(int state) {
+		int count = 0;
+		try {
+			count = (int) DatabaseUtils.longForQuery(
+					mDatabaseHelper.getReadableDatabase(), "SELECT COUNT(*) FROM "
+							+ TABLE_OUTBOX + " WHERE " + COLUMN_STATE + " = ?",
+					new String[] { String.valueOf(state) });
+		} catch (SQLiteException e) {
+			Log.e(TAG, "count: " + e.getMessage(), e);
+		}
+		return count;
+	}
+
+	/**
+	 * Load the messages with a state, in the order they were queued.
+	 * 
+	 * @param state
+	 *            The message state.
+	 * @return The list of messages.
+	 */
+	@Override
+	public List<OutboxMessage> load(int state) {
+		List<OutboxMessage> messages = new ArrayList<OutboxMessage>();
+		Cursor cursor = null;
+		try {
+			cursor = mDatabaseHelper.getReadableDatabase().query(TABLE_OUTBOX,
+					COLUMNS, COLUMN_STATE + " = ?",
+					new String[] { String.valueOf(state) }, null, null,
+					COLUMN_ID);
+			while (cursor.moveToNext()) {
+				messages.add(fromCursor(cursor));
+			}
+		} catch (SQLiteException e) {
+			Log.e(TAG, "load: " + e.getMessage(), e);
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+		return messages;
+	}
+
+	/**
+	 * Build an outbox message from the current cursor row.
+	 * 
+	 * @param cursor
+	 *            The cursor positioned on an outbox row.
+	 * @return The outbox message.
+	 */
+	static OutboxMessage fromCursor(Cursor cursor) {
+		OutboxMessage message = new OutboxMessage(cursor.getLong(0),
+				cursor.getString(1), cursor.getString(2), cursor.getInt(3),
+				cursor.getLong(4), cursor.getLong(5));
+		message.setResultCode(cursor.getInt(6));
+		message.setRetries(cursor.getInt(7));
+		return message;
+	}
+}
@@ -0,0 +1,250 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import ro.ciubex.tkconfig.models.Command;
+import android.util.Log;
+
+/**
+ * Versioned binary snapshot of the application state: the command list with
+ * the already parsed parameters and the command settings.
+ * <p>
+ * The snapshot covers only the commands. The GPS contacts were part of the
+ * first version, they are now loaded from the GPS contacts store, which is
+ * already indexed and read with a single query, so keeping them also on the
+ * snapshot would only add a second copy to be kept in sync.
+ * <p>
+ * The versions: 1 - commands and GPS contacts, 2 - only the commands, 3 - the
+ * commands with the urgent priority flag. A snapshot with another version is
+ * ignored and rebuilt from the application preferences.
+ * <p>
+ * The snapshot is read in one sequential pass at startup. It is valid only if
+ * it was written for the same state generation as the one stored on the
+ * application preferences, otherwise the caller should fall back to the
+ * preferences.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class StateSnapshot {
+	private final static String TAG = StateSnapshot.class.getName();
+	public static final String FILE_NAME = "snapshot.bin";
+	private static final int MAGIC = 0x544B4353;
+	public static final int VERSION = 3;
+
+	private final File mFile;
+
+	/**
+	 * The application state stored on the snapshot.
+	 */
+	public static class State {
+		public long generation;
+		public long nextCommandId;
+		public List<Command> commands;
+	}
+
+	public StateSnapshot(File directory) {
+		mFile = new File(directory, FILE_NAME);
+	}
+
+	/**
+	 * Check if the snapshot file exists.
+	 * 
+	 * @return True if the snapshot file exists.
+	 */
+	public boolean exists() {
+		return mFile.exists();
+	}
+
+	/**
+	 * Read the snapshot.
+	 * 
+	 * @param generation
+	 *            The expected state generation.
+	 * @return The application state or null if the snapshot does not exist,
+	 *         is stale, has other version or could not be read.
+	 */
+	public State read(long generation) {
+		if (!mFile.exists()) {
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(mFile), 8192));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				Log.w(TAG, "Snapshot version not supported.");
+				return null;
+			}
+			State state = new State();
+			state.generation = in.readLong();
+			if (state.generation != generation) {
+				Log.i(TAG, "Snapshot is stale: " + state.generation + " != "
+						+ generation);
+				return null;
+			}
+			state.nextCommandId = in.readLong();
+			state.commands = readCommands(in);
+			return state;
+		} catch (IOException e) {
+			Log.e(TAG, "read: " + e.getMessage(), e);
+		} catch (RuntimeException e) {
+			Log.e(TAG, "read: " + e.getMessage(), e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					Log.e(TAG, "read: " + e.getMessage(), e);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Read the commands, stored in the list order.
+	 */
+	private List<Command> readCommands(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		List<Command> commands = new ArrayList<Command>(count);
+		Command command;
+		long id;
+		String name, cmd, description;
+		boolean urgent;
+		List<String> parameters;
+		int size;
+		for (int i = 0; i < count; i++) {
+			id = in.readLong();
+			name = in.readUTF();
+			cmd = in.readUTF();
+			description = in.readUTF();
+			urgent = in.readBoolean();
+			size = in.readShort();
+			parameters = new ArrayList<String>(size);
+			for (int j = 0; j < size; j++) {
+				parameters.add(in.readUTF());
+			}
+			command = new Command(name, cmd, description, parameters);
+			command.setId(id);
+			command.setUrgent(urgent);
+			commands.add(command);
+		}
+		return commands;
+	}
+
+	/**
+	 * Encode the application state. This should be invoked on the thread
+	 * which owns the state, the result could be written from any thread.
+	 * 
+	 * @param state
+	 *            The application state to be encoded.
+	 * @return The encoded snapshot.
+	 */
+	public static byte[] encode(State state) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+				4096 + state.commands.size() * 128);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(state.generation);
+			out.writeLong(state.nextCommandId);
+			out.writeInt(state.commands.size());
+			for (Command command : state.commands) {
+				out.writeLong(command.getId());
+				out.writeUTF(nonNull(command.getName()));
+				out.writeUTF(nonNull(command.getCommand()));
+				out.writeUTF(nonNull(command.getDescription()));
+				out.writeBoolean(command.isUrgent());
+				List<String> parameters = command.getParameters();
+				out.writeShort(parameters.size());
+				for (String parameter : parameters) {
+					out.writeUTF(parameter);
+				}
+			}
+			out.flush();
+		} catch (IOException e) {
+			Log.e(TAG, "encode: " + e.getMessage(), e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static String nonNull(String value) {
+		return value != null ? value : "";
+	}
+
+	/**
+	 * Write an encoded snapshot. The content is written to a temporary file
+	 * which is renamed at the end, so a partial write never replaces a valid
+	 * snapshot.
+	 * 
+	 * @param content
+	 *            The encoded snapshot.
+	 * @return True if the snapshot was written.
+	 */
+	public boolean write(byte[] content) {
+		File temp = new File(mFile.getParentFile(), FILE_NAME + ".tmp");
+		FileOutputStream out = null;
+		boolean result = false;
+		try {
+			out = new FileOutputStream(temp);
+			out.write(content);
+			out.flush();
+			out.getFD().sync();
+			out.close();
+			out = null;
+			result = temp.renameTo(mFile);
+		} catch (IOException e) {
+			Log.e(TAG, "write: " + e.getMessage(), e);
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					Log.e(TAG, "write: " + e.getMessage(), e);
+				}
+			}
+		}
+		if (!result) {
+			temp.delete();
+		}
+		return result;
+	}
+
+	/**
+	 * Delete the snapshot file.
+	 */
+	public void delete() {
+		if (mFile.exists() && !mFile.delete()) {
+			Log.w(TAG, "Unable to delete the snapshot.");
+		}
+	}
+}
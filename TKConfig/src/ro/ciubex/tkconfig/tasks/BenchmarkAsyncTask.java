@@ -0,0 +1,101 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.tasks;
+
+import java.util.List;
+
+import ro.ciubex.tkconfig.benchmark.Benchmark;
+import ro.ciubex.tkconfig.models.Constants;
+import android.os.AsyncTask;
+import android.util.Log;
+
+/**
+ * Asynchronous task used to run the diagnostic benchmarks.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class BenchmarkAsyncTask extends
+		AsyncTask<Void, Void, DefaultAsyncTaskResult> {
+	private final static String TAG = BenchmarkAsyncTask.class.getName();
+
+	/**
+	 * The listener should implement this interface
+	 */
+	public interface Responder {
+		public void startBenchmark();
+
+		public void endBenchmark(DefaultAsyncTaskResult result);
+	}
+
+	private Responder responder;
+	private List<Benchmark> benchmarks;
+
+	public BenchmarkAsyncTask(Responder responder, List<Benchmark> benchmarks) {
+		this.responder = responder;
+		this.benchmarks = benchmarks;
+	}
+
+	/**
+	 * Method invoked when is started this task
+	 */
+	@Override
+	protected void onPreExecute() {
+		super.onPreExecute();
+		responder.startBenchmark();
+	}
+
+	/**
+	 * Method invoked at the end of this task
+	 * 
+	 * @param result
+	 *            The result of this task
+	 */
+	@Override
+	protected void onPostExecute(DefaultAsyncTaskResult result) {
+		super.onPostExecute(result);
+		responder.endBenchmark(result);
+	}
+
+	/**
+	 * Run all benchmarks and collect the reports.
+	 */
+	@Override
+	protected DefaultAsyncTaskResult doInBackground(Void... params) {
+		DefaultAsyncTaskResult result = new DefaultAsyncTaskResult();
+		result.resultId = Constants.OK;
+		StringBuilder sb = new StringBuilder();
+		for (Benchmark benchmark : benchmarks) {
+			try {
+				if (sb.length() > 0) {
+					sb.append("\n\n");
+				}
+				sb.append(benchmark.run());
+			} catch (RuntimeException e) {
+				result.resultId = Constants.ERROR;
+				sb.append(benchmark.getName()).append(": ")
+						.append(e.getMessage());
+				Log.e(TAG, "Exception: " + e.getMessage(), e);
+			}
+		}
+		result.resultMessage = sb.toString();
+		Log.i(TAG, result.resultMessage);
+		return result;
+	}
+}
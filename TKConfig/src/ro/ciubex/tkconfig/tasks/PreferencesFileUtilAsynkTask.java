@@ -26,11 +26,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import ro.ciubex.tkconfig.R;
 import ro.ciubex.tkconfig.TKConfigApplication;
 import ro.ciubex.tkconfig.models.Constants;
+import ro.ciubex.tkconfig.models.GpsContact;
 import ro.ciubex.tkconfig.models.Utilities;
 import android.app.Application;
 import android.content.SharedPreferences;
@@ -46,6 +49,9 @@ public class PreferencesFileUtilAsynkTask extends
 		AsyncTask<Void, Void, DefaultAsyncTaskResult> {
 	private final static String TAG = PreferencesFileUtilAsynkTask.class
 			.getName();
+	private static final String KEY_PREFIX_PARAMETER = "parameter/";
+	private static final String KEY_LEGACY_COMMANDS = "commands";
+	private static final String KEY_COMMAND_IDS = "commandIds";
 
 	/**
 	 * The listener should implement this interface
@@ -103,6 +109,10 @@ public class PreferencesFileUtilAsynkTask extends
 	@Override
 	protected void onPostExecute(DefaultAsyncTaskResult result) {
 		super.onPostExecute(result);
+		if (operationType == Operation.RESTORE
+				&& result.resultId == Constants.OK) {
+			((TKConfigApplication) responder.getApplication()).contactsLoad();
+		}
 		responder.endFileAsynkTask(operationType, result);
 	}
 
@@ -168,6 +178,7 @@ public class PreferencesFileUtilAsynkTask extends
 	private void backupToFile(DefaultAsyncTaskResult result) {
 		TKConfigApplication app = (TKConfigApplication) responder
 				.getApplication();
+		app.flushPendingChanges();
 		result.resultMessage = app.getString(R.string.backup_success,
 				externalFileName);
 		OutputStream fos = null;
@@ -187,6 +198,8 @@ public class PreferencesFileUtilAsynkTask extends
 					sb.append(key).append(':').append(clazz).append(':')
 							.append(value).append('\n');
 				}
+				backupContacts(app, sb);
+				backupParameters(app, sb);
 				String content = sb.toString();
 				fos.write(content.getBytes());
 				fos.flush();
@@ -226,6 +239,57 @@ public class PreferencesFileUtilAsynkTask extends
 		}
 	}
 
+	/**
+	 * Append the GPS contacts to the backup content, using the preferences
+	 * keys of the older application versions. On restore these keys are
+	 * moved back to the GPS contacts store.
+	 * 
+	 * @param app
+	 *            The application.
+	 * @param sb
+	 *            The backup content.
+	 */
+	private void backupContacts(TKConfigApplication app, StringBuilder sb) {
+		List<GpsContact> contacts = app.getGpsContactStore().loadAll();
+		String string = String.class.getName();
+		sb.append("contacts:").append(Integer.class.getName()).append(':')
+				.append(contacts.size()).append('\n');
+		int i = 0;
+		for (GpsContact contact : contacts) {
+			sb.append("contact_").append(i).append("_name:").append(string)
+					.append(':').append(contact.getName()).append('\n');
+			sb.append("contact_").append(i).append("_phone:").append(string)
+					.append(':').append(contact.getPhone()).append('\n');
+			sb.append("contact_").append(i).append("_password:")
+					.append(string).append(':').append(contact.getPassword())
+					.append('\n');
+			sb.append("contact_").append(i).append("_selected:")
+					.append(Boolean.class.getName()).append(':')
+					.append(contact.isSelected()).append('\n');
+			i++;
+		}
+	}
+
+	/**
+	 * Append the commands parameters values from the parameters registry to
+	 * the backup content. The registry keys are prefixed to be restored back
+	 * on the registry.
+	 * 
+	 * @param app
+	 *            The application.
+	 * @param sb
+	 *            The backup content.
+	 */
+	private void backupParameters(TKConfigApplication app, StringBuilder sb) {
+		String string = String.class.getName();
+		for (Map.Entry<String, String> entry : app.getParameterRegistry()
+				.getAll().entrySet()) {
+			sb.append(KEY_PREFIX_PARAMETER).append(entry.getKey()).append(':')
+					.append(string).append(':').append(entry.getValue())
+					.append('\n');
+		}
+	}
+
 	/**
 	 * Method used to restore application preferences
 	 * 
@@ -242,19 +306,41 @@ public class PreferencesFileUtilAsynkTask extends
 		try {
 			File f = new File(externalFileName);
 			if (f.exists()) {
+				app.flushPendingChanges();
 				inFile = new FileInputStream(f);
 				reader = new BufferedReader(new InputStreamReader(inFile));
 				SharedPreferences prefs = app.getSharedPreferences();
 				Editor editor = prefs.edit();
+				Map<String, String> parameters = new HashMap<String, String>();
 				String line;
 				String[] arrLine;
+				boolean legacyCommands = false, commandIds = false;
 				while ((line = reader.readLine()) != null) {
 					arrLine = currentLine(line);
-					if (arrLine != null) {
+					if (arrLine == null) {
+						continue;
+					}
+					if (KEY_LEGACY_COMMANDS.equals(arrLine[0])) {
+						legacyCommands = true;
+					} else if (KEY_COMMAND_IDS.equals(arrLine[0])) {
+						commandIds = true;
+					}
+					if (arrLine[0].startsWith(KEY_PREFIX_PARAMETER)) {
+						parameters.put(arrLine[0]
+								.substring(KEY_PREFIX_PARAMETER.length()),
+								arrLine[2]);
+					} else {
 						storeCurrentLine(editor, arrLine);
 					}
 				}
 				editor.commit();
+				if (legacyCommands && !commandIds) {
+					// a backup made before the stable identifiers layout, drop
+					// the current commands so the restored ones are migrated
+					app.commandsStoreCleanup();
+				}
+				app.getParameterRegistry().restore(parameters);
+				app.invalidateStateSnapshot();
 			} else {
 				result.resultId = Constants.ERROR;
 				result.resultMessage = app.getString(
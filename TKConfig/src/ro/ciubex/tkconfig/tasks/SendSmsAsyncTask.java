@@ -0,0 +1,307 @@
+/**
+ * This file is part of TKConfig application.
+ * 
+ * Copyright (C) 2016 Claudiu Ciobotariu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ro.ciubex.tkconfig.tasks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ro.ciubex.tkconfig.TKConfigApplication;
+import ro.ciubex.tkconfig.models.BoundTemplate;
+import ro.ciubex.tkconfig.models.Constants;
+import ro.ciubex.tkconfig.models.GpsContact;
+import ro.ciubex.tkconfig.models.OutboxMessage;
+import ro.ciubex.tkconfig.sms.SmsRateLimiter;
+import ro.ciubex.tkconfig.storage.GpsContactStore;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Asynchronous task used to send a command to all selected GPS contacts. The
+ * IDs of the selected contacts are taken when the task starts, so a later
+ * change of the selection does not change the targets of a running task. The
+ * contacts are loaded from the GPS contacts store in pages, each page is
+ * rendered, queued on the outbox and sent, so only the IDs are kept for all
+ * the targets. An urgent task receives its explicit list of contacts. Each message waits for a token from the
+ * SMS rate limiter, the sent messages are written to the Send folder in
+ * batches. The task can be cancelled between two messages, also while
+ * it waits for a token; the queued messages which were not sent are marked as
+ * cancelled. The GPS contacts with too many failures are skipped, also the
+ * GPS contacts which received recently the same command. An urgent
+ * task takes the rate limiter tokens before the bulk tasks. The task is kept
+ * by the application, the activity attach and detach its responder, so the
+ * sending survives the activity recreation.
+ * 
+ * @author Claudiu Ciobotariu
+ * 
+ */
+public class SendSmsAsyncTask extends
+		AsyncTask<Void, Integer, DefaultAsyncTaskResult> {
+	private final static String TAG = SendSmsAsyncTask.class.getName();
+	public static final int PAGE_SIZE = 100;
+
+	/**
+	 * The listener should implement this interface
+	 */
+	public interface Responder {
+		public void startSendSms(int total);
+
+		public void updateSendSms(int processed, int total, float rate);
+
+		public void endSendSms(DefaultAsyncTaskResult result, int sent,
+				int duplicates);
+	}
+
+	private Responder responder;
+	private TKConfigApplication application;
+	private BoundTemplate message;
+	private int priority;
+	private List<GpsContact> contacts;
+	private long[] targets;
+	private int total;
+	private int processed;
+	private int sent;
+	private int skipped;
+	private List<GpsContact> duplicates = new ArrayList<GpsContact>();
+	private long startTime;
+
+	public SendSmsAsyncTask(Responder responder,
+			TKConfigApplication application, BoundTemplate message) {
+		this(responder, application, message, SmsRateLimiter.PRIORITY_BULK);
+	}
+
+	public SendSmsAsyncTask(Responder responder,
+			TKConfigApplication application, BoundTemplate message, int priority) {
+		this(responder, application, message, priority, null);
+	}
+
+	/**
+	 * The constructor of a task which sends the message to an explicit list
+	 * of GPS contacts, instead of the selected GPS contacts.
+	 * 
+	 * @param responder
+	 *            The listener of this task.
+	 * @param application
+	 *            The application.
+	 * @param message
+	 *            The bound message to be sent.
+	 * @param priority
+	 *            The rate limiter priority.
+	 * @param contacts
+	 *            The GPS contacts or null to send to the selected contacts.
+	 */
+	public SendSmsAsyncTask(Responder responder,
+			TKConfigApplication application, BoundTemplate message, int priority,
+			List<GpsContact> contacts) {
+		this.responder = responder;
+		this.application = application;
+		this.message = message;
+		this.priority = priority;
+		this.contacts = contacts;
+	}
+
+	/**
+	 * Attach or detach the listener of this task. A detached task continues
+	 * the sending, the result is showed by the application.
+	 * 
+	 * @param responder
+	 *            The listener or null to detach the current listener.
+	 */
+	public void setResponder(Responder responder) {
+		this.responder = responder;
+	}
+
+	/**
+	 * Check if this task sends urgent commands.
+	 * 
+	 * @return True if the task is urgent.
+	 */
+	public boolean isUrgent() {
+		return priority == SmsRateLimiter.PRIORITY_URGENT;
+	}
+
+	/**
+	 * Obtain the number of messages to be processed.
+	 * 
+	 * @return The number of messages.
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * Obtain the number of processed messages.
+	 * 
+	 * @return The number of processed messages.
+	 */
+	public int getProcessed() {
+		return processed;
+	}
+
+	/**
+	 * Method invoked when is started this task
+	 */
+	@Override
+	protected void onPreExecute() {
+		super.onPreExecute();
+		if (contacts != null) {
+			total = contacts.size();
+		} else {
+			targets = application.getGpsContactStore().loadSelectedIds();
+			total = targets.length;
+		}
+		if (responder != null) {
+			responder.startSendSms(total);
+		}
+	}
+
+	/**
+	 * Method invoked when the progress is published.
+	 * 
+	 * @param values
+	 *            The number of processed messages.
+	 */
+	@Override
+	protected void onProgressUpdate(Integer... values) {
+		if (responder != null) {
+			responder.updateSendSms(values[0], total, getRate());
+		}
+	}
+
+	/**
+	 * Method invoked at the end of this task
+	 * 
+	 * @param result
+	 *            The result of this task
+	 */
+	@Override
+	protected void onPostExecute(DefaultAsyncTaskResult result) {
+		super.onPostExecute(result);
+		finish(result);
+	}
+
+	/**
+	 * Method invoked if the task was cancelled.
+	 */
+	@Override
+	protected void onCancelled() {
+		DefaultAsyncTaskResult result = new DefaultAsyncTaskResult();
+		result.resultId = Constants.OK;
+		finish(result);
+	}
+
+	/**
+	 * Release the task from the application and notify the listener. If there
+	 * is no listener attached, the result is showed by the application.
+	 * 
+	 * @param result
+	 *            The result of this task
+	 */
+	private void finish(DefaultAsyncTaskResult result) {
+		application.onSendSmsTaskEnded(this);
+		if (responder != null) {
+			responder.endSendSms(result, sent, duplicates.size());
+		} else {
+			application.showSendSMSResult(application, sent);
+			application.showSuppressedSMS(application, duplicates.size());
+		}
+	}
+
+	/**
+	 * Load the target GPS contacts page by page and send the message to each
+	 * one.
+	 */
+	@Override
+	protected DefaultAsyncTaskResult doInBackground(Void... params) {
+		DefaultAsyncTaskResult result = new DefaultAsyncTaskResult();
+		result.resultId = Constants.OK;
+		GpsContactStore store = application.getGpsContactStore();
+		SmsRateLimiter limiter = application.getSmsRateLimiter();
+		startTime = SystemClock.elapsedRealtime();
+		int end;
+		List<GpsContact> page;
+		List<OutboxMessage> messages;
+		try {
+			for (int start = 0; start < total && !isCancelled(); start = end) {
+				end = Math.min(start + PAGE_SIZE, total);
+				if (contacts != null) {
+					page = new ArrayList<GpsContact>(contacts.subList(start, end));
+				} else {
+					page = store.load(targets, start, end);
+				}
+				messages = application.enqueueSMS(page, message, duplicates);
+				if (messages.size() < end - start) {
+					skipped += end - start - messages.size();
+					processed += end - start - messages.size();
+					publishProgress(processed);
+				}
+				for (OutboxMessage outboxMessage : messages) {
+					if (!acquirePermit(limiter)) {
+						break;
+					}
+					if (application.dispatchSMS(outboxMessage)) {
+						sent++;
+					}
+					processed++;
+					publishProgress(processed);
+				}
+				if (isCancelled()) {
+					application.cancelSMS(messages);
+				}
+			}
+		} catch (RuntimeException e) {
+			result.resultId = Constants.ERROR;
+			result.resultMessage = e.getMessage();
+			Log.e(TAG, "Exception: " + e.getMessage(), e);
+		}
+		application.flushSentFolder();
+		Log.i(TAG, "Sent " + sent + " of " + processed + " messages in "
+				+ (SystemClock.elapsedRealtime() - startTime) + " ms, "
+				+ getRate() + " messages per second, " + skipped
+				+ " skipped.");
+		return result;
+	}
+
+	/**
+	 * Wait for a token from the rate limiter, checking periodically if the
+	 * task was cancelled.
+	 * 
+	 * @param limiter
+	 *            The SMS rate limiter.
+	 * @return True if the token was taken, false if the task was cancelled.
+	 */
+	private boolean acquirePermit(SmsRateLimiter limiter) {
+		while (!isCancelled()) {
+			if (limiter.acquire(SmsRateLimiter.DEFAULT_SIM, 500, priority)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Obtain the sustained sending rate, from the task start.
+	 * 
+	 * @return The number of processed messages per second.
+	 */
+	public float getRate() {
+		long elapsed = SystemClock.elapsedRealtime() - startTime;
+		return elapsed > 0 ? processed * 1000f / elapsed : 0f;
+	}
+}